@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.mapml.projections.Bounds;
+import org.mapml.projections.LatLng;
+import org.mapml.projections.Point;
+import org.mapml.projections.TiledCRS;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput and allocation of rendering a MapML document for an OSMTILE
+ * extent centred on Ottawa, for the first page and for a page in the middle
+ * of the extent.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MapMLPrinterBenchmark {
+    private static final String[] TEMPLATES = {
+        "{scheme}://{s}.tile.openstreetmap.org/{z}/{x}/{y}.png",
+        "http://example.com/arcgis/rest/services/BaseMaps/MapServer/tile/{z}/{y}/{x}?m4h=t",
+        "http://example.com/tiles/?z={z}&x={x}&y={y}&layer=labels"
+    };
+
+    @Param({"10", "15", "18"})
+    public int zoom;
+
+    /** the width and height of the requested extent, in tiles */
+    @Param({"4", "32", "256"})
+    public int extentTiles;
+
+    @Param({"20", "100"})
+    public int pageSize;
+
+    @Param({"1", "3"})
+    public int templateCount;
+
+    private MapMLPrinter printer;
+    private Bounds extent;
+    private String responseType;
+    private long middlePage;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setUp() {
+        printer = new MapMLPrinter("OSMTILE");
+        TiledCRS tcrs = printer.getTiledCRS();
+        Point min = tcrs.project(new LatLng(-85.0511287798, -180));
+        Point max = tcrs.project(new LatLng(85.0511287798, 180));
+        printer.setServiceBounds(new MapMLServiceBounds(0, 18, new Bounds(min, max), tcrs));
+        printer.setTileServers("a,b,c");
+        printer.setTileUrlTemplates(Arrays.copyOf(TEMPLATES, templateCount));
+        printer.setLicenseUrl("http://www.openstreetmap.org/copyright");
+        printer.setLicenseTitle("© OpenStreetMap contributors CC BY-SA");
+        printer.setTitle("OpenStreetMap");
+        printer.setPageSize(pageSize);
+        extent = extent(tcrs, zoom, extentTiles);
+        responseType = "text/mapml;projection=OSMTILE;zoom=" + zoom;
+        long tileCount = tcrs.tileCount(zoom, extent);
+        middlePage = tileCount / 2 / pageSize * pageSize;
+        out = new ByteArrayOutputStream(64 * 1024);
+    }
+
+    /**
+     * @return a square extent of the given number of tiles on a side, centred on Ottawa
+     */
+    static Bounds extent(TiledCRS tcrs, int zoom, int tiles) {
+        Point centre = tcrs.latLngToPoint(new LatLng(45.398043D, -75.70683D), zoom);
+        double half = tiles * tcrs.getTileSize() / 2D;
+        return new Bounds(new Point(centre.x - half, centre.y - half), new Point(centre.x + half, centre.y + half));
+    }
+
+    @Benchmark
+    public int firstPage() throws IOException {
+        out.reset();
+        printer.printMapMLDoc("http", responseType, 0, "http://example.com/osm/", zoom, extent, "OSMTILE", out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int middlePage() throws IOException {
+        out.reset();
+        printer.printMapMLDoc("http", responseType, middlePage, "http://example.com/osm/", zoom, extent, "OSMTILE", out);
+        return out.size();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml.projections;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput and allocation of the forward and inverse projections of the 
+ * tiled CRSs: web mercator (OSMTILE), Lambert conformal conic (CBMTILE) and
+ * polar stereographic (APSTILE).  With exact=false, web mercator is computed
+ * in closed form; compare it with exact=true, which always uses proj4j, e.g.
+ * -Djmh.args="-p code=EPSG:3857 ProjectionBenchmark".  With maxError greater 
+ * than 0, the other projections are interpolated in grids over the bounds of 
+ * their tiled CRS, to within that many metres.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProjectionBenchmark {
+
+    @Param({"EPSG:3857", "EPSG:3978", "EPSG:5936"})
+    public String code;
+
+    @Param({"false", "true"})
+    public boolean exact;
+
+    @Param({"0", "1"})
+    public double maxError;
+
+    private Projection projection;
+    private LatLng latlng;
+    private Point point;
+    private double[] batch;
+    private double[] lnglats;
+    private double[] points;
+
+    @Setup
+    public void setUp() {
+        projection = new Projection(code, exact);
+        if (maxError > 0 && !projection.isClosedForm()) {
+            for (TiledCRSParams parameters : TiledCRSConstants.tiledCRSDefinitions.values()) {
+                if (parameters.getCode().equals(code)) {
+                    projection = new GridProjection(code, parameters.getBounds(), maxError);
+                }
+            }
+        }
+        latlng = new LatLng(60D, -100D);
+        point = projection.project(latlng);
+        // a batch of points along a parallel, as when densifying an extent
+        lnglats = new double[2 * 256];
+        for (int i = 0; i < 256; i++) {
+            lnglats[2 * i] = -120D + i * 0.25;
+            lnglats[2 * i + 1] = 60D;
+        }
+        points = lnglats.clone();
+        projection.project(points, 0, points.length / 2);
+        batch = new double[lnglats.length];
+    }
+
+    @Benchmark
+    public Point project() {
+        return projection.project(latlng);
+    }
+
+    @Benchmark
+    public LatLng unproject() {
+        return projection.unproject(point);
+    }
+
+    @Benchmark
+    public double[] projectBatch() {
+        System.arraycopy(lnglats, 0, batch, 0, lnglats.length);
+        projection.project(batch, 0, lnglats.length / 2);
+        return batch;
+    }
+
+    @Benchmark
+    public double[] unprojectBatch() {
+        System.arraycopy(points, 0, batch, 0, points.length);
+        projection.unproject(batch, 0, points.length / 2);
+        return batch;
+    }
+}
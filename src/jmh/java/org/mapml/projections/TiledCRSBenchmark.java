@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml.projections;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput and allocation of tile enumeration and of the pixel coordinate
+ * conversions of an OSMTILE TiledCRS.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TiledCRSBenchmark {
+
+    @Param({"10", "15", "18"})
+    public int zoom;
+
+    /** the width and height of the requested extent, in tiles */
+    @Param({"4", "32", "256"})
+    public int extentTiles;
+
+    @Param({"20", "100"})
+    public int pageSize;
+
+    private TiledCRS tcrs;
+    private Bounds extent;
+    private long middlePage;
+    private TileBuffer buffer;
+    private LatLng latlng;
+    private Point point;
+
+    @Setup
+    public void setUp() {
+        tcrs = TiledCRSRegistry.get("OSMTILE");
+        latlng = new LatLng(45.398043D, -75.70683D);
+        point = tcrs.latLngToPoint(latlng, zoom);
+        double half = extentTiles * tcrs.getTileSize() / 2D;
+        extent = new Bounds(new Point(point.x - half, point.y - half), new Point(point.x + half, point.y + half));
+        middlePage = tcrs.tileCount(zoom, extent) / 2 / pageSize * pageSize;
+        buffer = new TileBuffer(pageSize);
+    }
+
+    @Benchmark
+    public List<TileCoordinates> tilesForExtentList() {
+        return tcrs.getTilesForExtent(extent, zoom, 0, pageSize);
+    }
+
+    @Benchmark
+    public int tilesForExtentBuffer() {
+        return tcrs.getTilesForExtent(extent, zoom, 0, pageSize, buffer);
+    }
+
+    @Benchmark
+    public int tilesForExtentMiddlePage() {
+        return tcrs.getTilesForExtent(extent, zoom, middlePage, pageSize, buffer);
+    }
+
+    @Benchmark
+    public Point latLngToPoint() {
+        return tcrs.latLngToPoint(latlng, zoom);
+    }
+
+    @Benchmark
+    public LatLng pointToLatLng() {
+        return tcrs.pointToLatLng(point, zoom);
+    }
+}
@@ -0,0 +1,510 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary encoding of MapML documents, negotiated with the media 
+ * type {@value #MEDIA_TYPE}.  The encoding is a stream of tokens, so that a 
+ * client builds the document model without parsing XML:
+ * <pre>
+ *   document  = "MAPB" version(1) token*
+ *   token     = START name count(varint) (name value)*   -- a start tag and its attributes
+ *             | END                                     -- the end tag of the current element
+ *             | EMPTY                                   -- the end of the current, empty element
+ *             | TEXT value                              -- a text node
+ *   name      = string
+ *   value     = parts(varint) part*
+ *   part      = varint: even v is the integer v/2, odd v is the string (v-1)/2
+ *   string    = 0 length(varint) UTF-8 bytes            -- a new string, added to the table
+ *             | n                                       -- entry n-1 of the string table
+ * </pre>
+ * Attribute values are written as the parts they are written in through 
+ * {@link MapMLSink}: non-negative integers as integers, and each run of 
+ * other parts between them as a string, which is encoded once and then 
+ * referred to through the string table.  The host and path segments of the tile URLs of a document are 
+ * therefore written once, and each tile costs a few bytes of column and row
+ * numbers.  Integers are unsigned LEB128 varints.
+ * <p>
+ * The {@link Encoder} is the {@link MapMLSink} of binary documents, so they
+ * are rendered by the same calls as XML documents, and 
+ * {@link #decode(InputStream, OutputStream)} writes the equivalent XML.
+ */
+public final class MapMLBinary {
+    /** the media type of binary MapML documents */
+    public static final String MEDIA_TYPE = "application/vnd.mapml.binary";
+    static final byte[] MAGIC = {'M', 'A', 'P', 'B'};
+    static final int VERSION = 1;
+    static final int START = 1, END = 2, TEXT = 3, EMPTY = 4;
+    // completed tokens are written to the output in blocks of about this size
+    private static final int BLOCK_SIZE = 4096;
+
+    private MapMLBinary() {
+    }
+
+    /**
+     * @param responseType the media type of a response
+     * @return true if the response is binary MapML
+     */
+    public static boolean isBinary(String responseType) {
+        return responseType != null && responseType.startsWith(MEDIA_TYPE);
+    }
+
+    /**
+     * Writes the binary encoding of the document written to it, as it is 
+     * written.  The attributes of each start tag are held until it is 
+     * closed, since their count precedes them, and tokens are written to the
+     * output stream in blocks.  {@link #finish()} 
+     * or {@link #close()} must be called after the document has been written.
+     */
+    public static final class Encoder implements MapMLSink, Closeable, Flushable {
+        private final OutputStream out;
+        // the tokens, which are written out in blocks
+        private final Buffer tokens = new Buffer(BLOCK_SIZE);
+        // the attributes of the open start tag
+        private final Buffer attributes = new Buffer(256);
+        // the parts of the current attribute value
+        private final Buffer parts = new Buffer(64);
+        private final Map<String, Integer> strings = new HashMap<>();
+        // names are encoded constants, so they are looked up by identity
+        private final Map<byte[], Integer> names = new IdentityHashMap<>();
+        private int stringCount;
+        // the runs of string parts, by their first part
+        private final Map<String, Run> runs = new HashMap<>();
+        // the run of string parts of the current value, or null
+        private Run run;
+        // true if a start tag is open
+        private boolean startTag;
+        private int attributeCount;
+        private int partCount;
+        private boolean finished;
+
+        /**
+         * @param out receives the binary document
+         * @throws IOException if the header cannot be written
+         */
+        public Encoder(OutputStream out) throws IOException {
+            this.out = out;
+            out.write(MAGIC);
+            out.write(VERSION);
+        }
+
+        @Override
+        public Encoder startElement(byte[] name) throws IOException {
+            writeStartTag();
+            // the name enters the string table before the attributes
+            tokens.write(START);
+            writeName(tokens, name);
+            startTag = true;
+            attributeCount = 0;
+            attributes.reset();
+            return this;
+        }
+
+        @Override
+        public Encoder closeStartElement() throws IOException {
+            writeStartTag();
+            return this;
+        }
+
+        @Override
+        public Encoder endEmptyElement() throws IOException {
+            writeStartTag();
+            tokens.write(EMPTY);
+            return this;
+        }
+
+        @Override
+        public Encoder endElement(byte[] name) throws IOException {
+            tokens.write(END);
+            return flushBlock();
+        }
+
+        @Override
+        public Encoder attribute(byte[] name, String value) throws IOException {
+            return attributeStart(name).value(value).attributeEnd();
+        }
+
+        @Override
+        public Encoder attribute(byte[] name, long value) throws IOException {
+            return attributeStart(name).value(value).attributeEnd();
+        }
+
+        @Override
+        public Encoder attribute(byte[] name, double value) throws IOException {
+            return attributeStart(name).value(value).attributeEnd();
+        }
+
+        @Override
+        public Encoder attributeStart(byte[] name) throws IOException {
+            writeName(attributes, name);
+            attributeCount++;
+            partCount = 0;
+            parts.reset();
+            return this;
+        }
+
+        @Override
+        public Encoder value(String part) throws IOException {
+            if (part == null || part.isEmpty()) {
+                return this;
+            }
+            if (run == null) {
+                run = runs.get(part);
+                if (run == null) {
+                    run = new Run(part);
+                    runs.put(part, run);
+                }
+            } else {
+                run = run.next(part);
+            }
+            return this;
+        }
+
+        /**
+         * Write a non-negative part as an integer, and a negative part as a 
+         * string.
+         */
+        @Override
+        public Encoder value(long part) throws IOException {
+            if (part < 0) {
+                return value(Long.toString(part));
+            }
+            endRun();
+            parts.writeVarint(part << 1);
+            partCount++;
+            return this;
+        }
+
+        @Override
+        public Encoder value(double part) throws IOException {
+            return value(Double.toString(part));
+        }
+
+        @Override
+        public Encoder attributeEnd() throws IOException {
+            endRun();
+            attributes.writeVarint(partCount);
+            attributes.write(parts);
+            return this;
+        }
+
+        @Override
+        public Encoder text(String text) throws IOException {
+            if (text != null && !text.isEmpty()) {
+                tokens.write(TEXT);
+                tokens.writeVarint(1);
+                writeStringPart(tokens, text);
+            }
+            return this;
+        }
+
+        @Override
+        public Encoder fragment(MapMLFragment fragment) throws IOException {
+            fragment.writeTo(this);
+            return this;
+        }
+
+        private void endRun() {
+            if (run != null) {
+                writeStringPart(parts, run.value);
+                partCount++;
+                run = null;
+            }
+        }
+
+        private void writeStartTag() throws IOException {
+            if (!startTag) return;
+            tokens.writeVarint(attributeCount);
+            tokens.write(attributes);
+            startTag = false;
+            flushBlock();
+        }
+
+        private Encoder flushBlock() throws IOException {
+            if (tokens.size >= BLOCK_SIZE) {
+                tokens.writeTo(out);
+            }
+            return this;
+        }
+
+        private void writeName(Buffer buffer, byte[] name) {
+            Integer index = names.get(name);
+            if (index != null) {
+                buffer.writeVarint(index + 1);
+            } else {
+                names.put(name, stringCount++);
+                buffer.writeVarint(0);
+                buffer.writeVarint(name.length);
+                buffer.write(name, 0, name.length);
+            }
+        }
+
+        private void writeStringPart(Buffer buffer, String s) {
+            Integer index = strings.get(s);
+            if (index != null) {
+                buffer.writeVarint(((long) (index + 1) << 1) | 1);
+            } else {
+                strings.put(s, stringCount++);
+                byte[] bytes = s.getBytes(MapMLWriter.UTF8);
+                buffer.writeVarint(1);
+                buffer.writeVarint(bytes.length);
+                buffer.write(bytes, 0, bytes.length);
+            }
+        }
+
+        /**
+         * Flush the tokens; the attributes of an open start tag are held back.
+         */
+        @Override
+        public void flush() throws IOException {
+            tokens.writeTo(out);
+            out.flush();
+        }
+
+        /**
+         * Flush the document, without closing the underlying stream.
+         */
+        public void finish() throws IOException {
+            if (finished) return;
+            finished = true;
+            writeStartTag();
+            flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+            out.close();
+        }
+    }
+
+    /**
+     * A run of string parts, and the runs which continue it, so that the 
+     * value of a run is concatenated once per document.
+     */
+    private static final class Run {
+        final String value;
+        private Map<String, Run> next;
+
+        Run(String value) {
+            this.value = value;
+        }
+
+        Run next(String part) {
+            if (next == null) {
+                next = new HashMap<>(4);
+            }
+            Run run = next.get(part);
+            if (run == null) {
+                run = new Run(value + part);
+                next.put(part, run);
+            }
+            return run;
+        }
+    }
+
+    /**
+     * A growable byte buffer, which unlike ByteArrayOutputStream does not
+     * synchronize.
+     */
+    private static final class Buffer {
+        private byte[] bytes;
+        private int size;
+
+        Buffer(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void write(int b) {
+            if (size == bytes.length) bytes = Arrays.copyOf(bytes, size * 2);
+            bytes[size++] = (byte) b;
+        }
+
+        void write(byte[] b, int offset, int length) {
+            if (size + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(size * 2, size + length));
+            }
+            System.arraycopy(b, offset, bytes, size, length);
+            size += length;
+        }
+
+        void write(Buffer buffer) {
+            write(buffer.bytes, 0, buffer.size);
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            out.write(bytes, 0, size);
+            size = 0;
+        }
+
+        void reset() {
+            size = 0;
+        }
+    }
+
+    /**
+     * Decode a binary document into UTF-8 XML, as {@link MapMLWriter} would
+     * write it: attribute values in double quotes, and the XML special 
+     * characters escaped.
+     * 
+     * @param in the binary document
+     * @param out receives the XML
+     * @throws IOException if the document is not binary MapML, or cannot be read
+     */
+    public static void decode(InputStream in, OutputStream out) throws IOException {
+        for (byte b : MAGIC) {
+            if (in.read() != b) throw new IOException("Not a binary MapML document");
+        }
+        int version = in.read();
+        if (version != VERSION) throw new IOException("Unsupported binary MapML version: " + version);
+        List<String> strings = new ArrayList<>();
+        List<String> open = new ArrayList<>();
+        MapMLWriter xml = new MapMLWriter(out);
+        try {
+            // the start tag of the current element is not closed until its content is known
+            boolean startTagOpen = false;
+            for (int token = in.read(); token >= 0; token = in.read()) {
+                switch (token) {
+                    case START: {
+                        if (startTagOpen) xml.closeStartElement();
+                        String name = readString(in, strings);
+                        xml.write('<').writeEscaped(name);
+                        for (long n = readVarint(in); n > 0; n--) {
+                            xml.write(' ').writeEscaped(readString(in, strings)).write('=').write('"');
+                            readValue(in, strings, xml);
+                            xml.write('"');
+                        }
+                        open.add(name);
+                        startTagOpen = true;
+                        break;
+                    }
+                    case END:
+                    case EMPTY: {
+                        if (open.isEmpty()) throw new IOException("Unbalanced end of element");
+                        String name = open.remove(open.size() - 1);
+                        if (token == EMPTY) {
+                            xml.endEmptyElement();
+                        } else {
+                            if (startTagOpen) xml.closeStartElement();
+                            xml.write('<').write('/').writeEscaped(name).write('>');
+                        }
+                        startTagOpen = false;
+                        break;
+                    }
+                    case TEXT:
+                        if (startTagOpen) xml.closeStartElement();
+                        startTagOpen = false;
+                        readValue(in, strings, xml);
+                        break;
+                    default:
+                        throw new IOException("Invalid binary MapML token: " + token);
+                }
+            }
+            if (!open.isEmpty()) throw new EOFException("Unterminated element " + open.get(open.size() - 1));
+        } finally {
+            xml.release();
+        }
+    }
+
+    private static void readValue(InputStream in, List<String> strings, MapMLWriter xml) throws IOException {
+        for (long parts = readVarint(in); parts > 0; parts--) {
+            long part = readVarint(in);
+            if ((part & 1) == 0) {
+                xml.write(part >>> 1);
+            } else {
+                xml.writeEscaped(string(in, strings, part >>> 1));
+            }
+        }
+    }
+
+    private static String readString(InputStream in, List<String> strings) throws IOException {
+        return string(in, strings, readVarint(in));
+    }
+
+    private static String string(InputStream in, List<String> strings, long reference) throws IOException {
+        if (reference > 0) {
+            if (reference > strings.size()) throw new IOException("Invalid string reference: " + reference);
+            return strings.get((int) reference - 1);
+        }
+        int length = (int) readVarint(in);
+        byte[] bytes = new byte[length];
+        for (int n = 0; n < length;) {
+            int read = in.read(bytes, n, length - n);
+            if (read < 0) throw new EOFException();
+            n += read;
+        }
+        String s = new String(bytes, MapMLWriter.UTF8);
+        strings.add(s);
+        return s;
+    }
+
+    private static long readVarint(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) throw new EOFException();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Invalid varint");
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+
+package org.mapml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.mapml.exceptions.MapMLException;
+
+/**
+ * A static part of a MapML document, such as the head of a layer's documents
+ * or a literal segment of a URL template, recorded once from the calls which
+ * write it.  {@link MapMLWriter} writes the fragment as its pre-encoded XML,
+ * and other sinks replay the calls.  A fragment need not be a complete 
+ * element: it may, for instance, open a start tag or end an attribute value.
+ */
+public final class MapMLFragment {
+    private static final byte START = 0, CLOSE = 1, EMPTY = 2, END = 3, 
+            ATTRIBUTE = 4, STRING = 5, LONG = 6, DOUBLE = 7, ATTRIBUTE_END = 8, TEXT = 9;
+
+    // the UTF-8 XML of the fragment
+    final byte[] xml;
+    // the calls, each with its argument
+    private final byte[] calls;
+    private final Object[] arguments;
+
+    private MapMLFragment(byte[] xml, byte[] calls, Object[] arguments) {
+        this.xml = xml;
+        this.calls = calls;
+        this.arguments = arguments;
+    }
+
+    /**
+     * @param part a literal part of attribute values
+     * @return the fragment which writes the part
+     */
+    public static MapMLFragment value(String part) {
+        return new Builder().value(part).build();
+    }
+
+    /**
+     * Replay the calls which wrote the fragment.
+     * @param out the sink
+     * @throws IOException if the sink cannot write
+     */
+    public void writeTo(MapMLSink out) throws IOException {
+        for (int i = 0; i < calls.length; i++) {
+            Object argument = arguments[i];
+            switch (calls[i]) {
+                case START: out.startElement((byte[]) argument); break;
+                case CLOSE: out.closeStartElement(); break;
+                case EMPTY: out.endEmptyElement(); break;
+                case END: out.endElement((byte[]) argument); break;
+                case ATTRIBUTE: out.attributeStart((byte[]) argument); break;
+                case STRING: out.value((String) argument); break;
+                case LONG: out.value((Long) argument); break;
+                case DOUBLE: out.value((Double) argument); break;
+                case ATTRIBUTE_END: out.attributeEnd(); break;
+                case TEXT: out.text((String) argument); break;
+            }
+        }
+    }
+
+    /**
+     * Records a fragment.  A fragment is written in memory, so the calls 
+     * do not throw IOException.
+     */
+    public static final class Builder implements MapMLSink {
+        private final List<Byte> calls = new ArrayList<>();
+        private final List<Object> arguments = new ArrayList<>();
+
+        private Builder call(byte call, Object argument) {
+            calls.add(call);
+            arguments.add(argument);
+            return this;
+        }
+
+        @Override
+        public Builder startElement(byte[] name) {
+            return call(START, name);
+        }
+
+        @Override
+        public Builder closeStartElement() {
+            return call(CLOSE, null);
+        }
+
+        @Override
+        public Builder endEmptyElement() {
+            return call(EMPTY, null);
+        }
+
+        @Override
+        public Builder endElement(byte[] name) {
+            return call(END, name);
+        }
+
+        @Override
+        public Builder attribute(byte[] name, String value) {
+            return attributeStart(name).value(value).attributeEnd();
+        }
+
+        @Override
+        public Builder attribute(byte[] name, long value) {
+            return attributeStart(name).value(value).attributeEnd();
+        }
+
+        @Override
+        public Builder attribute(byte[] name, double value) {
+            return attributeStart(name).value(value).attributeEnd();
+        }
+
+        @Override
+        public Builder attributeStart(byte[] name) {
+            return call(ATTRIBUTE, name);
+        }
+
+        @Override
+        public Builder value(String part) {
+            return call(STRING, part);
+        }
+
+        @Override
+        public Builder value(long part) {
+            return call(LONG, part);
+        }
+
+        @Override
+        public Builder value(double part) {
+            return call(DOUBLE, part);
+        }
+
+        @Override
+        public Builder attributeEnd() {
+            return call(ATTRIBUTE_END, null);
+        }
+
+        @Override
+        public Builder text(String text) {
+            return call(TEXT, text);
+        }
+
+        @Override
+        public Builder fragment(MapMLFragment fragment) {
+            for (int i = 0; i < fragment.calls.length; i++) {
+                call(fragment.calls[i], fragment.arguments[i]);
+            }
+            return this;
+        }
+
+        /**
+         * @return the fragment recorded so far
+         */
+        public MapMLFragment build() {
+            byte[] recorded = new byte[calls.size()];
+            for (int i = 0; i < recorded.length; i++) {
+                recorded[i] = calls.get(i);
+            }
+            MapMLFragment fragment = new MapMLFragment(null, recorded, arguments.toArray());
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try {
+                MapMLWriter out = new MapMLWriter(bytes);
+                fragment.writeTo(out);
+                out.release();
+            } catch (IOException e) {
+                throw new MapMLException(e);
+            }
+            return new MapMLFragment(bytes.toByteArray(), fragment.calls, fragment.arguments);
+        }
+    }
+}
@@ -0,0 +1,767 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.mapml.cache.ContentEncoding;
+import org.mapml.cache.ResponseCache;
+import org.mapml.cache.ResponsePolicy;
+import org.mapml.exceptions.BadRequestException;
+import org.mapml.exceptions.MapMLException;
+import org.mapml.projections.Bounds;
+import org.mapml.projections.TileCoverage;
+import org.mapml.projections.TileInventory;
+import org.mapml.uri.MapMLRequest;
+
+/**
+ * A MapML layer: the printer, response cache and caching policy configured
+ * by one set of layer parameters (the init-params of a MapMLServlet in 
+ * web.xml), independent of how requests arrive.  Both MapMLServlet and the
+ * embedded server serve layers through this class.
+ */
+public class MapMLLayer {
+    /**
+     * How a layer answers requests whose URL is not the canonical URL of the
+     * tiles they select: not at all, with a redirect to the canonical URL, or 
+     * with the canonical document and a Content-Location header.
+     */
+    public enum CanonicalUrls { OFF, REDIRECT, CONTENT_LOCATION }
+
+    private static final Logger log = LogManager.getLogger();
+    private final String name;
+    private final Map<String, String> parameters;
+    private final MapMLPrinter printer;
+    private final ResponseCache<String> cache;
+    private final long configHash;
+    // replaced when the tile inventory is rebuilt
+    private volatile ResponsePolicy policy;
+    private volatile long lastModified;
+    // rebuilds the tile inventory, or null
+    private final ScheduledExecutorService inventoryBuilder;
+    private final int compressionLevel;
+    private final CanonicalUrls canonicalUrls;
+    
+    /**
+     * The media type parameter of responses which refer to tiles with 
+     * templates; clients may also ask for them with it, e.g. 
+     * Accept: text/mapml;tiles=templates
+     */
+    public static final String TILE_TEMPLATES = ";tiles=templates";
+
+    /** the zlib default, a good trade of speed for size */
+    public static final int DEFAULT_COMPRESSION_LEVEL = 6;
+
+    /**
+     * @param name the name of the layer, e.g. osm
+     * @param parameters the layer parameters: extent, projection, zoomRange, 
+     * tileUrlTemplate and/or wmsUrlTemplate, tileServers, licenseUrl, 
+     * licenseTitle, title, legendUrl, responseCacheSize, maxAge, 
+     * compressionLevel, canonicalUrls, coverage, tileInventory, 
+     * tileInventorySource, tileInventoryRefresh and maxTransformError
+     * @throws MapMLException if the parameters do not define a layer
+     */
+    public MapMLLayer(String name, Map<String, String> parameters) {
+        this.name = name;
+        this.parameters = Collections.unmodifiableMap(new LinkedHashMap<>(parameters));
+        String extent = parameters.get("extent");
+        String zoomRange = parameters.get("zoomRange");
+        String projection = parameters.get("projection");
+        if (extent == null || zoomRange == null || projection == null) {
+            throw new MapMLException("Layer " + name + " requires extent, zoomRange and projection parameters");
+        }
+        String[] range = zoomRange.split(",");
+        // maxTransformError is the maximum error, in metres, of points of 
+        // e.g. CBMTILE projected by interpolation rather than by proj4j; 
+        // absent or 0 projects exactly
+        String maxTransformError = parameters.get("maxTransformError");
+        double maxError = maxTransformError == null || maxTransformError.trim().isEmpty() ? 0 : Double.parseDouble(maxTransformError.trim());
+        if (!(maxError >= 0)) {
+            throw new MapMLException("Layer " + name + " maxTransformError must not be negative: " + maxTransformError);
+        }
+        printer = new MapMLPrinter(projection, maxError);
+        MapMLServiceBounds serviceBounds = new MapMLServiceBounds(Integer.parseInt(range[0].trim()), 
+                Integer.parseInt(range[1].trim()), new Bounds(extent), printer.getTiledCRS());
+        // coverage is a polygon in longitude, latitude, as GeoJSON or WKT or 
+        // the path of a file of either, outside which there are no tiles
+        String coverage = parameters.get("coverage");
+        if (coverage != null && !coverage.trim().isEmpty()) {
+            serviceBounds.setCoverage(new TileCoverage(TileCoverage.read(readCoverage(name, coverage.trim())), 
+                    printer.getTiledCRS(), serviceBounds.getMinZoom(), serviceBounds.getMaxZoom()));
+        }
+        printer.setServiceBounds(serviceBounds);
+        
+        String tileUrlTemplates = parameters.get("tileUrlTemplate");
+        String wmsUrlTemplates = parameters.get("wmsUrlTemplate");
+        if (tileUrlTemplates == null && wmsUrlTemplates == null) {
+            throw new MapMLException("Error reading tileUrlTemplate and wmsUrlTemplate parameters of layer " + name);
+        }
+        if (tileUrlTemplates != null) {
+            printer.setTileUrlTemplates(tileUrlTemplates.split("\\n"));
+            printer.setTileServers(parameters.get("tileServers"));
+        }
+        if (wmsUrlTemplates != null) {
+            printer.setWmsUrlTemplates(wmsUrlTemplates.split("\\n"));
+        }
+        printer.setLicenseUrl(parameters.get("licenseUrl"));
+        printer.setLicenseTitle(parameters.get("licenseTitle"));
+        printer.setTitle(parameters.get("title"));
+        if (parameters.get("legendUrl") != null) {
+            printer.setLegendUrl(parameters.get("legendUrl"));
+        }
+        
+        // responseCacheSize is the total number of bytes of MapML documents
+        // kept in memory; absent or 0 disables the cache
+        String cacheSize = parameters.get("responseCacheSize");
+        if (cacheSize != null && !cacheSize.trim().isEmpty() && Long.parseLong(cacheSize.trim()) > 0) {
+            cache = new ResponseCache<>(Long.parseLong(cacheSize.trim()));
+        } else {
+            cache = null;
+        }
+        
+        // maxAge is a per-zoom Cache-Control policy e.g. 0-12:86400,13-18:3600
+        configHash = ResponsePolicy.hashConfig(parameters);
+        policy = new ResponsePolicy(configHash, parameters.get("maxAge"));
+        
+        // compressionLevel is the gzip/deflate level, 1-9, of responses to 
+        // clients which accept them; 0 disables compression
+        String level = parameters.get("compressionLevel");
+        compressionLevel = level == null || level.trim().isEmpty() ? DEFAULT_COMPRESSION_LEVEL : Integer.parseInt(level.trim());
+        if (compressionLevel < 0 || compressionLevel > 9) {
+            throw new MapMLException("Layer " + name + " compressionLevel must be between 0 and 9: " + level);
+        }
+        
+        // canonicalUrls=redirect|content-location snaps the bounds of requests
+        // to a tile layer outward to the tile grid, so that requests for the
+        // same tiles share one URL, and one entry in shared caches
+        String canonical = parameters.get("canonicalUrls");
+        if (canonical == null || canonical.trim().isEmpty()) {
+            canonicalUrls = CanonicalUrls.OFF;
+        } else {
+            try {
+                canonicalUrls = CanonicalUrls.valueOf(canonical.trim().toUpperCase().replace('-', '_'));
+            } catch (IllegalArgumentException e) {
+                throw new MapMLException("Layer " + name + " canonicalUrls must be off, redirect or content-location: " + canonical);
+            }
+        }
+        // documents only change when the configuration is (re)loaded, or the
+        // tile inventory is rebuilt; HTTP dates have 1s resolution
+        lastModified = System.currentTimeMillis() / 1000 * 1000;
+        
+        // tileInventory is an index file of the tiles which exist, built 
+        // from tileInventorySource, a listing of z/x/y tile paths or a 
+        // directory of tiles, in the background if it is missing and every
+        // tileInventoryRefresh seconds
+        String inventory = parameters.get("tileInventory");
+        String source = parameters.get("tileInventorySource");
+        String refresh = parameters.get("tileInventoryRefresh");
+        if (inventory == null || inventory.trim().isEmpty()) {
+            inventoryBuilder = null;
+            return;
+        }
+        final File index = new File(inventory.trim());
+        if (index.isFile()) {
+            try {
+                setTileInventory(TileInventory.open(index));
+            } catch (IOException e) {
+                throw new MapMLException("Layer " + name + " tileInventory could not be read: " + index, e);
+            }
+        }
+        long seconds = refresh == null || refresh.trim().isEmpty() ? 0 : Long.parseLong(refresh.trim());
+        if (source == null || source.trim().isEmpty() || (index.isFile() && seconds <= 0)) {
+            if (!index.isFile()) {
+                throw new MapMLException("Layer " + name + " tileInventory not found: " + index);
+            }
+            inventoryBuilder = null;
+            return;
+        }
+        inventoryBuilder = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "mapml-inventory-" + MapMLLayer.this.name);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        final File sourceFile = new File(source.trim());
+        Runnable rebuild = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    setTileInventory(TileInventory.build(sourceFile, index));
+                    log.info(MapMLLayer.this.name + ": " + printer.getTileInventory());
+                } catch (IOException | RuntimeException e) {
+                    log.error(MapMLLayer.this.name + ": error building tile inventory from " + sourceFile, e);
+                }
+            }
+        };
+        if (!index.isFile()) {
+            inventoryBuilder.execute(rebuild);
+        }
+        if (seconds > 0) {
+            inventoryBuilder.scheduleWithFixedDelay(rebuild, seconds, seconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Refer only to the tiles of an inventory.  Documents referring to 
+     * other tiles are no longer valid, so the cache is cleared and the 
+     * entity tags and last modified time change, unless the inventory has
+     * the same tiles as the current one.
+     */
+    private void setTileInventory(TileInventory inventory) {
+        TileInventory current = printer.getTileInventory();
+        if (current != null && current.getChecksum() == inventory.getChecksum() && current.size() == inventory.size()) {
+            return;
+        }
+        printer.setTileInventory(inventory);
+        policy = new ResponsePolicy(configHash * 31 + inventory.getChecksum(), parameters.get("maxAge"));
+        lastModified = Math.max(System.currentTimeMillis() / 1000 * 1000, lastModified);
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Stop rebuilding the tile inventory, if it is rebuilt.
+     */
+    public void close() {
+        if (inventoryBuilder != null) {
+            inventoryBuilder.shutdownNow();
+        }
+    }
+
+    /**
+     * @param value a GeoJSON or WKT coverage, or the path of a file or class
+     * path resource containing one
+     * @return the GeoJSON or WKT
+     */
+    private static String readCoverage(String name, String value) {
+        if (value.startsWith("{") || value.indexOf('(') >= 0) {
+            return value;
+        }
+        try {
+            File file = new File(value);
+            InputStream in = file.isFile() ? new FileInputStream(file) 
+                    : MapMLLayer.class.getClassLoader().getResourceAsStream(value);
+            if (in == null) {
+                throw new MapMLException("Layer " + name + " coverage not found: " + value);
+            }
+            try {
+                Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+                StringBuilder text = new StringBuilder();
+                char[] buffer = new char[8192];
+                for (int n; (n = reader.read(buffer)) != -1;) {
+                    text.append(buffer, 0, n);
+                }
+                return text.toString();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new MapMLException("Layer " + name + " coverage could not be read: " + value, e);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param name the name of a parameter
+     * @return the value of the parameter, or null
+     */
+    public String getParameter(String name) {
+        return parameters.get(name);
+    }
+
+    public MapMLPrinter getPrinter() {
+        return printer;
+    }
+
+    /**
+     * @return the response cache, or null if responses are not cached
+     */
+    public ResponseCache<String> getCache() {
+        return cache;
+    }
+
+    public ResponsePolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Documents are a function of the request, the configuration and the 
+     * tile inventory, so they were last modified when the layer was created
+     * or the inventory was last rebuilt.
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return the compression level, or 0 if responses are not compressed
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public CanonicalUrls getCanonicalUrls() {
+        return canonicalUrls;
+    }
+
+    /**
+     * Snap the requested bounds to the tile grid.  Image (WMS) layers are 
+     * not snapped, since their documents depend on the exact bounds.
+     * 
+     * @param zoom the requested zoom
+     * @param bounds the requested bounds, may be null
+     * @return the tile-aligned bounds, or null if the layer does not use
+     * canonical URLs or the request has no bounds
+     */
+    public Bounds getCanonicalBounds(int zoom, Bounds bounds) {
+        if (canonicalUrls == CanonicalUrls.OFF || bounds == null || zoom < 0
+                || parameters.get("tileUrlTemplate") == null || parameters.get("wmsUrlTemplate") != null) {
+            return null;
+        }
+        return printer.getTiledCRS().getTileAlignedBounds(bounds);
+    }
+
+    /**
+     * The query string of a canonical URL, with the parameters in the order
+     * and format of the next links of documents, so that those links are 
+     * canonical too.
+     * 
+     * @param zoom the requested zoom
+     * @param bounds the tile-aligned bounds, see {@link #getCanonicalBounds}
+     * @param projection the projection of the layer
+     * @param alt the alt parameter, or null
+     * @param start the start parameter
+     * @param tiles the tiles parameter, or null
+     * @return the query string, without a leading '?'
+     */
+    public static String canonicalQuery(int zoom, Bounds bounds, String projection, String alt, long start, String tiles) {
+        StringBuilder query = new StringBuilder(128);
+        query.append("xmin=").append(bounds.getMinX())
+             .append("&ymin=").append(bounds.getMinY())
+             .append("&xmax=").append(bounds.getMaxX())
+             .append("&ymax=").append(bounds.getMaxY())
+             .append("&projection=").append(projection)
+             .append("&zoom=").append(zoom);
+        if (start != 0L) {
+            query.append("&start=").append(start);
+        }
+        if (tiles != null) {
+            query.append("&tiles=").append(tiles);
+        }
+        if (alt != null) {
+            try {
+                query.append("&alt=").append(URLEncoder.encode(alt, "UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return query.toString();
+    }
+
+    /**
+     * @return the Vary header of responses: documents depend on the Accept 
+     * header, and on the Accept-Encoding header if they may be compressed
+     */
+    public String getVary() {
+        return compressionLevel > 0 ? "Accept, Accept-Encoding" : "Accept";
+    }
+
+    /**
+     * @param acceptEncoding the Accept-Encoding header of the request, may be null
+     * @return the content coding of the response
+     */
+    public ContentEncoding getEncoding(String acceptEncoding) {
+        return compressionLevel == 0 ? ContentEncoding.IDENTITY : ContentEncoding.negotiate(acceptEncoding);
+    }
+
+    /**
+     * Check the public base URL of a server, at which clients reach its
+     * root, e.g. https://maps.example.com.  Documents link to the layers 
+     * under this URL rather than under the Host header of the request, 
+     * which any client could set to fill the cache with copies of a 
+     * document that link elsewhere.
+     * 
+     * @param baseUrl the configured base URL
+     * @return the base URL, without a trailing '/'
+     * @throws MapMLException if it is not an absolute http or https URL
+     */
+    public static String checkBaseUrl(String baseUrl) {
+        URI uri;
+        try {
+            uri = URI.create(baseUrl.trim());
+        } catch (IllegalArgumentException e) {
+            throw new MapMLException("Not a base URL: " + baseUrl, e);
+        }
+        if (!"http".equals(uri.getScheme()) && !"https".equals(uri.getScheme()) || uri.getHost() == null 
+                || uri.getRawQuery() != null || uri.getRawFragment() != null) {
+            throw new MapMLException("Not an http or https base URL: " + baseUrl);
+        }
+        String url = uri.toString();
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    /**
+     * The base URL of a server when none is configured: the local address
+     * of the connection, of which a server has only a few.
+     * 
+     * @param scheme the scheme of the request
+     * @param address the local IP address of the connection
+     * @param port the local port of the connection
+     * @return the URL of the root of the server, without a trailing '/'
+     */
+    public static String localUrl(String scheme, String address, int port) {
+        // an IPv6 literal is bracketed in a URL
+        String host = address.indexOf(':') >= 0 ? "[" + address + "]" : address;
+        boolean defaultPort = ("http".equals(scheme) && port == 80) || ("https".equals(scheme) && port == 443);
+        return scheme + "://" + host + (defaultPort ? "" : ":" + port);
+    }
+
+    /**
+     * Negotiate the response to a request: its media type, whether it refers
+     * to tiles with templates, its canonical URL, its content coding and its
+     * cache key and entity tag.
+     * 
+     * @param query the parsed query of the request
+     * @param rawQuery the query string of the request, or null
+     * @param scheme the scheme of the request URL
+     * @param base the URL of the layer, without a query, as documents link to it
+     * @param accept the Accept header of the request, or null
+     * @param acceptEncoding the Accept-Encoding header of the request, or null
+     * @return the response
+     * @throws BadRequestException if the layer is not available in the projection
+     */
+    public MapMLResponse respond(MapMLRequest query, String rawQuery, String scheme, String base, 
+            String accept, String acceptEncoding) {
+        int zoom = query.getZoom();
+        Bounds bounds = query.getBounds();
+        String projection = getProjection(query.getProjection());
+        // a layer whose tiles are filtered lists the tiles it has, as the 
+        // client would request tiles which do not exist from a template
+        boolean tileTemplates = useTileTemplates(query.getTiles(), accept) && printer.supportsTileTemplates();
+        String responseType = getResponseType(projection, zoom, query.getAlt(), tileTemplates, useBinary(accept));
+        long start = query.getStart();
+        String location = null;
+        Bounds canonical = getCanonicalBounds(zoom, bounds);
+        if (canonical != null) {
+            String canonicalQuery = canonicalQuery(zoom, canonical, projection, query.getAlt(), start, query.getTiles());
+            if (!canonicalQuery.equals(rawQuery)) {
+                location = base + '?' + canonicalQuery;
+                bounds = canonical;
+            }
+        }
+        String key = getCacheKey(scheme, responseType, start, base, zoom, bounds);
+        ContentEncoding encoding = getEncoding(acceptEncoding);
+        // each encoding of the document is a distinct representation
+        String etag = policy.getETag(encodedKey(key, encoding));
+        return new MapMLResponse(this, scheme, responseType, start, base, zoom, bounds, projection, 
+                location, key, encoding, etag, policy.getCacheControl(zoom), lastModified);
+    }
+
+    /**
+     * Validate the requested projection.
+     * @param requested the projection parameter of the request
+     * @return the projection of the layer
+     * @throws BadRequestException if the layer is not available in the projection
+     */
+    public String getProjection(String requested) {
+        String available = printer.getTiledCRS().getName();
+        if (!available.equalsIgnoreCase(requested) && !requested.equalsIgnoreCase("OSMTILE")) {
+            // this could probably be a 416, I think.
+            throw new BadRequestException("Invalid projection requested: " + requested);
+        }
+        return available;
+    }
+
+    /**
+     * @param projection the projection of the layer
+     * @param zoom the requested zoom
+     * @param alt the alt parameter, a stealth parameter good for debugging responses
+     * @return the media type of the response
+     */
+    public static String getResponseType(String projection, int zoom, String alt) {
+        return getResponseType(projection, zoom, alt, false);
+    }
+
+    /**
+     * @param projection the projection of the layer
+     * @param zoom the requested zoom
+     * @param alt the alt parameter, a stealth parameter good for debugging responses
+     * @param tileTemplates true if the document refers to tiles with templates
+     * @return the media type of the response
+     */
+    public static String getResponseType(String projection, int zoom, String alt, boolean tileTemplates) {
+        return getResponseType(projection, zoom, alt, tileTemplates, false);
+    }
+
+    /**
+     * @param projection the projection of the layer
+     * @param zoom the requested zoom
+     * @param alt the alt parameter, a stealth parameter good for debugging
+     * responses, which selects XML whatever the Accept header
+     * @param tileTemplates true if the document refers to tiles with templates
+     * @param binary true for a binary MapML document, see {@link MapMLBinary}
+     * @return the media type of the response
+     */
+    public static String getResponseType(String projection, int zoom, String alt, boolean tileTemplates, boolean binary) {
+        String type;
+        if (alt != null && alt.equalsIgnoreCase("xml")) {
+            type = "application/xml";
+        } else {
+            type = (binary ? MapMLBinary.MEDIA_TYPE : "text/mapml") + ";projection=" + projection + ";zoom=" + zoom;
+        }
+        return tileTemplates ? type + TILE_TEMPLATES : type;
+    }
+
+    /**
+     * Choose how the response refers to tiles: the tiles parameter if the
+     * request has one, else tile templates if the Accept header asks for 
+     * them, else a tile element per tile, which all clients understand.
+     * 
+     * @param tiles the tiles parameter of the request, or null
+     * @param accept the Accept header of the request, or null
+     * @return true to refer to tiles with templates
+     */
+    public static boolean useTileTemplates(String tiles, String accept) {
+        if (tiles != null) {
+            return tiles.equals(MapMLRequest.TILES_TEMPLATES);
+        }
+        if (accept == null || accept.indexOf("tiles=") < 0) {
+            return false;
+        }
+        return quality(accept, "text/mapml", TILE_TEMPLATES) > 0f 
+                || quality(accept, MapMLBinary.MEDIA_TYPE, TILE_TEMPLATES) > 0f;
+    }
+
+    /**
+     * Choose the binary encoding if the Accept header lists it, at a quality
+     * no lower than text/mapml.  Clients which do not name the binary media
+     * type get XML.
+     * 
+     * @param accept the Accept header of the request, or null
+     * @return true to respond with a binary MapML document
+     */
+    public static boolean useBinary(String accept) {
+        if (accept == null || accept.indexOf(MapMLBinary.MEDIA_TYPE) < 0) {
+            return false;
+        }
+        float binary = quality(accept, MapMLBinary.MEDIA_TYPE, null);
+        return binary > 0f && binary >= quality(accept, "text/mapml", null);
+    }
+
+    /**
+     * @param accept an Accept header
+     * @param type a media type
+     * @param parameter a media type parameter such as ;tiles=templates, or null
+     * @return the highest quality of the media ranges of the type (with the 
+     * parameter), or -1 if there are none
+     */
+    private static float quality(String accept, String type, String parameter) {
+        float best = -1f;
+        for (String range : accept.split(",")) {
+            String r = range.replace(" ", "").toLowerCase();
+            if (!r.startsWith(type) || (r.length() > type.length() && r.charAt(type.length()) != ';')
+                    || (parameter != null && !r.contains(parameter))) {
+                continue;
+            }
+            float q = 1f;
+            int qIndex = r.indexOf(";q=");
+            if (qIndex >= 0) {
+                try {
+                    q = Float.parseFloat(r.substring(qIndex + 3).split(";")[0]);
+                } catch (NumberFormatException e) {
+                    q = 0f;
+                }
+            }
+            best = Math.max(best, q);
+        }
+        return best;
+    }
+
+    private static boolean isTileTemplates(String responseType) {
+        return responseType.endsWith(TILE_TEMPLATES);
+    }
+
+    /**
+     * Get the document, from the response cache if there is one, rendering 
+     * it on a miss.
+     */
+    public byte[] getDocument(String key, String scheme, String responseType, long start, 
+            String base, int zoom, Bounds bounds, String projection) throws IOException {
+        return getDocument(key, ContentEncoding.IDENTITY, scheme, responseType, start, base, zoom, bounds, projection);
+    }
+
+    /**
+     * Get the encoded document, from the response cache if there is one.
+     * Compressed documents are cached alongside the uncompressed document
+     * under their own key, so a hit costs no compression; a miss compresses
+     * the (possibly cached) uncompressed document.
+     * 
+     * @param key the cache key of the request, see {@link #cacheKey}
+     * @param encoding the content coding of the response
+     */
+    public byte[] getDocument(final String key, final ContentEncoding encoding, final String scheme, final String responseType, 
+            final long start, final String base, final int zoom, final Bounds bounds, final String projection) throws IOException {
+        if (cache == null) {
+            return encode(render(scheme, responseType, start, base, zoom, bounds, projection), encoding);
+        }
+        if (encoding != ContentEncoding.IDENTITY) {
+            return cache.get(encodedKey(key, encoding), new ResponseCache.Loader<String>() {
+                @Override
+                public byte[] load(String encodedKey) throws IOException {
+                    return encode(getDocument(key, scheme, responseType, start, base, zoom, bounds, projection), encoding);
+                }
+            });
+        }
+        return cache.get(key, new ResponseCache.Loader<String>() {
+            @Override
+            public byte[] load(String key) throws IOException {
+                return render(scheme, responseType, start, base, zoom, bounds, projection);
+            }
+        });
+    }
+
+    private byte[] render(String scheme, String responseType, long start, String base, 
+            int zoom, Bounds bounds, String projection) throws IOException {
+        ByteArrayOutputStream doc = new ByteArrayOutputStream(8192);
+        printer.printMapMLDoc(scheme, responseType, start, base, zoom, bounds, projection, isTileTemplates(responseType), doc);
+        return doc.toByteArray();
+    }
+
+    private byte[] encode(byte[] document, ContentEncoding encoding) throws IOException {
+        if (encoding == ContentEncoding.IDENTITY) {
+            return document;
+        }
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(document.length / 4 + 64);
+        try (OutputStream out = encoding.wrap(encoded, compressionLevel)) {
+            out.write(document);
+        }
+        return encoded.toByteArray();
+    }
+
+    /**
+     * Write the document on the output stream, bypassing the response cache.
+     */
+    public void printDocument(String scheme, String responseType, long start, String base, 
+            int zoom, Bounds bounds, String projection, OutputStream out) throws IOException {
+        printer.printMapMLDoc(scheme, responseType, start, base, zoom, bounds, projection, isTileTemplates(responseType), out);
+    }
+
+    /**
+     * Write the encoded document on the output stream as it is printed, 
+     * bypassing the response cache.  A compressed document is completed by
+     * closing the compressing stream, which closes the output stream.
+     */
+    public void printDocument(String scheme, String responseType, long start, String base, 
+            int zoom, Bounds bounds, String projection, ContentEncoding encoding, OutputStream out) throws IOException {
+        if (encoding == ContentEncoding.IDENTITY) {
+            printDocument(scheme, responseType, start, base, zoom, bounds, projection, out);
+            return;
+        }
+        try (OutputStream encoded = encoding.wrap(out, compressionLevel)) {
+            printer.printMapMLDoc(scheme, responseType, start, base, zoom, bounds, projection, isTileTemplates(responseType), encoded);
+        }
+    }
+
+    /**
+     * The key of a document of this layer, which is that of the request 
+     * values, and of the tile inventory if there is one.  A document being
+     * rendered as the inventory is replaced may refer to the tiles of the
+     * new inventory, but never those of an older one than its key.
+     * @see #cacheKey(String, String, long, String, int, Bounds)
+     */
+    public String getCacheKey(String scheme, String responseType, long start, String base, int zoom, Bounds bounds) {
+        String key = cacheKey(scheme, responseType, start, base, zoom, bounds);
+        TileInventory inventory = printer.getTileInventory();
+        return inventory == null ? key : key + '|' + Long.toHexString(inventory.getChecksum());
+    }
+
+    /**
+     * The response depends only on these request values (the projection and 
+     * alt parameters are folded into the response type), so they identify a
+     * cached document and, with the configuration, its entity tag.
+     */
+    public static String cacheKey(String scheme, String responseType, long start, String base, int zoom, Bounds bounds) {
+        StringBuilder key = new StringBuilder(base.length() + responseType.length() + 96);
+        key.append(scheme).append('|').append(base).append('|').append(responseType)
+           .append('|').append(zoom).append('|').append(start).append('|');
+        if (bounds == null) {
+            key.append("null");
+        } else {
+            key.append(bounds.getMinX()).append(',').append(bounds.getMinY()).append(',')
+               .append(bounds.getMaxX()).append(',').append(bounds.getMaxY());
+        }
+        return key.toString();
+    }
+
+    /**
+     * @param key the key of the uncompressed document, see {@link #cacheKey}
+     * @param encoding the content coding
+     * @return the key which identifies the encoded document, and its entity tag
+     */
+    public static String encodedKey(String key, ContentEncoding encoding) {
+        return encoding == ContentEncoding.IDENTITY ? key : key + '|' + encoding.getToken();
+    }
+}
@@ -41,16 +41,20 @@
 
 package org.mapml;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.Arrays;
-import java.util.Comparator;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.List;
+import java.util.LinkedHashSet;
+import org.mapml.exceptions.MapMLException;
 import org.mapml.projections.Bounds;
-import org.mapml.projections.Point;
-import org.mapml.projections.TileCoordinates;
+import org.mapml.projections.TileBuffer;
+import org.mapml.projections.TileFilter;
+import org.mapml.projections.TileInventory;
 import org.mapml.projections.TiledCRS;
+import org.mapml.projections.TiledCRSRegistry;
+import org.mapml.uri.UrlTemplate;
 
 /**
  * This class prints a MapML tile reference document.  It is created so that
@@ -67,18 +71,121 @@ import org.mapml.projections.TiledCRS;
  */
 
 public class MapMLPrinter {
+  // element and attribute names
+  private static final byte[] MAPML = MapMLWriter.encode("mapml");
+  private static final byte[] HEAD = MapMLWriter.encode("head");
+  private static final byte[] TITLE = MapMLWriter.encode("title");
+  private static final byte[] META = MapMLWriter.encode("meta");
+  private static final byte[] BASE = MapMLWriter.encode("base");
+  private static final byte[] LINK = MapMLWriter.encode("link");
+  private static final byte[] BODY = MapMLWriter.encode("body");
+  private static final byte[] EXTENT = MapMLWriter.encode("extent");
+  private static final byte[] INPUT = MapMLWriter.encode("input");
+  private static final byte[] TILE = MapMLWriter.encode("tile");
+  private static final byte[] IMAGE = MapMLWriter.encode("image");
+  private static final byte[] HTTP_EQUIV = MapMLWriter.encode("http-equiv");
+  private static final byte[] CONTENT = MapMLWriter.encode("content");
+  private static final byte[] CHARSET = MapMLWriter.encode("charset");
+  private static final byte[] NAME = MapMLWriter.encode("name");
+  private static final byte[] HREF = MapMLWriter.encode("href");
+  private static final byte[] REL = MapMLWriter.encode("rel");
+  private static final byte[] TYPE = MapMLWriter.encode("type");
+  private static final byte[] UNITS = MapMLWriter.encode("units");
+  private static final byte[] ACTION = MapMLWriter.encode("action");
+  private static final byte[] METHOD = MapMLWriter.encode("method");
+  private static final byte[] ENCTYPE = MapMLWriter.encode("enctype");
+  private static final byte[] VALUE = MapMLWriter.encode("value");
+  private static final byte[] MIN = MapMLWriter.encode("min");
+  private static final byte[] MAX = MapMLWriter.encode("max");
+  private static final byte[] COL = MapMLWriter.encode("col");
+  private static final byte[] ROW = MapMLWriter.encode("row");
+  private static final byte[] SRC = MapMLWriter.encode("src");
+  private static final byte[] TREF = MapMLWriter.encode("tref");
+  private static final byte[] AXIS = MapMLWriter.encode("axis");
+  private static final byte[] SHARD = MapMLWriter.encode("shard");
+  private static final byte[] LIST = MapMLWriter.encode("list");
+  private static final byte[] DATALIST = MapMLWriter.encode("datalist");
+  private static final byte[] ID = MapMLWriter.encode("id");
+  private static final byte[] OPTION = MapMLWriter.encode("option");
+  private static final String FORM_ENCODED = "application/x-www-form-urlencoded";
+  // static fragments
+  private static final MapMLFragment CONTENT_TYPE_META = new MapMLFragment.Builder()
+      .startElement(META).attribute(HTTP_EQUIV, "Content-Type").build();
+  private static final MapMLFragment CHARSET_META = new MapMLFragment.Builder()
+      .startElement(META).attribute(CHARSET, "utf-8").endEmptyElement().build();
+  private static final MapMLFragment BODY_END_MAPML_END = new MapMLFragment.Builder()
+      .endElement(BODY).endElement(MAPML).build();
+  private static final MapMLFragment NEXT_LINK_START = new MapMLFragment.Builder()
+      .startElement(LINK).attribute(REL, "next").attributeStart(HREF).build();
+  private static final MapMLFragment NEXT_LINK_END = new MapMLFragment.Builder()
+      .attributeEnd().attribute(TYPE, "text/mapml").endEmptyElement().text(" ").build();
+  private static final MapMLFragment AREA_META = new MapMLFragment.Builder()
+      .startElement(META).attribute(NAME, "area").build();
+  private static final MapMLFragment EXTENT_FORM = new MapMLFragment.Builder()
+      .attribute(METHOD, "get").attribute(ENCTYPE, FORM_ENCODED).closeStartElement().build();
+  private static final MapMLFragment XMIN_INPUT = inputFragment("xmin");
+  private static final MapMLFragment YMIN_INPUT = inputFragment("ymin");
+  private static final MapMLFragment XMAX_INPUT = inputFragment("xmax");
+  private static final MapMLFragment YMAX_INPUT = inputFragment("ymax");
+  private static final MapMLFragment COLUMN_INPUT = new MapMLFragment.Builder()
+      .startElement(INPUT).attribute(NAME, "x").attribute(TYPE, "location")
+      .attribute(UNITS, "tilematrix").attribute(AXIS, "column").build();
+  private static final MapMLFragment ROW_INPUT = new MapMLFragment.Builder()
+      .startElement(INPUT).attribute(NAME, "y").attribute(TYPE, "location")
+      .attribute(UNITS, "tilematrix").attribute(AXIS, "row").build();
+  // each request thread reuses one page of tile coordinates
+  private static final ThreadLocal<TileBuffer> TILES = new ThreadLocal<TileBuffer>() {
+      @Override
+      protected TileBuffer initialValue() {
+          return new TileBuffer(MapMLConstants.PAGESIZE);
+      }
+  };
+  // and one set of bounds ordinates
+  private static final ThreadLocal<double[]> ORDINATES = new ThreadLocal<double[]>() {
+      @Override
+      protected double[] initialValue() {
+          return new double[4];
+      }
+  };
+
   private MapMLServiceBounds serviceBounds;
+  private volatile TileInventory tileInventory;
+  // the tiles of the coverage of the service bounds which are in the tile
+  // inventory, or null to refer to all the tiles of an extent
+  private volatile TileFilter tileFilter;
   private final TiledCRS tiledCRS;
-  private String[] tileUrlTemplates;
-  private final HashSet<String> tileServers = new HashSet<>();
+  private int pageSize = MapMLConstants.PAGESIZE;
+  private UrlTemplate[] tileUrlTemplates;
+  // in configuration order; a tile's server is a function of its coordinates
+  private String[] tileServers = new String[0];
+  // the input and datalist of the servers of tile templates, or null if 
+  // there are no servers
+  private MapMLFragment tileServersFragment;
   private String licenseUrl;
   private String licenseTitle;
-  private String legendUrl;
-  private String[] wmsUrlTemplates;
-  private String title;
+  private UrlTemplate[] wmsUrlTemplates;
+  // pre-encoded, per-layer fragments of the document head
+  private MapMLFragment titleFragment = headStartFragment(null);
+  private MapMLFragment licenseFragment = linkFragment("license", null, null);
+  private MapMLFragment legendFragment;
+  // the license and legend links and the end of the head
+  private MapMLFragment headEndFragment = headEndFragment(licenseFragment, null);
+  // the start of the extent element, up to the action URL
+  private final MapMLFragment extentStartFragment;
+  // pre-encoded fragments for each zoom of the service bounds
+  private ZoomFragments[] zoomFragments;
 
   public MapMLPrinter(String projection) {
-    this.tiledCRS = new TiledCRS(projection);
+    this(projection, 0);
+  }
+  /**
+   * @param projection the name of the tiled CRS, e.g. CBMTILE
+   * @param maxTransformError the maximum error, in projected units, of 
+   * approximately projected points, or 0 to project exactly
+   */
+  public MapMLPrinter(String projection, double maxTransformError) {
+    this.tiledCRS = TiledCRSRegistry.get(projection, maxTransformError);
+    this.extentStartFragment = extentStartFragment(this.tiledCRS.getName());
   }
   /**
    * Set up the maximum tile coordinates on a per-zoom-level basis
@@ -98,47 +205,121 @@ public class MapMLPrinter {
    */
   public void setServiceBounds(MapMLServiceBounds serviceBounds) {
     this.serviceBounds = serviceBounds;
+    this.zoomFragments = zoomFragments(serviceBounds, this.tiledCRS.getName());
+    this.tileFilter = tileFilter(serviceBounds.getCoverage(), this.tileInventory);
+  }
+  /**
+   * Set the tiles which exist, so that tile elements are only written for 
+   * them.  May be replaced while documents are being written, e.g. when the
+   * inventory is rebuilt.
+   * @param tileInventory the inventory, or null if all tiles exist
+   */
+  public void setTileInventory(TileInventory tileInventory) {
+    this.tileInventory = tileInventory;
+    this.tileFilter = tileFilter(serviceBounds != null ? serviceBounds.getCoverage() : null, tileInventory);
+  }
+  /**
+   * @return the tiles which exist, or null if all tiles exist
+   */
+  public TileInventory getTileInventory() {
+    return this.tileInventory;
+  }
+  private static TileFilter tileFilter(final TileFilter coverage, final TileFilter inventory) {
+    if (coverage == null || inventory == null) {
+      return coverage != null ? coverage : inventory;
+    }
+    return new TileFilter() {
+      @Override
+      public boolean covers(int zoom, long column, long row) {
+        return coverage.covers(zoom, column, row) && inventory.covers(zoom, column, row);
+      }
+      @Override
+      public boolean intersects(int zoom, long minColumn, long minRow, long maxColumn, long maxRow) {
+        return coverage.intersects(zoom, minColumn, minRow, maxColumn, maxRow) 
+            && inventory.intersects(zoom, minColumn, minRow, maxColumn, maxRow);
+      }
+    };
   }
   /**
    * Set the URI templates which will be used to generate URLs for tiles. The
    * order of the templates dictates the 'z-order' of the generated tile
    * references, with the lower array values being underneath higher values, i.e.
    * lower array values will be earlier in document order for a given tile in
-   * the output MapML document.
+   * the output MapML document.  The templates are compiled once, here, and
+   * blank templates are ignored.
    * @param tileUrlTemplates 
    */
   public void setTileUrlTemplates(String[] tileUrlTemplates) {
-    this.tileUrlTemplates = tileUrlTemplates;
+    this.tileUrlTemplates = UrlTemplate.compile(tileUrlTemplates);
   }
   /**
    * Servers sometimes want to distribute load across multiple host names. If
    * the tileUrlTemplates have a server template to be filled in, ensure that
    * you provide a servers list, otherwise you will not generate correct
    * tile references.
-   * @param servers comma-separated list of hostnames to rotate through.
+   * @param servers comma-separated list of hostnames to distribute tiles over.
    */
   public void setTileServers(String servers) {
     if (servers != null) {
-      this.tileServers.addAll(Arrays.asList(servers.split(",")));
+      LinkedHashSet<String> unique = new LinkedHashSet<>(Arrays.asList(this.tileServers));
+      for (String server : servers.split(",")) {
+        if (!server.trim().isEmpty()) {
+          unique.add(server.trim());
+        }
+      }
+      this.tileServers = unique.toArray(new String[unique.size()]);
+      this.tileServersFragment = this.tileServers.length == 0 ? null : tileServersFragment(this.tileServers);
     }
   }
+  /**
+   * The server of a tile is a function of the tile alone, so that every 
+   * document refers to a tile by the same URL, and browser and proxy caches
+   * hold one copy of it.  The function is Leaflet's, |x + y| mod the number
+   * of servers, which gives neighbouring tiles different servers and so 
+   * spreads each page evenly over them; it also gives the same URLs as 
+   * Leaflet clients of the same tile service.
+   * 
+   * @param x the column of the tile
+   * @param y the row of the tile
+   * @return the server of the tile, or "" if there are no tile servers
+   */
+  public String getTileServer(long x, long y) {
+    int n = tileServers.length;
+    if (n == 0) return "";
+    return tileServers[(int) (Math.abs((x + y) % n))];
+  }
   public String[] getWmsUrlTemplates() {
-    return wmsUrlTemplates;
+    if (wmsUrlTemplates == null) return null;
+    String[] templates = new String[wmsUrlTemplates.length];
+    for (int i = 0; i < templates.length; i++) {
+        templates[i] = wmsUrlTemplates[i].getTemplate();
+    }
+    return templates;
   }
-
+  /**
+   * Set the WMS GetMap URL templates.  The templates are compiled once, here,
+   * and blank templates are ignored.
+   * @param wmsUrlTemplates 
+   */
   public void setWmsUrlTemplates(String[] wmsUrlTemplates) {
-    this.wmsUrlTemplates = wmsUrlTemplates;
-    for(int i=0;i<this.wmsUrlTemplates.length;i++) {
-        this.wmsUrlTemplates[i] = this.wmsUrlTemplates[i].trim();
-    }
+    this.wmsUrlTemplates = UrlTemplate.compile(wmsUrlTemplates);
   }
 
   public void setTitle(String title) {
-    this.title = title;
+    this.titleFragment = headStartFragment(title);
+  }
+  
+  /**
+   * For testing purposes need to be able to set the pagesize.  The TiledCRS
+   * is shared with other printers, so the page size belongs to the printer.
+   * @param size 
+   */
+  public void setPageSize(int size) {
+      this.pageSize = size;
   }
   
-  private int getPageSize() {
-      return this.tiledCRS.getPageSize();
+  public int getPageSize() {
+      return this.pageSize;
   }
   /**
    * The text that will be reflected in link[@rel=license]/@title.
@@ -146,6 +327,8 @@ public class MapMLPrinter {
    */
   public void setLicenseTitle(String text) {
       this.licenseTitle = text;
+      this.licenseFragment = linkFragment("license", this.licenseUrl, this.licenseTitle);
+      this.headEndFragment = headEndFragment(this.licenseFragment, this.legendFragment);
   }
   /**
    * The URL to the license by virtue of which these tiles are served.
@@ -153,213 +336,403 @@ public class MapMLPrinter {
    */
   public void setLicenseUrl(String url) {
       this.licenseUrl = url;
+      this.licenseFragment = linkFragment("license", this.licenseUrl, this.licenseTitle);
+      this.headEndFragment = headEndFragment(this.licenseFragment, this.legendFragment);
   }
   /**
    * The URL to the legend resource.
    * @param url 
    */
   public void setLegendUrl(String legendUrl) {
-    this.legendUrl = legendUrl.replaceAll("&", "&amp;");
+    this.legendFragment = linkFragment("legend", legendUrl, null);
+    this.headEndFragment = headEndFragment(this.licenseFragment, this.legendFragment);
+  }
+  /**
+   * Tile templates refer to every tile of a range, so they are only written
+   * if no tiles are left out for the coverage or the tile inventory.
+   * @return true if documents may refer to tiles with templates
+   */
+  public boolean supportsTileTemplates() {
+    return this.tileFilter == null;
   }
   public TiledCRS getTiledCRS() {
       return this.tiledCRS;
   }
   /**
-   * Print a mapml document on the output, given the parameters
+   * Record the start of the document, up to and including the title element.
+   */
+  private static MapMLFragment headStartFragment(String title) {
+    return new MapMLFragment.Builder()
+        .startElement(MAPML).closeStartElement()
+        .startElement(HEAD).closeStartElement()
+        .startElement(TITLE).closeStartElement()
+        .text(title)
+        .endElement(TITLE).build();
+  }
+  /**
+   * Record a &lt;link&gt; element of the document head.
+   */
+  private static MapMLFragment linkFragment(String rel, String href, String title) {
+    MapMLFragment.Builder out = new MapMLFragment.Builder();
+    out.startElement(LINK).attribute(REL, rel).attribute(HREF, href);
+    if (title != null) {
+      out.attribute(TITLE, title);
+    }
+    return out.endEmptyElement().build();
+  }
+  /**
+   * Record the end of the document head: the license and legend links.
+   */
+  private static MapMLFragment headEndFragment(MapMLFragment licenseFragment, MapMLFragment legendFragment) {
+    MapMLFragment.Builder out = new MapMLFragment.Builder().fragment(licenseFragment);
+    if (legendFragment != null) {
+      out.fragment(legendFragment);
+    }
+    return out.endElement(HEAD).startElement(BODY).closeStartElement().build();
+  }
+  /**
+   * Record the start of the extent element, up to the action URL.
+   */
+  private static MapMLFragment extentStartFragment(String projection) {
+    return new MapMLFragment.Builder().startElement(EXTENT).attribute(UNITS, projection).build();
+  }
+  /**
+   * Record the {s} input of tile templates, and the list of its values.
+   */
+  private static MapMLFragment tileServersFragment(String[] servers) {
+    MapMLFragment.Builder out = new MapMLFragment.Builder();
+    out.startElement(INPUT).attribute(NAME, "s").attribute(TYPE, "hidden")
+       .attribute(SHARD, "true").attribute(LIST, "servers").endEmptyElement();
+    out.startElement(DATALIST).attribute(ID, "servers").closeStartElement();
+    for (String server : servers) {
+      out.startElement(OPTION).attribute(VALUE, server).endEmptyElement();
+    }
+    return out.endElement(DATALIST).build();
+  }
+  /**
+   * Record the start of an extent input, up to its value.
+   */
+  private static MapMLFragment inputFragment(String name) {
+    return new MapMLFragment.Builder().startElement(INPUT).attribute(NAME, name).attribute(TYPE, name).build();
+  }
+  /**
+   * The parts of a document which depend only on the zoom, for the zoom 
+   * levels of the service bounds.
+   */
+  private static final class ZoomFragments {
+    // the projection and zoom meta elements
+    MapMLFragment meta;
+    // the min and max attributes of the x and y inputs, ending the input
+    MapMLFragment xRange;
+    MapMLFragment yRange;
+    // the zoom and projection inputs and the end of the extent
+    MapMLFragment extentEnd;
+  }
+  /**
+   * Record the fragments of each zoom level of the service bounds.
+   */
+  private static ZoomFragments[] zoomFragments(MapMLServiceBounds serviceBounds, String projection) {
+    if (serviceBounds == null) return null;
+    ZoomFragments[] fragments = new ZoomFragments[serviceBounds.getMaxZoom() + 1];
+    double[] pixelBounds = new double[4];
+    try {
+      for (int z = serviceBounds.getMinZoom(); z <= serviceBounds.getMaxZoom(); z++) {
+        ZoomFragments f = new ZoomFragments();
+        f.meta = new MapMLFragment.Builder()
+            .startElement(META).attribute(NAME, "projection").attribute(CONTENT, projection).endEmptyElement()
+            .startElement(META).attribute(NAME, "zoom").attribute(CONTENT, z).endEmptyElement().build();
+        serviceBounds.getPixelBounds(z, pixelBounds);
+        f.xRange = new MapMLFragment.Builder()
+            .attribute(MIN, Math.floor(pixelBounds[0])).attribute(MAX, Math.floor(pixelBounds[2])).endEmptyElement().build();
+        f.yRange = new MapMLFragment.Builder()
+            .attribute(MIN, Math.floor(pixelBounds[1])).attribute(MAX, Math.floor(pixelBounds[3])).endEmptyElement().build();
+        MapMLFragment.Builder extentEnd = new MapMLFragment.Builder();
+        writeExtentEnd(extentEnd, z, serviceBounds, projection);
+        f.extentEnd = extentEnd.build();
+        fragments[z] = f;
+      }
+    } catch (IOException e) {
+      throw new MapMLException(e);
+    }
+    return fragments;
+  }
+  /**
+   * @return the pre-encoded fragments of the zoom, or null if the document
+   * must be written in full
+   */
+  private ZoomFragments getZoomFragments(int zoom, String projection) {
+    ZoomFragments[] fragments = this.zoomFragments;
+    if (fragments == null || zoom < serviceBounds.getMinZoom() || zoom >= fragments.length
+            || !this.tiledCRS.getName().equals(projection)) {
+      return null;
+    }
+    return fragments[zoom];
+  }
+  /**
+   * Print a mapml document on the output, given the parameters.  The document
+   * is encoded in memory and then printed, so this method is intended for 
+   * testing; the service uses {@link #printMapMLDoc(String, String, long, String, int, Bounds, String, OutputStream)}
    * @param responseType the mime type to reflect in the &lt;meta&gt element
-   * @param start offset, given tiles are row,col ordered
+   * @param start offset, given tiles are ordered from the centre of the bounds out
    * @param base base URI to serialize as base element
    * @param zoom zoom level at which the tile references are generated
    * @param bounds the map extent to use for generating tile references in/touching
    * @param out the PrintWriter on which to print.
    */
   public void printMapMLDoc(String scheme, String responseType, long start, String base, int zoom, Bounds bounds, String projection, PrintWriter out) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try {
+        printMapMLDoc(scheme, responseType, start, base, zoom, bounds, projection, bytes);
+      } catch (IOException e) {
+        throw new MapMLException(e);
+      }
+      out.print(new String(bytes.toByteArray(), MapMLWriter.UTF8));
+  }
+  /**
+   * Write a mapml document as UTF-8 on the output stream, given the parameters.
+   * The output stream is flushed, but not closed.
+   * @param responseType the mime type to reflect in the &lt;meta&gt element
+   * @param start offset, given tiles are ordered from the centre of the bounds out
+   * @param base base URI to serialize as base element
+   * @param zoom zoom level at which the tile references are generated
+   * @param bounds the map extent to use for generating tile references in/touching
+   * @param out the stream on which to write.
+   * @throws IOException if the output stream cannot be written
+   */
+  public void printMapMLDoc(String scheme, String responseType, long start, String base, int zoom, Bounds bounds, String projection, OutputStream out) throws IOException {
+      printMapMLDoc(scheme, responseType, start, base, zoom, bounds, projection, false, out);
+  }
+  /**
+   * Write a mapml document as UTF-8 on the output stream, referring to the
+   * tiles either with a &lt;tile&gt; element per tile and template, or with 
+   * an &lt;extent&gt; giving the range of the tiles and the templates for 
+   * the client to expand.  The latter covers every tile of the extent, so 
+   * the document is not paged; since it cannot leave out the tiles outside
+   * the coverage or missing from the tile inventory, tile elements are 
+   * written instead if the printer has either (see 
+   * {@link #supportsTileTemplates()}).  If the response type is
+   * {@link MapMLBinary#MEDIA_TYPE}, the document is written in that encoding.
+   * @param tileTemplates true to write tile templates rather than tile elements
+   * @param out the stream on which to write.
+   * @throws IOException if the output stream cannot be written
+   * @see #writeTileTemplates(MapMLSink, String, int, Bounds)
+   */
+  public void printMapMLDoc(String scheme, String responseType, long start, String base, int zoom, Bounds bounds, String projection, 
+          boolean tileTemplates, OutputStream out) throws IOException {
+      if (MapMLBinary.isBinary(responseType)) {
+        MapMLBinary.Encoder binary = new MapMLBinary.Encoder(out);
+        writeMapMLDoc(binary, scheme, responseType, start, base, zoom, bounds, projection, tileTemplates);
+        binary.finish();
+        return;
+      }
+      MapMLWriter writer = new MapMLWriter(out);
+      try {
+        writeMapMLDoc(writer, scheme, responseType, start, base, zoom, bounds, projection, tileTemplates);
+      } finally {
+        writer.release();
+      }
+  }
+  protected void writeMapMLDoc(MapMLSink out, String scheme, String responseType, long start, String base, int zoom, Bounds bounds, String projection, 
+          boolean tileTemplates) throws IOException {
+      // the number of tiles of the extent that exist at this zoom
       long tileCount = bounds == null?0:this.tiledCRS.tileCount(zoom, bounds);
-      // check that start is an integral multiple of pageSize
-      // check that start is less than tileCount
-      // check that next is less than tileCount
+      boolean intersects = bounds != null && serviceBounds.intersects(zoom, bounds);
+      TileFilter filter = this.tileFilter;
+      if (filter != null) {
+          tileTemplates = false;
+      }
+      // the page of tiles is found first: tiles outside the coverage of the 
+      // service or missing from the tile inventory are skipped, so where the
+      // next page starts depends on it
+      TileBuffer tiles = null;
+      if (intersects && this.tileUrlTemplates != null && !tileTemplates) {
+          tiles = TILES.get();
+          this.tiledCRS.getTilesForExtent(bounds, zoom, start, this.pageSize, tiles, filter);
+      }
       long next = 0L;
-      if (tileCount > getPageSize()) {
-          next = start + getPageSize();
+      if (tileCount > getPageSize() && !tileTemplates) {
+          next = tiles != null ? tiles.getEnd() : start + getPageSize();
           if (next > tileCount) 
               next = 0L;
       }
     
-      out.print("<mapml><head><title>"+title+"</title>");
-      out.print("<meta http-equiv=\"Content-Type\" content=\""+responseType+"\"/>");
-      out.print("<meta charset=\"utf-8\"/>");
-      out.print("<meta name=\"projection\" content=\""+projection+"\"/>");
-      out.print("<meta name=\"zoom\" content=\""+zoom+"\"/>");
-      out.print("<meta name=\"area\" content=\""+tileCount+"\"/>");
-      out.print("<base href=\""+base+"\"/>");
-      out.print("<link rel=\"license\" href=\""+this.licenseUrl+"\" title=\""+this.licenseTitle+"\"/>");
-      if (this.legendUrl != null) {
-          out.print("<link rel=\"legend\" href=\""+this.legendUrl+"\"/>");
+      out.fragment(this.titleFragment);
+      out.fragment(CONTENT_TYPE_META).attribute(CONTENT, responseType).endEmptyElement();
+      out.fragment(CHARSET_META);
+      ZoomFragments fragments = getZoomFragments(zoom, projection);
+      if (fragments != null) {
+          out.fragment(fragments.meta);
+      } else {
+          out.startElement(META).attribute(NAME, "projection").attribute(CONTENT, projection).endEmptyElement();
+          out.startElement(META).attribute(NAME, "zoom").attribute(CONTENT, zoom).endEmptyElement();
       }
-      out.print("</head><body>");
-      if (bounds == null || !serviceBounds.intersects(zoom, bounds)) {
-          out.print(getExtentElement(base, zoom, bounds, projection));
+      out.fragment(AREA_META).attribute(CONTENT, tileCount).endEmptyElement();
+      out.startElement(BASE).attribute(HREF, base).endEmptyElement();
+      out.fragment(this.headEndFragment);
+      if (!intersects) {
+          writeExtentElement(out, base, zoom, bounds, projection);
       } else {
-          out.print(getExtentElement(base, zoom, bounds, projection));
+          writeExtentElement(out, base, zoom, bounds, projection);
           if (next > 0 && next != tileCount) {
-              out.print("<link rel=\"next\" href=\""+base+"?xmin="+bounds.getMin().x+"&amp;ymin="+bounds.getMin().y+"&amp;xmax="+bounds.getMax().x+"&amp;ymax="+bounds.getMax().y+"&amp;projection=OSMTILE&amp;zoom="+zoom+"&amp;start="+next+"\" type=\"text/mapml\"/> ");
+              out.fragment(NEXT_LINK_START).value(base)
+                 .value("?xmin=").value(bounds.getMinX())
+                 .value("&ymin=").value(bounds.getMinY())
+                 .value("&xmax=").value(bounds.getMaxX())
+                 .value("&ymax=").value(bounds.getMaxY())
+                 .value("&projection=").value(projection)
+                 .value("&zoom=").value((long)zoom)
+                 .value("&start=").value(next)
+                 .fragment(NEXT_LINK_END);
           }
           // a servlet instance can serve tiles and/or wms request urls
-          if (this.tileUrlTemplates != null) {
-              out.print(getTileElements(scheme, zoom, bounds, start));
-      }
+          if (this.tileUrlTemplates != null && tileTemplates) {
+              writeTileTemplates(out, scheme, zoom, bounds);
+          } else if (this.tileUrlTemplates != null) {
+              writeTileElements(out, scheme, tiles);
+          }
           if (this.wmsUrlTemplates != null) {
-              out.print(getImageElements(scheme, bounds, zoom));
+              writeImageElements(out, scheme, bounds, zoom);
           }
       }
-      out.print("</body></mapml>");
+      out.fragment(BODY_END_MAPML_END);
   }
-  protected String getImageElements(String scheme, Bounds bounds, int zoom) {
-    StringBuilder images = new StringBuilder();
-    
+  protected void writeImageElements(MapMLSink out, String scheme, Bounds bounds, int zoom) throws IOException {
     if (wmsUrlTemplates.length != 0) {
-      long width = (long)(bounds.getMax().x - bounds.getMin().x);
-      long height = (long)(bounds.getMax().y - bounds.getMin().y);
-      Point min = tiledCRS.untransform(bounds.getMin(), zoom);
-      Point max = tiledCRS.untransform(bounds.getMax(), zoom);
-      double xmin,ymin,xmax,ymax;
-      xmin = Math.min(min.x, max.x);
-      ymin = Math.min(min.y, max.y);
-      xmax = Math.max(min.x, max.x);
-      ymax = Math.max(min.y,max.y);
-       for (String template : wmsUrlTemplates) {
-          String src = template
-             .replaceFirst("\\{scheme\\}", scheme+"")
-             .replaceFirst("\\{xmin\\}", xmin+"").replaceFirst("\\{ymin\\}", ymin+"")
-             .replaceFirst("\\{xmax\\}", xmax+"").replaceFirst("\\{ymax\\}", ymax+"")
-             .replaceFirst("\\{w\\}", width+"").replaceFirst("\\{h\\}", height+"")
-             .replaceAll("&", "&amp;");
-          images.append("<image ")
-           .append("src=\"").append(src).append("\"/>");
+      long width = (long)(bounds.getMaxX() - bounds.getMinX());
+      long height = (long)(bounds.getMaxY() - bounds.getMinY());
+      double[] projected = ORDINATES.get();
+      tiledCRS.untransform(bounds, zoom, projected);
+       for (UrlTemplate template : wmsUrlTemplates) {
+          out.startElement(IMAGE).attributeStart(SRC);
+          template.writeImage(out, scheme, projected[0], projected[1], projected[2], projected[3], width, height);
+          out.attributeEnd().endEmptyElement();
        }
-       return images.toString();
     }
-    return "";
   }
   /**
-   * Gets the string representing the extent of the service, reflecting the
-   * values of the zoom and bounds for the request in the value="" attributes.
+   * Writes the extent of the service, reflecting the values of the zoom 
+   * and bounds for the request in the value="" attributes.
    * 
+   * @param out the sink 
    * @param url the URI at which the service is available
    * @param zoom the zoom for which the extent is to be generated
    * @param bounds the value to use for the extent
-   * @return a String <extent> element
    */
-  protected String getExtentElement(String url, int zoom, Bounds bounds, String projection) {
-    
-    String userXmin = bounds != null  ? " value=\"" + bounds.getMin().x  + "\"" :"";
-    String userYmin = bounds != null  ? " value=\"" + bounds.getMin().y + "\"" :"";
-    String userXmax = bounds != null  ? " value=\"" + bounds.getMax().x  + "\"" :"";
-    String userYmax = bounds != null  ? " value=\"" + bounds.getMax().y + "\"" :"";
+  protected void writeExtentElement(MapMLSink out, String url, int zoom, Bounds bounds, String projection) throws IOException {
     int z = zoom != -1 ? zoom : serviceBounds.getMinZoom();
-    String userZoom = " value=\"" + z + "\"";
-    
-    String minX = " min=\"" + serviceBounds.getPixelBounds(z).getMin().floor().x +  "\"" ;
-    String minY = " min=\"" + serviceBounds.getPixelBounds(z).getMin().floor().y +  "\"" ;
-    String maxX = " max=\"" + serviceBounds.getPixelBounds(z).getMax().floor().x +  "\"" ;
-    String maxY = " max=\"" + serviceBounds.getPixelBounds(z).getMax().floor().y +  "\"" ;
+    ZoomFragments fragments = getZoomFragments(z, projection);
+    if (fragments != null) {
+      // only the action and the values of the request remain to be written
+      out.fragment(this.extentStartFragment).attribute(ACTION, url).fragment(EXTENT_FORM);
+      writeInputValue(out.fragment(XMIN_INPUT), bounds, bounds != null ? bounds.getMinX() : 0D).fragment(fragments.xRange);
+      writeInputValue(out.fragment(YMIN_INPUT), bounds, bounds != null ? bounds.getMinY() : 0D).fragment(fragments.yRange);
+      writeInputValue(out.fragment(XMAX_INPUT), bounds, bounds != null ? bounds.getMaxX() : 0D).fragment(fragments.xRange);
+      writeInputValue(out.fragment(YMAX_INPUT), bounds, bounds != null ? bounds.getMaxY() : 0D).fragment(fragments.yRange);
+      out.fragment(fragments.extentEnd);
+      return;
+    }
+    double[] pixelBounds = ORDINATES.get();
+    serviceBounds.getPixelBounds(z, pixelBounds);
+    double minX = Math.floor(pixelBounds[0]);
+    double minY = Math.floor(pixelBounds[1]);
+    double maxX = Math.floor(pixelBounds[2]);
+    double maxY = Math.floor(pixelBounds[3]);
     
-    String minZm = " min=\""  + serviceBounds.getMinZoom()  + "\"";
-    String maxZm = " max=\""  + serviceBounds.getMaxZoom()  + "\"";
     // TODO DO NOT RETURN THE DEFAULT PROJECTION OSMTILE HERE IF IT IS NOT AVAILABLE
     // FROM THE PRINTER
-    String extent = 
-      "<extent units=\""+projection+"\" "
-      +"action=\""+url+"\" "
-      +"method=\"get\" enctype=\"application/x-www-form-urlencoded\">"
-        +"<input name=\"xmin\" type=\"xmin\" " + userXmin  + minX  + maxX  + "/>"
-        +"<input name=\"ymin\" type=\"ymin\" " + userYmin + minY  + maxY  + "/>"
-        +"<input name=\"xmax\" type=\"xmax\" " + userXmax  + minX  + maxX  + "/>"
-        +"<input name=\"ymax\" type=\"ymax\" " + userYmax + minY  + maxY  + "/>"
-        +"<input name=\"zoom\" type=\"zoom\" " + userZoom  + minZm   + maxZm   + "/>"
-        +"<input name=\"projection\" type=\"projection\" value=\""+ projection +"\"/>"
-      +"</extent>";
-    return extent;
+    out.startElement(EXTENT).attribute(UNITS, projection).attribute(ACTION, url)
+       .attribute(METHOD, "get").attribute(ENCTYPE, FORM_ENCODED).closeStartElement();
+    writeInput(out, "xmin", bounds, bounds != null ? bounds.getMinX() : 0D, minX, maxX);
+    writeInput(out, "ymin", bounds, bounds != null ? bounds.getMinY() : 0D, minY, maxY);
+    writeInput(out, "xmax", bounds, bounds != null ? bounds.getMaxX() : 0D, minX, maxX);
+    writeInput(out, "ymax", bounds, bounds != null ? bounds.getMaxY() : 0D, minY, maxY);
+    writeExtentEnd(out, z, serviceBounds, projection);
+  }
+  private static void writeExtentEnd(MapMLSink out, int z, MapMLServiceBounds serviceBounds, String projection) throws IOException {
+    out.startElement(INPUT).attribute(NAME, "zoom").attribute(TYPE, "zoom")
+       .attribute(VALUE, z)
+       .attribute(MIN, serviceBounds.getMinZoom())
+       .attribute(MAX, serviceBounds.getMaxZoom()).endEmptyElement();
+    out.startElement(INPUT).attribute(NAME, "projection").attribute(TYPE, "projection")
+       .attribute(VALUE, projection).endEmptyElement();
+    out.endElement(EXTENT);
+  }
+  private void writeInput(MapMLSink out, String name, Bounds bounds, double value, double min, double max) throws IOException {
+    out.startElement(INPUT).attribute(NAME, name).attribute(TYPE, name);
+    writeInputValue(out, bounds, value);
+    out.attribute(MIN, min).attribute(MAX, max).endEmptyElement();
+  }
+  private static MapMLSink writeInputValue(MapMLSink out, Bounds bounds, double value) throws IOException {
+    if (bounds != null) {
+      out.attribute(VALUE, value);
+    }
+    return out;
   }
   /**
-   * Generate <tile> elements for the requested parameters, using the tileServers
+   * Write &lt;tile&gt; elements for the requested parameters, using the tileServers
    * and tileUrlTemplates with which the class is configured.
    * 
+   * @param out the sink
    * @param zoom the zoom of the request
    * @param bounds the extent of the request in projected, *scaled* units
    * @param start offset 
-   * @return the String value of the set of <tile> elements
    */
-  protected String getTileElements(String scheme, int zoom, Bounds bounds, long start) {
-    StringBuilder tes = new StringBuilder();
-    Iterator<String> i = tileServers.iterator();
-    String s = "";
-    List<TileCoordinates> tiles = this.tiledCRS.getTilesForExtent(bounds, zoom, start);
-    
-    for (TileCoordinates t : tiles) {
-       if (i.hasNext()) {
-          s = i.next();
-          if (!i.hasNext())
-            i = tileServers.iterator();
-       }
-       for (String template : this.tileUrlTemplates) {
-          String src = template
-             .replaceFirst("\\{scheme\\}", scheme+"")
-             .replaceFirst("\\{s\\}", s+"").replaceFirst("\\{z\\}", t.z+"")
-             .replaceFirst("\\{y\\}", t.y+"").replaceFirst("\\{x\\}", t.x+"")
-             .replaceAll("&", "&amp;");
-          tes.append("<tile ")
-           .append("col=\"").append(t.x).append("\" row=\"").append(t.y).append("\" ")
-           // .append("distance=\"").append(c.distanceTo(t)).append("\" ")
-           .append("src=\"").append(src).append("\"/>");
-       }
-    }
-    return tes.toString();
+  protected void writeTileElements(MapMLSink out, String scheme, int zoom, Bounds bounds, long start) throws IOException {
+    TileBuffer tiles = TILES.get();
+    this.tiledCRS.getTilesForExtent(bounds, zoom, start, this.pageSize, tiles, this.tileFilter);
+    writeTileElements(out, scheme, tiles);
   }
   /**
-   * Compares two tile coordinates and ranks them by distance from the constructed
-   * center point.
+   * Write &lt;tile&gt; elements for a page of tiles.
+   * 
+   * @param out the sink
+   * @param tiles the page of tiles
    */
-  protected class TileComparator implements Comparator<TileCoordinates> {
-      private final TileDecimalCoordinates centre;
-      TileComparator(TileDecimalCoordinates centre) {
-        this.centre = centre;
-      }
-      @Override
-      public int compare(TileCoordinates t1, TileCoordinates t2) {
-          Double d1 = this.centre.distanceTo(t1);
-          Double d2 = this.centre.distanceTo(t2);
-          return d1.compareTo(d2);
-      }
+  protected void writeTileElements(MapMLSink out, String scheme, TileBuffer tiles) throws IOException {
+    int zoom = tiles.getZoom();
+    for (int t = 0; t < tiles.size(); t++) {
+       long x = tiles.getColumn(t), y = tiles.getRow(t);
+       String s = getTileServer(x, y);
+       for (UrlTemplate template : this.tileUrlTemplates) {
+          out.startElement(TILE).attribute(COL, x).attribute(ROW, y).attributeStart(SRC);
+          template.writeTile(out, scheme, s, zoom, x, y);
+          out.attributeEnd().endEmptyElement();
+       }
+    }
   }
   /**
-   * Represents a position as an exact decimal in terms of the tile
-   * units at the specified zoom level.  Each zoom level has different numerical
-   * bounds, for instance zoom level 0 has a maximum x / y of 1.0D, whereas 
-   * zoom level 18 has greater extents.  Instances of this class should be
-   * created with the getTileDecimalCoordinates(zoom, lat, lon) method, so 
-   * as to avoid confusion over lat mapsto y, lon mapsto x business.
+   * Write an &lt;extent&gt; of tile templates for the requested parameters: 
+   * a zoom input, column (x) and row (y) location inputs whose min and max
+   * are the range of the tiles at the zoom, a hidden input and datalist of 
+   * the tileServers, and a &lt;link rel="tile"&gt; with the template of 
+   * each of the tileUrlTemplates as its tref.  For each tile of the range, 
+   * the client substitutes the zoom for {z}, the column for {x}, the row 
+   * for {y} and, for {s}, the server given by {@link #getTileServer(long, long)}.
+   * The extent refers to every tile of the range, so it is not written by
+   * printers with a coverage or tile inventory.
+   * 
+   * @param out the sink
+   * @param zoom the zoom of the request
+   * @param bounds the extent of the request in projected, *scaled* units
    */
-  protected class TileDecimalCoordinates {
-      int zoom;
-      double x;
-      double y;
-      /**
-       * Generate a position in  the numerical domain of the coordinate system
-       * at a particular zoom level
-       * @param zoom
-       * @param x
-       * @param y
-       */
-      public TileDecimalCoordinates(int zoom, double x, double y) {
-        this.zoom = zoom;
-        this.x = x;
-        this.y = y;
-      }
-      public double distanceTo(TileCoordinates tile) {
-        double dx = (tile.x+0.5) - this.x;
-        double dy = (tile.y+0.5) - this.y;
-        return Math.sqrt(dx*dx + dy*dy);
-      }
+  protected void writeTileTemplates(MapMLSink out, String scheme, int zoom, Bounds bounds) throws IOException {
+    long[] range = new long[4];
+    if (!this.tiledCRS.getTileRange(bounds, zoom, range)) {
+      return;
+    }
+    out.startElement(EXTENT).attribute(UNITS, this.tiledCRS.getName()).closeStartElement();
+    out.startElement(INPUT).attribute(NAME, "z").attribute(TYPE, "zoom")
+       .attribute(VALUE, zoom).attribute(MIN, zoom).attribute(MAX, zoom).endEmptyElement();
+    out.fragment(COLUMN_INPUT).attribute(MIN, range[0]).attribute(MAX, range[2]).endEmptyElement();
+    out.fragment(ROW_INPUT).attribute(MIN, range[1]).attribute(MAX, range[3]).endEmptyElement();
+    if (this.tileServersFragment != null) {
+      out.fragment(this.tileServersFragment);
+    }
+    for (UrlTemplate template : this.tileUrlTemplates) {
+      out.startElement(LINK).attribute(REL, "tile").attributeStart(TREF);
+      template.writeTemplate(out, scheme);
+      out.attributeEnd().endEmptyElement();
+    }
+    out.endElement(EXTENT);
   }
 }
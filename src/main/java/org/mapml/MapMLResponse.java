@@ -0,0 +1,226 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import org.mapml.cache.ContentEncoding;
+import org.mapml.cache.ResponsePolicy;
+import org.mapml.projections.Bounds;
+
+/**
+ * The document with which a layer responds to a request, as negotiated by
+ * {@link MapMLLayer#respond}: its media type, its canonical location, its 
+ * cache key and the headers which identify it.  MapMLServlet and the 
+ * embedded server both respond through this class, so that they label and
+ * validate documents alike.
+ */
+public final class MapMLResponse {
+    private static final ThreadLocal<SimpleDateFormat> HTTP_DATE = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            return format;
+        }
+    };
+
+    private final MapMLLayer layer;
+    private final String scheme;
+    private final String responseType;
+    private final long start;
+    private final String base;
+    private final int zoom;
+    private final Bounds bounds;
+    private final String projection;
+    private final String location;
+    private final String key;
+    private final ContentEncoding encoding;
+    private final String etag;
+    private final String cacheControl;
+    private final long lastModified;
+
+    MapMLResponse(MapMLLayer layer, String scheme, String responseType, long start, String base, int zoom, 
+            Bounds bounds, String projection, String location, String key, ContentEncoding encoding, 
+            String etag, String cacheControl, long lastModified) {
+        this.layer = layer;
+        this.scheme = scheme;
+        this.responseType = responseType;
+        this.start = start;
+        this.base = base;
+        this.zoom = zoom;
+        this.bounds = bounds;
+        this.projection = projection;
+        this.location = location;
+        this.key = key;
+        this.encoding = encoding;
+        this.etag = etag;
+        this.cacheControl = cacheControl;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @return the media type of the document
+     */
+    public String getResponseType() {
+        return responseType;
+    }
+
+    /**
+     * @return the Content-Type header of the document: its media type, with
+     * the charset of an XML document
+     */
+    public String getContentType() {
+        return MapMLBinary.isBinary(responseType) ? responseType : responseType + ";charset=UTF-8";
+    }
+
+    /**
+     * @return the canonical URL of the document if the request was not for
+     * it, else null
+     */
+    public String getLocation() {
+        return location;
+    }
+
+    /**
+     * @return true if the request is to be redirected to the canonical URL
+     * rather than answered with the document
+     */
+    public boolean isRedirect() {
+        return location != null && layer.getCanonicalUrls() == MapMLLayer.CanonicalUrls.REDIRECT;
+    }
+
+    /**
+     * @return the cache key of the uncompressed document
+     */
+    public String getKey() {
+        return key;
+    }
+
+    public ContentEncoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * @return the entity tag of the encoded document
+     */
+    public String getETag() {
+        return etag;
+    }
+
+    /**
+     * @return the Vary header of the response
+     */
+    public String getVary() {
+        return layer.getVary();
+    }
+
+    /**
+     * Evaluate the conditions of a GET as RFC 7232 section 6 orders them: 
+     * If-None-Match if the request has it, else If-Modified-Since.
+     * 
+     * @param ifNoneMatch the If-None-Match header of the request, or null
+     * @param ifModifiedSince the If-Modified-Since header of the request, or null
+     * @return true to respond 304 Not Modified
+     */
+    public boolean isNotModified(String ifNoneMatch, String ifModifiedSince) {
+        if (ifNoneMatch != null) {
+            return ResponsePolicy.matches(ifNoneMatch, etag);
+        }
+        if (ifModifiedSince == null) {
+            return false;
+        }
+        try {
+            return HTTP_DATE.get().parse(ifModifiedSince).getTime() >= lastModified;
+        } catch (ParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The headers which identify the document and say how long it may be
+     * cached, sent with the document or a 304 for it, but never with an 
+     * error, lest the error be cached.
+     */
+    public Map<String, String> getValidators() {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("ETag", etag);
+        // which changes when the tile inventory is rebuilt
+        headers.put("Last-Modified", HTTP_DATE.get().format(new Date(lastModified)));
+        if (cacheControl != null) {
+            headers.put("Cache-Control", cacheControl);
+        }
+        return headers;
+    }
+
+    /**
+     * @return the validators and the Content-Encoding of the document
+     */
+    public Map<String, String> getHeaders() {
+        Map<String, String> headers = getValidators();
+        if (encoding != ContentEncoding.IDENTITY) {
+            headers.put("Content-Encoding", encoding.getToken());
+        }
+        return headers;
+    }
+
+    /**
+     * Get the encoded document, from the response cache if there is one.
+     */
+    public byte[] getDocument() throws IOException {
+        return layer.getDocument(key, encoding, scheme, responseType, start, base, zoom, bounds, projection);
+    }
+
+    /**
+     * Write the encoded document on the output stream as it is printed, 
+     * bypassing the response cache.
+     */
+    public void printDocument(OutputStream out) throws IOException {
+        layer.printDocument(scheme, responseType, start, base, zoom, bounds, projection, encoding, out);
+    }
+}
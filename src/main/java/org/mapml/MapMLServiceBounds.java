@@ -43,6 +43,7 @@ package org.mapml;
 
 import org.mapml.exceptions.MapMLException;
 import org.mapml.projections.Bounds;
+import org.mapml.projections.TileCoverage;
 import org.mapml.projections.TiledCRS;
 
   /**
@@ -57,6 +58,7 @@ public class MapMLServiceBounds {
     Bounds[] pixelBounds;
     final String projection;
     TiledCRS tiledCRS;
+    TileCoverage coverage;
     public static int MAX_LEVELS = 26;
     /**
      * Create the service bounds.
@@ -96,21 +98,43 @@ public class MapMLServiceBounds {
     public int getMinZoom() { return this.minZoom; }
     public int getMaxZoom() { return this.maxZoom; }
     public Bounds getBounds() { return this.bounds; }
+    /**
+     * Restrict the service to the tiles intersecting a polygonal coverage 
+     * within its bounds.
+     * @param coverage the coverage, or null for the whole of the bounds
+     */
+    public void setCoverage(TileCoverage coverage) {
+        this.coverage = coverage;
+    }
+    /**
+     * @return the coverage of the service, or null if the service covers the
+     * whole of its bounds
+     */
+    public TileCoverage getCoverage() { return this.coverage; }
     public Bounds getPixelBounds(int zoom) {
         if (!(minZoom <= zoom && zoom <= maxZoom)) throw new MapMLException("Bad zoom ("+zoom+") bounds requested");
         return this.pixelBounds[zoom];
     }
+    /**
+     * Copy the pixel bounds at a zoom level into a caller-provided array.
+     * @param zoom the zoom level, minZoom <= zoom <= maxZoom
+     * @param dest receives xmin,ymin,xmax,ymax in pixels
+     */
+    public void getPixelBounds(int zoom, double[] dest) {
+        getPixelBounds(zoom).toArray(dest, 0);
+    }
     /**
      * Determine if the given bounds (other) intersects this bounds AND if the
      * given zoom level is within the min/max range of zoom level for this
      * @param zoom -1 is a noop, otherwise checks that minZoom <= zoom <= maxZoom
      * @param other null is a noop, otherwise checks that the other envelope intersects 
      * the envelope of this object
-     * @return  this.bounds intersects other.bounds
+     * @return  this.bounds intersects other.bounds, and the coverage if any
      */
     public boolean intersects(int zoom, Bounds other) {
         if (zoom == -1) return false;
         if (other == null) return false;
-        return this.pixelBounds[zoom].intersects(other);
+        return this.pixelBounds[zoom].intersects(other) 
+                && (this.coverage == null || this.coverage.intersects(zoom, other));
     }
 }
\ No newline at end of file
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+
+package org.mapml;
+
+import java.io.IOException;
+
+/**
+ * Receives a MapML document as the calls which write its elements, 
+ * attributes and text.  {@link MapMLWriter} writes them as XML, and 
+ * {@link MapMLBinary.Encoder} as binary tokens, so a document is rendered 
+ * once for either encoding.
+ * <p>
+ * An attribute value is given either whole, or as parts between 
+ * {@link #attributeStart(byte[])} and {@link #attributeEnd()}: Strings, 
+ * which are escaped as necessary, and numbers, which an encoding may write
+ * natively.  Element and attribute names are expected to be encoded once 
+ * (see {@link MapMLWriter#encode(String)}), and static parts of a document
+ * to be recorded once as a {@link MapMLFragment}.
+ */
+public interface MapMLSink {
+    /**
+     * Start an element, whose start tag is open for attributes.
+     */
+    MapMLSink startElement(byte[] name) throws IOException;
+
+    /**
+     * Close the start tag of the current element, which has content.
+     */
+    MapMLSink closeStartElement() throws IOException;
+
+    /**
+     * End the current element, whose start tag is open, as an empty element.
+     */
+    MapMLSink endEmptyElement() throws IOException;
+
+    /**
+     * End the current element.
+     */
+    MapMLSink endElement(byte[] name) throws IOException;
+
+    /**
+     * Write an attribute of the open start tag; a null value is empty.
+     */
+    MapMLSink attribute(byte[] name, String value) throws IOException;
+
+    MapMLSink attribute(byte[] name, long value) throws IOException;
+
+    MapMLSink attribute(byte[] name, double value) throws IOException;
+
+    /**
+     * Start an attribute of the open start tag, whose value is written in parts.
+     */
+    MapMLSink attributeStart(byte[] name) throws IOException;
+
+    /**
+     * Write a part of the current attribute value; a null part is empty.
+     */
+    MapMLSink value(String part) throws IOException;
+
+    MapMLSink value(long part) throws IOException;
+
+    /**
+     * Write a part of the current attribute value, as formatted by 
+     * Double.toString(part).
+     */
+    MapMLSink value(double part) throws IOException;
+
+    /**
+     * End the current attribute value.
+     */
+    MapMLSink attributeEnd() throws IOException;
+
+    /**
+     * Write a text node; a null text is empty.
+     */
+    MapMLSink text(String text) throws IOException;
+
+    /**
+     * Write a fragment recorded from the same calls.
+     */
+    MapMLSink fragment(MapMLFragment fragment) throws IOException;
+}
@@ -0,0 +1,387 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+
+package org.mapml;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Writes a MapML document as UTF-8 bytes directly to an output stream, 
+ * typically the ServletOutputStream of the response.  Output is collected in
+ * a buffer which is pooled per thread, so that writing a document does not
+ * allocate a new buffer, nor re-encode characters through a PrintWriter.
+ * Element and attribute names are expected to be encoded once (see 
+ * {@link #encode(String)}), and {@link MapMLFragment}s are written as their
+ * pre-encoded XML.
+ * 
+ * Instances are not thread safe, and must be closed (or flushed and released)
+ * by the thread that created them.
+ */
+public class MapMLWriter implements MapMLSink, Closeable, Flushable {
+    public static final Charset UTF8 = Charset.forName("UTF-8");
+    static final int BUFFER_SIZE = 8192;
+    private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<>();
+
+    private static final byte[] AMP = encode("&amp;");
+    private static final byte[] LT = encode("&lt;");
+    private static final byte[] GT = encode("&gt;");
+    private static final byte[] QUOT = encode("&quot;");
+    private static final byte[] MIN_LONG = encode(Long.toString(Long.MIN_VALUE));
+
+    private final OutputStream out;
+    private byte[] buf;
+    private int pos;
+
+    /**
+     * @param out the stream to which the document is written
+     */
+    public MapMLWriter(OutputStream out) {
+        this.out = out;
+        this.buf = BUFFERS.get();
+        if (this.buf == null) {
+            this.buf = new byte[BUFFER_SIZE];
+        } else {
+            // the buffer belongs to this writer until it is released
+            BUFFERS.set(null);
+        }
+    }
+
+    /**
+     * Encode a static fragment of the document, such as an element name.
+     * @param s the String to encode
+     * @return the UTF-8 bytes of s
+     */
+    public static byte[] encode(String s) {
+        return s.getBytes(UTF8);
+    }
+
+    /**
+     * Encode a String as it will appear in an attribute value or text node.
+     * @param s the String to escape and encode
+     * @return the UTF-8 bytes of the escaped value of s, or empty if s is null
+     */
+    public static byte[] encodeEscaped(String s) {
+        if (s == null) return new byte[0];
+        StringBuilder sb = new StringBuilder(s.length() + 16);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '&': sb.append("&amp;"); break;
+                case '<': sb.append("&lt;"); break;
+                case '>': sb.append("&gt;"); break;
+                case '"': sb.append("&quot;"); break;
+                default: sb.append(c);
+            }
+        }
+        return encode(sb.toString());
+    }
+
+    /**
+     * Write &lt;name
+     */
+    @Override
+    public MapMLWriter startElement(byte[] name) throws IOException {
+        write('<');
+        return write(name);
+    }
+
+    /**
+     * Write &gt; to close a start tag
+     */
+    @Override
+    public MapMLWriter closeStartElement() throws IOException {
+        return write('>');
+    }
+
+    /**
+     * Write /&gt; to close an empty element
+     */
+    @Override
+    public MapMLWriter endEmptyElement() throws IOException {
+        write('/');
+        return write('>');
+    }
+
+    /**
+     * Write &lt;/name&gt;
+     */
+    @Override
+    public MapMLWriter endElement(byte[] name) throws IOException {
+        write('<');
+        write('/');
+        write(name);
+        return write('>');
+    }
+
+    /**
+     * Write  name="value" with the value escaped.
+     */
+    @Override
+    public MapMLWriter attribute(byte[] name, String value) throws IOException {
+        attributeStart(name);
+        writeEscaped(value);
+        return write('"');
+    }
+
+    /**
+     * Write  name="value" for a pre-encoded, pre-escaped value.
+     */
+    public MapMLWriter attribute(byte[] name, byte[] value) throws IOException {
+        attributeStart(name);
+        write(value);
+        return write('"');
+    }
+
+    @Override
+    public MapMLWriter attribute(byte[] name, long value) throws IOException {
+        attributeStart(name);
+        write(value);
+        return write('"');
+    }
+
+    @Override
+    public MapMLWriter attribute(byte[] name, double value) throws IOException {
+        attributeStart(name);
+        write(value);
+        return write('"');
+    }
+
+    /**
+     * Write the opening of an attribute:  name="
+     */
+    @Override
+    public MapMLWriter attributeStart(byte[] name) throws IOException {
+        write(' ');
+        write(name);
+        write('=');
+        return write('"');
+    }
+
+    /**
+     * Write the escaped part of an attribute value.
+     */
+    @Override
+    public MapMLWriter value(String part) throws IOException {
+        return writeEscaped(part);
+    }
+
+    @Override
+    public MapMLWriter value(long part) throws IOException {
+        return write(part);
+    }
+
+    @Override
+    public MapMLWriter value(double part) throws IOException {
+        return write(part);
+    }
+
+    /**
+     * Write the closing quote of an attribute value.
+     */
+    @Override
+    public MapMLWriter attributeEnd() throws IOException {
+        return write('"');
+    }
+
+    /**
+     * Write escaped text.
+     */
+    @Override
+    public MapMLWriter text(String text) throws IOException {
+        return writeEscaped(text);
+    }
+
+    /**
+     * Write the pre-encoded XML of the fragment.
+     */
+    @Override
+    public MapMLWriter fragment(MapMLFragment fragment) throws IOException {
+        return write(fragment.xml);
+    }
+
+    /**
+     * Write a pre-encoded fragment.
+     */
+    public MapMLWriter write(byte[] fragment) throws IOException {
+        return write(fragment, 0, fragment.length);
+    }
+
+    public MapMLWriter write(byte[] bytes, int offset, int length) throws IOException {
+        if (length > buf.length - pos) {
+            flushBuffer();
+            if (length > buf.length) {
+                out.write(bytes, offset, length);
+                return this;
+            }
+        }
+        System.arraycopy(bytes, offset, buf, pos, length);
+        pos += length;
+        return this;
+    }
+
+    /**
+     * Write a single ASCII character.
+     */
+    public MapMLWriter write(char c) throws IOException {
+        if (pos == buf.length) flushBuffer();
+        buf[pos++] = (byte) c;
+        return this;
+    }
+
+    /**
+     * Write the decimal representation of value, without allocation.
+     */
+    public MapMLWriter write(long value) throws IOException {
+        if (value == Long.MIN_VALUE) return write(MIN_LONG);
+        if (buf.length - pos < 20) flushBuffer();
+        if (value < 0) {
+            buf[pos++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) digits++;
+        int end = pos + digits;
+        for (int i = end - 1; i >= pos; i--) {
+            buf[i] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        pos = end;
+        return this;
+    }
+
+    /**
+     * Write value as formatted by Double.toString(value).
+     */
+    public MapMLWriter write(double value) throws IOException {
+        return writeAscii(Double.toString(value));
+    }
+
+    /**
+     * Write a String known to contain only ASCII characters, without escaping.
+     */
+    public MapMLWriter writeAscii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            write(s.charAt(i));
+        }
+        return this;
+    }
+
+    /**
+     * Write the String as UTF-8, escaping the characters which are special
+     * in XML attribute values and text.
+     */
+    public MapMLWriter writeEscaped(String s) throws IOException {
+        if (s == null) return this;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                switch (c) {
+                    case '&': write(AMP); break;
+                    case '<': write(LT); break;
+                    case '>': write(GT); break;
+                    case '"': write(QUOT); break;
+                    default: write(c);
+                }
+            } else if (c < 0x800) {
+                write((char) (0xC0 | (c >> 6)));
+                write((char) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() 
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                write((char) (0xF0 | (cp >> 18)));
+                write((char) (0x80 | ((cp >> 12) & 0x3F)));
+                write((char) (0x80 | ((cp >> 6) & 0x3F)));
+                write((char) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                write('?');
+            } else {
+                write((char) (0xE0 | (c >> 12)));
+                write((char) (0x80 | ((c >> 6) & 0x3F)));
+                write((char) (0x80 | (c & 0x3F)));
+            }
+        }
+        return this;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (pos > 0) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * Flush the document to the output stream and return the buffer to the 
+     * pool.  The writer must not be used afterwards.  The underlying stream
+     * is not closed.
+     */
+    public void release() throws IOException {
+        if (buf == null) return;
+        try {
+            flush();
+        } finally {
+            BUFFERS.set(buf);
+            buf = null;
+        }
+    }
+
+    /**
+     * Release the writer and close the underlying output stream.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            release();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml.cache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The HTTP content codings a layer can respond with, and negotiation of the
+ * coding from an Accept-Encoding header.  Compressed responses are streamed:
+ * the output stream returned by {@link #wrap(OutputStream, int)} compresses 
+ * bytes as the document is printed rather than buffering the document.
+ */
+public enum ContentEncoding {
+    IDENTITY("identity") {
+        @Override
+        public OutputStream wrap(OutputStream out, int level) {
+            return out;
+        }
+    },
+    GZIP("gzip") {
+        @Override
+        public OutputStream wrap(OutputStream out, final int level) throws IOException {
+            return new GZIPOutputStream(out, BUFFER_SIZE) {
+                {
+                    def.setLevel(level);
+                }
+            };
+        }
+    },
+    /** zlib-wrapped deflate, as HTTP defines the deflate coding */
+    DEFLATE("deflate") {
+        @Override
+        public OutputStream wrap(OutputStream out, int level) {
+            final Deflater deflater = new Deflater(level);
+            return new DeflaterOutputStream(out, deflater, BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        // a Deflater created here is not ended by DeflaterOutputStream
+                        deflater.end();
+                    }
+                }
+            };
+        }
+    };
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final String token;
+
+    ContentEncoding(String token) {
+        this.token = token;
+    }
+
+    /**
+     * @return the content-coding token, e.g. gzip
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Wrap a stream so that bytes written to it are compressed and passed on
+     * as they are produced.  Closing (or finishing) the returned stream 
+     * completes the encoding, and closes the underlying stream.
+     * 
+     * @param out receives the encoded bytes
+     * @param level the compression level, 1 (fastest) to 9 (smallest)
+     * @return the stream to write the unencoded bytes to
+     * @throws IOException if the encoding header cannot be written
+     */
+    public abstract OutputStream wrap(OutputStream out, int level) throws IOException;
+
+    /**
+     * Choose the coding with the highest quality value in an Accept-Encoding
+     * header, preferring gzip to deflate at equal quality, and the identity
+     * coding unless a compressed coding is preferred to it.
+     * 
+     * @param acceptEncoding the header value, may be null
+     * @return the coding of the response
+     */
+    public static ContentEncoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return IDENTITY;
+        }
+        float gzip = -1f, deflate = -1f, identity = -1f, any = -1f;
+        int length = acceptEncoding.length();
+        int i = 0;
+        while (i < length) {
+            int end = acceptEncoding.indexOf(',', i);
+            if (end < 0) {
+                end = length;
+            }
+            int semicolon = acceptEncoding.indexOf(';', i);
+            int tokenEnd = semicolon >= 0 && semicolon < end ? semicolon : end;
+            String coding = acceptEncoding.substring(i, tokenEnd).trim();
+            float q = tokenEnd < end ? quality(acceptEncoding.substring(tokenEnd + 1, end)) : 1f;
+            if (coding.equalsIgnoreCase("gzip") || coding.equalsIgnoreCase("x-gzip")) {
+                gzip = Math.max(gzip, q);
+            } else if (coding.equalsIgnoreCase("deflate")) {
+                deflate = Math.max(deflate, q);
+            } else if (coding.equalsIgnoreCase("identity")) {
+                identity = Math.max(identity, q);
+            } else if (coding.equals("*")) {
+                any = Math.max(any, q);
+            }
+            i = end + 1;
+        }
+        // codings not listed take the quality of *, if present
+        if (gzip < 0f) gzip = any;
+        if (deflate < 0f) deflate = any;
+        // identity is always acceptable unless it is explicitly refused
+        if (identity < 0f) identity = any == 0f ? 0f : Float.MIN_VALUE;
+        float best = Math.max(gzip, deflate);
+        if (best <= 0f || best < identity) {
+            return IDENTITY;
+        }
+        return gzip >= deflate ? GZIP : DEFLATE;
+    }
+
+    private static float quality(String parameters) {
+        String q = parameters.trim();
+        if (!q.startsWith("q=") && !q.startsWith("Q=")) {
+            return 1f;
+        }
+        try {
+            float value = Float.parseFloat(q.substring(2).trim());
+            return value < 0f || value > 1f ? 0f : value;
+        } catch (NumberFormatException e) {
+            return 0f;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+
+package org.mapml.cache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory cache of encoded response bodies, bounded by the total number
+ * of bytes held rather than by the number of entries.
+ * 
+ * Entries are evicted in least-recently-used order, but a new entry is only
+ * admitted at the expense of the eviction victim if its recent access 
+ * frequency, as estimated by a {@link FrequencySketch}, is higher than the
+ * victim's (TinyLFU admission).  This keeps one-off requests from flushing 
+ * popular documents out of the cache.
+ * 
+ * Concurrent misses on the same key are coalesced, so the loader runs only
+ * once for a key at a time and the other callers wait for its result.
+ * 
+ * @param <K> the key type
+ */
+public class ResponseCache<K> {
+
+    /**
+     * Renders the body for a key on a cache miss.
+     * @param <K> the key type
+     */
+    public interface Loader<K> {
+        byte[] load(K key) throws IOException;
+    }
+
+    // nominal size of a document, used to size the frequency sketch
+    private static final int NOMINAL_ENTRY_BYTES = 4096;
+
+    private final long maximumBytes;
+    private final LinkedHashMap<K, byte[]> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final FrequencySketch sketch;
+    private final ConcurrentHashMap<K, FutureTask<byte[]>> loading = new ConcurrentHashMap<>();
+    private long weightedSize;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    /**
+     * @param maximumBytes the maximum total length of the cached bodies
+     */
+    public ResponseCache(long maximumBytes) {
+        if (maximumBytes <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive: " + maximumBytes);
+        }
+        this.maximumBytes = maximumBytes;
+        this.sketch = new FrequencySketch((int) Math.min(Integer.MAX_VALUE, maximumBytes / NOMINAL_ENTRY_BYTES));
+    }
+
+    /**
+     * @param key the key
+     * @return the cached body, or null
+     */
+    public byte[] getIfPresent(K key) {
+        synchronized (this) {
+            sketch.increment(key);
+            byte[] body = entries.get(key);
+            if (body != null) {
+                hits.incrementAndGet();
+            }
+            return body;
+        }
+    }
+
+    /**
+     * Get the body for the key, loading it if it is not in the cache.  If 
+     * another thread is already loading the key, wait for that result rather
+     * than loading it again.
+     * 
+     * @param key the key
+     * @param loader renders the body on a miss
+     * @return the body
+     * @throws IOException if the loader throws it
+     */
+    public byte[] get(final K key, final Loader<K> loader) throws IOException {
+        byte[] body = getIfPresent(key);
+        if (body != null) {
+            return body;
+        }
+        misses.incrementAndGet();
+        FutureTask<byte[]> task = new FutureTask<>(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                loads.incrementAndGet();
+                return loader.load(key);
+            }
+        });
+        FutureTask<byte[]> running = loading.putIfAbsent(key, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+                admit(key, getResult(task));
+            } finally {
+                loading.remove(key, task);
+            }
+        }
+        return getResult(running);
+    }
+
+    private byte[] getResult(FutureTask<byte[]> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /*
+     * Admit the body if there is room for it, or if it is more frequently
+     * requested than each of the least recently used entries which would
+     * be evicted to make room.  Nothing is evicted, and any previous body
+     * of the key is kept, unless the body is admitted.
+     */
+    private synchronized void admit(K key, byte[] body) {
+        long weight = body.length;
+        if (weight > maximumBytes) {
+            rejections.incrementAndGet();
+            return;
+        }
+        byte[] previous = entries.get(key);
+        long excess = weightedSize - (previous == null ? 0 : previous.length) + weight - maximumBytes;
+        List<K> victims = new ArrayList<>();
+        if (excess > 0) {
+            int candidateFrequency = sketch.frequency(key);
+            Iterator<Map.Entry<K, byte[]>> lru = entries.entrySet().iterator();
+            while (excess > 0 && lru.hasNext()) {
+                Map.Entry<K, byte[]> victim = lru.next();
+                if (victim.getKey().equals(key)) {
+                    continue;
+                }
+                if (candidateFrequency <= sketch.frequency(victim.getKey())) {
+                    rejections.incrementAndGet();
+                    return;
+                }
+                victims.add(victim.getKey());
+                excess -= victim.getValue().length;
+            }
+        }
+        for (K victim : victims) {
+            weightedSize -= entries.remove(victim).length;
+            evictions.incrementAndGet();
+        }
+        previous = entries.put(key, body);
+        weightedSize += weight - (previous == null ? 0 : previous.length);
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        weightedSize = 0;
+    }
+
+    public long getMaximumBytes() { return maximumBytes; }
+    public synchronized long getWeightedSize() { return weightedSize; }
+    public synchronized int size() { return entries.size(); }
+    /** @return the number of lookups which found a cached body */
+    public long getHitCount() { return hits.get(); }
+    /** @return the number of lookups which did not find a cached body */
+    public long getMissCount() { return misses.get(); }
+    /** @return the number of times a body was rendered; less than the misses when concurrent misses were coalesced */
+    public long getLoadCount() { return loads.get(); }
+    /** @return the number of entries evicted to make room for new entries */
+    public long getEvictionCount() { return evictions.get(); }
+    /** @return the number of rendered bodies which were not admitted to the cache */
+    public long getRejectionCount() { return rejections.get(); }
+
+    @Override
+    public String toString() {
+        return "ResponseCache[entries=" + size() + ", bytes=" + getWeightedSize() + "/" + maximumBytes
+                + ", hits=" + getHitCount() + ", misses=" + getMissCount() + ", loads=" + getLoadCount()
+                + ", evictions=" + getEvictionCount() + ", rejections=" + getRejectionCount() + "]";
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import org.mapml.MapMLPrinter;
+import org.mapml.exceptions.MapMLException;
+
+/**
+ * HTTP caching policy for a layer: strong entity tags derived from the 
+ * canonical request key and a hash of the layer's init-params, and 
+ * per-zoom Cache-Control max-age values.
+ * 
+ * The max-age init-param is a comma-separated list of zoom:seconds or
+ * minzoom-maxzoom:seconds entries, e.g. <code>0-12:86400,13-18:3600</code>;
+ * a bare number of seconds applies to every zoom level.  Zoom levels 
+ * that are not listed get no Cache-Control header.
+ */
+public class ResponsePolicy {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final String BUILD_PROPERTIES = "/org/mapml/build.properties";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final long configHash;
+    private final int defaultMaxAge;
+    private final int[] maxAgeByZoom;
+    private final String[] cacheControlByZoom;
+    private final String defaultCacheControl;
+
+    /**
+     * @param configHash hash of the layer configuration, see {@link #hashConfig(Map)}
+     * @param maxAge the max-age policy, or null for no Cache-Control header
+     */
+    public ResponsePolicy(long configHash, String maxAge) {
+        this.configHash = configHash;
+        int all = -1;
+        int[] byZoom = new int[0];
+        if (maxAge != null && !maxAge.trim().isEmpty()) {
+            for (String entry : maxAge.split(",")) {
+                entry = entry.trim();
+                int colon = entry.indexOf(':');
+                if (colon < 0) {
+                    all = parseSeconds(entry);
+                    continue;
+                }
+                String zooms = entry.substring(0, colon).trim();
+                int seconds = parseSeconds(entry.substring(colon + 1).trim());
+                int dash = zooms.indexOf('-');
+                int from = Integer.parseInt((dash < 0 ? zooms : zooms.substring(0, dash)).trim());
+                int to = dash < 0 ? from : Integer.parseInt(zooms.substring(dash + 1).trim());
+                if (from < 0 || to < from) {
+                    throw new IllegalArgumentException("Invalid zoom range in max-age policy: " + entry);
+                }
+                if (to >= byZoom.length) {
+                    int length = byZoom.length;
+                    byZoom = Arrays.copyOf(byZoom, to + 1);
+                    Arrays.fill(byZoom, length, byZoom.length, -1);
+                }
+                Arrays.fill(byZoom, from, to + 1, seconds);
+            }
+        }
+        this.defaultMaxAge = all;
+        this.maxAgeByZoom = byZoom;
+        this.defaultCacheControl = all < 0 ? null : "public, max-age=" + all;
+        this.cacheControlByZoom = new String[byZoom.length];
+        for (int z = 0; z < byZoom.length; z++) {
+            if (byZoom[z] < 0) {
+                byZoom[z] = all;
+            }
+            cacheControlByZoom[z] = byZoom[z] < 0 ? null : "public, max-age=" + byZoom[z];
+        }
+    }
+
+    private static int parseSeconds(String seconds) {
+        int value = Integer.parseInt(seconds);
+        if (value < 0) {
+            throw new IllegalArgumentException("Invalid max-age: " + seconds);
+        }
+        return value;
+    }
+
+    /**
+     * @param zoom the requested zoom level
+     * @return the max-age in seconds, or -1 if none is configured
+     */
+    public int getMaxAge(int zoom) {
+        return zoom >= 0 && zoom < maxAgeByZoom.length ? maxAgeByZoom[zoom] : defaultMaxAge;
+    }
+
+    /**
+     * @param zoom the requested zoom level
+     * @return the Cache-Control header value, or null if none is configured
+     */
+    public String getCacheControl(int zoom) {
+        return zoom >= 0 && zoom < cacheControlByZoom.length ? cacheControlByZoom[zoom] : defaultCacheControl;
+    }
+
+    public long getConfigHash() {
+        return configHash;
+    }
+
+    /**
+     * @param key the canonical key of the request
+     * @return a quoted strong entity tag for the response to the request
+     */
+    public String getETag(String key) {
+        long hash = fnv(configHash, key);
+        char[] tag = new char[18];
+        tag[0] = '"';
+        for (int i = 16; i > 0; i--) {
+            tag[i] = HEX[(int) hash & 15];
+            hash >>>= 4;
+        }
+        tag[17] = '"';
+        return new String(tag);
+    }
+
+    /**
+     * Weak comparison of an entity tag with an If-None-Match header, as 
+     * RFC 7232 requires for If-None-Match.
+     * 
+     * @param ifNoneMatch the header value, may be null
+     * @param etag the quoted entity tag of the current representation
+     * @return true if the client's copy is current
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        int length = ifNoneMatch.length();
+        int i = 0;
+        while (i < length) {
+            char c = ifNoneMatch.charAt(i);
+            if (c == ' ' || c == '\t' || c == ',') {
+                i++;
+            } else if (c == '*') {
+                return true;
+            } else {
+                if (ifNoneMatch.startsWith("W/", i)) {
+                    i += 2;
+                }
+                int end = ifNoneMatch.indexOf(',', i);
+                if (end < 0) {
+                    end = length;
+                }
+                int tagEnd = end;
+                while (tagEnd > i && ifNoneMatch.charAt(tagEnd - 1) <= ' ') {
+                    tagEnd--;
+                }
+                if (tagEnd - i == etag.length() && ifNoneMatch.regionMatches(i, etag, 0, etag.length())) {
+                    return true;
+                }
+                i = end;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hash the layer's parameters (servlet init-params), sorted by name, 
+     * together with the build id, so that entity tags change whenever the 
+     * layer configuration or the code which renders documents does.
+     * 
+     * @param parameters the layer configuration
+     * @return the hash
+     * @throws MapMLException if the build id is missing, as when the 
+     * classes were not built by Maven
+     */
+    public static long hashConfig(Map<String, String> parameters) {
+        long hash = FNV_OFFSET_BASIS;
+        for (Map.Entry<String, String> parameter : new TreeMap<>(parameters).entrySet()) {
+            hash = fnv(hash, parameter.getKey());
+            hash = fnv(hash, "=");
+            hash = fnv(hash, parameter.getValue());
+            hash = fnv(hash, "\n");
+        }
+        return fnv(hash, getBuildId());
+    }
+
+    /**
+     * @return the id of the build, from the build.properties resource 
+     * which Maven fills in
+     * @throws MapMLException if the resource is missing or was not filled in
+     */
+    public static String getBuildId() {
+        String id = null;
+        try (InputStream in = MapMLPrinter.class.getResourceAsStream(BUILD_PROPERTIES)) {
+            if (in != null) {
+                Properties properties = new Properties();
+                properties.load(in);
+                id = properties.getProperty("build.id");
+            }
+        } catch (IOException e) {
+            throw new MapMLException("Error reading " + BUILD_PROPERTIES, e);
+        }
+        if (id == null || id.trim().isEmpty() || id.contains("${")) {
+            throw new MapMLException("No build id in " + BUILD_PROPERTIES + ", which the Maven build fills in");
+        }
+        return id.trim();
+    }
+
+    private static long fnv(long hash, String s) {
+        if (s == null) {
+            return hash * FNV_PRIME;
+        }
+        // FNV-1a over the UTF-16 code units, low byte first
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return hash;
+    }
+}
@@ -59,4 +59,8 @@ public class BadRequestException extends MapMLException {
         super(message, cause);
     }
     
+    protected BadRequestException(String message, boolean writableStackTrace) {
+        super(message, writableStackTrace);
+    }
+    
 }
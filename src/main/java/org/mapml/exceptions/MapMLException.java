@@ -58,4 +58,12 @@ public class MapMLException extends RuntimeException {
         super(message, cause);
     }
 
+    /**
+     * For exceptions which are thrown often and carry no useful stack trace,
+     * e.g. preallocated request validation errors.
+     */
+    protected MapMLException(String message, boolean writableStackTrace) {
+        super(message, null, false, writableStackTrace);
+    }
+
 }
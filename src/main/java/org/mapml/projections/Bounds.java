@@ -57,6 +57,14 @@ public class Bounds {
     this.extend(b);
   }
   
+  /**
+   * Create bounds from primitive ordinates, in either order.
+   */
+  public Bounds(double x1, double y1, double x2, double y2) {
+    this.min = new Point(Math.min(x1, x2), Math.min(y1, y2));
+    this.max = new Point(Math.max(x1, x2), Math.max(y1, y2));
+  }
+  
   public Bounds(String bounds) {
         List<Double> ord;
         try {
@@ -122,6 +130,34 @@ public class Bounds {
       return new Point((this.min.x + this.max.x)/2,(this.min.y + this.max.y)/2);
   }
   
+  public double getMinX() {
+    return this.min.x;
+  }
+  
+  public double getMinY() {
+    return this.min.y;
+  }
+  
+  public double getMaxX() {
+    return this.max.x;
+  }
+  
+  public double getMaxY() {
+    return this.max.y;
+  }
+  
+  /**
+   * Copy the ordinates into a caller-provided array.
+   * @param dest receives xmin,ymin,xmax,ymax
+   * @param offset the index in dest of xmin
+   */
+  public void toArray(double[] dest, int offset) {
+    dest[offset] = this.min.x;
+    dest[offset + 1] = this.min.y;
+    dest[offset + 2] = this.max.x;
+    dest[offset + 3] = this.max.y;
+  }
+  
   public Point getMin() {
     return this.min;
   }
@@ -130,15 +166,13 @@ public class Bounds {
     return this.max;
   }
   public boolean intersects(Bounds other) {
-    
-      Point min = this.min;
-      Point max = this.max;
-      Point min2 = other.min;
-      Point max2 = other.max;
-      boolean xIntersects = (max2.x >= min.x) && (min2.x <= max.x);
-      boolean yIntersects = (max2.y >= min.y) && (min2.y <= max.y);
+      return intersects(other.min.x, other.min.y, other.max.x, other.max.y);
+  }
+  
+  public boolean intersects(double xmin, double ymin, double xmax, double ymax) {
+      boolean xIntersects = (xmax >= this.min.x) && (xmin <= this.max.x);
+      boolean yIntersects = (ymax >= this.min.y) && (ymin <= this.max.y);
       return xIntersects && yIntersects;
-    
   }
   
 }
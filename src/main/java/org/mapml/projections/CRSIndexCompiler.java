@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml.projections;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.osgeo.proj4j.io.Proj4FileReader;
+
+/**
+ * Build-time compiler of the CRS definition index read by {@link CRSRegistry}.
+ * Looks up each named definition in the proj4 /nad files on the class path
+ * and writes its parameters, pre-parsed by proj4j, to a binary file.
+ * <p>
+ * Usage: CRSIndexCompiler output-file name...
+ * e.g. CRSIndexCompiler target/classes/org/mapml/projections/crs.idx EPSG:3857 EPSG:3978
+ * <p>
+ * Format: int magic, int version, int count, then per definition the UTF 
+ * name, an unsigned short parameter count and the UTF parameters.
+ */
+public class CRSIndexCompiler {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Usage: CRSIndexCompiler output-file name...");
+        }
+        List<String> names = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            // allow the names to be given as one comma or whitespace-separated argument
+            for (String name : args[i].split("[,\\s]+")) {
+                if (!name.isEmpty()) {
+                    names.add(CRSRegistry.normalize(name));
+                }
+            }
+        }
+        File output = new File(args[0]);
+        if (output.getParentFile() != null) {
+            output.getParentFile().mkdirs();
+        }
+        compile(names, output);
+    }
+
+    static void compile(List<String> names, File output) throws IOException {
+        Proj4FileReader reader = new Proj4FileReader();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output)))) {
+            out.writeInt(CRSRegistry.MAGIC);
+            out.writeInt(CRSRegistry.VERSION);
+            out.writeInt(names.size());
+            for (String name : names) {
+                String[] parameters = reader.getParameters(name);
+                if (parameters == null) {
+                    throw new IOException("No proj4 definition found for " + name);
+                }
+                out.writeUTF(name);
+                out.writeShort(parameters.length);
+                for (String parameter : parameters) {
+                    out.writeUTF(parameter);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml.projections;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.osgeo.proj4j.CRSFactory;
+import org.osgeo.proj4j.CoordinateReferenceSystem;
+
+/**
+ * Process-wide registry of proj4j coordinate reference systems by name, 
+ * e.g. EPSG:3978.
+ * 
+ * proj4j resolves a name by scanning the text definition files in /nad, 
+ * which is slow (the epsg file alone is over 8000 lines).  The definitions 
+ * the tiled CRSs need are compiled into a binary index of pre-parsed 
+ * parameters at build time by {@link CRSIndexCompiler}, so resolving them 
+ * is a hash lookup, and each CRS is created only once per process however 
+ * many layers use it.  Names which are not in the index fall back to 
+ * proj4j's own lookup.
+ */
+public final class CRSRegistry {
+    private static final Logger log = LogManager.getLogger();
+    static final String INDEX_RESOURCE = "crs.idx";
+    static final int MAGIC = 0x43525349; // CRSI
+    static final int VERSION = 1;
+
+    private static final CRSFactory factory = new CRSFactory();
+    private static final ConcurrentHashMap<String, CoordinateReferenceSystem> crs = new ConcurrentHashMap<>();
+
+    private CRSRegistry() {}
+
+    // initialization on demand: the index is read on first use
+    private static class Index {
+        static final Map<String, String[]> PARAMETERS = read();
+    }
+
+    /**
+     * @param name an authority:code name, e.g. EPSG:3857
+     * @return the coordinate reference system, shared by all callers
+     */
+    public static CoordinateReferenceSystem get(String name) {
+        CoordinateReferenceSystem result = crs.get(name);
+        if (result == null) {
+            result = create(name);
+            CoordinateReferenceSystem existing = crs.putIfAbsent(name, result);
+            if (existing != null) {
+                result = existing;
+            }
+        }
+        return result;
+    }
+
+    private static CoordinateReferenceSystem create(String name) {
+        String[] parameters = getIndexedParameters(name);
+        if (parameters != null) {
+            return factory.createFromParameters(name, parameters);
+        }
+        return factory.createFromName(name);
+    }
+
+    /**
+     * @param name an authority:code name
+     * @return the pre-parsed proj4 parameters of the name, or null if it is not indexed
+     */
+    static String[] getIndexedParameters(String name) {
+        String[] parameters = Index.PARAMETERS.get(normalize(name));
+        return parameters == null ? null : parameters.clone();
+    }
+
+    static String normalize(String name) {
+        int colon = name.indexOf(':');
+        return colon < 0 ? name : name.substring(0, colon).toUpperCase() + name.substring(colon);
+    }
+
+    private static Map<String, String[]> read() {
+        Map<String, String[]> parameters = new HashMap<>();
+        InputStream in = CRSRegistry.class.getResourceAsStream(INDEX_RESOURCE);
+        if (in == null) {
+            log.warn("CRS definition index " + INDEX_RESOURCE + " not found, definitions will be read from /nad");
+            return parameters;
+        }
+        try (DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+            if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+                throw new IOException("Not a version " + VERSION + " CRS definition index");
+            }
+            int count = data.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = data.readUTF();
+                String[] values = new String[data.readUnsignedShort()];
+                for (int j = 0; j < values.length; j++) {
+                    values[j] = data.readUTF();
+                }
+                parameters.put(name, values);
+            }
+        } catch (IOException e) {
+            log.error("Error reading CRS definition index " + INDEX_RESOURCE + ": " + e.getMessage());
+            parameters.clear();
+        }
+        return parameters;
+    }
+}
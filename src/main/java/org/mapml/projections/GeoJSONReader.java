@@ -0,0 +1,313 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml.projections;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.mapml.exceptions.MapMLException;
+
+/**
+ * Reads the polygons of a GeoJSON (RFC 7946) geometry, feature or feature 
+ * collection, which the version of JTS on which we depend cannot do.  Only
+ * Polygon and MultiPolygon geometries, and collections of them, are read.
+ */
+final class GeoJSONReader {
+    private final String json;
+    private final GeometryFactory factory;
+    private int pos;
+
+    private GeoJSONReader(String json, GeometryFactory factory) {
+        this.json = json;
+        this.factory = factory;
+    }
+
+    /**
+     * @param json the GeoJSON text
+     * @param factory the factory of the geometry
+     * @return the polygons of the GeoJSON
+     * @throws MapMLException if the text is not GeoJSON of polygons
+     */
+    static Geometry read(String json, GeometryFactory factory) {
+        GeoJSONReader reader = new GeoJSONReader(json, factory);
+        Object value = reader.value();
+        reader.skipWhitespace();
+        if (reader.pos != json.length()) {
+            throw reader.error("unexpected content");
+        }
+        return reader.geometry(value);
+    }
+
+    private Geometry geometry(Object value) {
+        Map<?, ?> object = object(value);
+        String type = String.valueOf(object.get("type"));
+        switch (type) {
+            case "FeatureCollection":
+                List<Geometry> features = new ArrayList<>();
+                for (Object feature : array(object.get("features"))) {
+                    features.add(geometry(feature));
+                }
+                return factory.buildGeometry(features);
+            case "Feature":
+                Object geometry = object.get("geometry");
+                return geometry == null ? factory.createGeometryCollection(null) : geometry(geometry);
+            case "GeometryCollection":
+                List<Geometry> geometries = new ArrayList<>();
+                for (Object g : array(object.get("geometries"))) {
+                    geometries.add(geometry(g));
+                }
+                return factory.buildGeometry(geometries);
+            case "Polygon":
+                return polygon(object.get("coordinates"));
+            case "MultiPolygon":
+                List<?> coordinates = array(object.get("coordinates"));
+                Polygon[] polygons = new Polygon[coordinates.size()];
+                for (int i = 0; i < polygons.length; i++) {
+                    polygons[i] = polygon(coordinates.get(i));
+                }
+                return factory.createMultiPolygon(polygons);
+            default:
+                throw new MapMLException("Unsupported GeoJSON type: " + type);
+        }
+    }
+
+    private Polygon polygon(Object coordinates) {
+        List<?> rings = array(coordinates);
+        if (rings.isEmpty()) {
+            return factory.createPolygon(null, null);
+        }
+        LinearRing[] holes = new LinearRing[rings.size() - 1];
+        for (int i = 0; i < holes.length; i++) {
+            holes[i] = ring(rings.get(i + 1));
+        }
+        return factory.createPolygon(ring(rings.get(0)), holes);
+    }
+
+    private LinearRing ring(Object positions) {
+        List<?> list = array(positions);
+        List<Coordinate> ring = new ArrayList<>(list.size() + 1);
+        for (Object position : list) {
+            List<?> p = array(position);
+            if (p.size() < 2) {
+                throw new MapMLException("GeoJSON position must have 2 ordinates: " + p);
+            }
+            ring.add(new Coordinate(number(p.get(0)), number(p.get(1))));
+        }
+        if (!ring.isEmpty() && !ring.get(0).equals2D(ring.get(ring.size() - 1))) {
+            ring.add(new Coordinate(ring.get(0)));
+        }
+        return factory.createLinearRing(ring.toArray(new Coordinate[ring.size()]));
+    }
+
+    private static Map<?, ?> object(Object value) {
+        if (!(value instanceof Map)) {
+            throw new MapMLException("GeoJSON object expected: " + value);
+        }
+        return (Map<?, ?>) value;
+    }
+
+    private static List<?> array(Object value) {
+        if (!(value instanceof List)) {
+            throw new MapMLException("GeoJSON array expected: " + value);
+        }
+        return (List<?>) value;
+    }
+
+    private static double number(Object value) {
+        if (!(value instanceof Double)) {
+            throw new MapMLException("GeoJSON number expected: " + value);
+        }
+        return (Double) value;
+    }
+
+    // JSON values: Map, List, String, Double, Boolean or null
+
+    private Object value() {
+        skipWhitespace();
+        if (pos >= json.length()) {
+            throw error("unexpected end");
+        }
+        char c = json.charAt(pos);
+        switch (c) {
+            case '{':
+                return objectValue();
+            case '[':
+                return arrayValue();
+            case '"':
+                return stringValue();
+            case 't':
+                return literal("true", Boolean.TRUE);
+            case 'f':
+                return literal("false", Boolean.FALSE);
+            case 'n':
+                return literal("null", null);
+            default:
+                return numberValue();
+        }
+    }
+
+    private Map<String, Object> objectValue() {
+        Map<String, Object> object = new LinkedHashMap<>();
+        pos++;
+        skipWhitespace();
+        if (consume('}')) {
+            return object;
+        }
+        do {
+            skipWhitespace();
+            if (pos >= json.length() || json.charAt(pos) != '"') {
+                throw error("member name expected");
+            }
+            String name = stringValue();
+            skipWhitespace();
+            if (!consume(':')) {
+                throw error("':' expected");
+            }
+            object.put(name, value());
+            skipWhitespace();
+        } while (consume(','));
+        if (!consume('}')) {
+            throw error("'}' expected");
+        }
+        return object;
+    }
+
+    private List<Object> arrayValue() {
+        List<Object> array = new ArrayList<>();
+        pos++;
+        skipWhitespace();
+        if (consume(']')) {
+            return array;
+        }
+        do {
+            array.add(value());
+            skipWhitespace();
+        } while (consume(','));
+        if (!consume(']')) {
+            throw error("']' expected");
+        }
+        return array;
+    }
+
+    private String stringValue() {
+        StringBuilder s = new StringBuilder();
+        pos++;
+        while (pos < json.length()) {
+            char c = json.charAt(pos++);
+            if (c == '"') {
+                return s.toString();
+            }
+            if (c != '\\') {
+                s.append(c);
+                continue;
+            }
+            if (pos >= json.length()) {
+                break;
+            }
+            char e = json.charAt(pos++);
+            switch (e) {
+                case 'b': s.append('\b'); break;
+                case 'f': s.append('\f'); break;
+                case 'n': s.append('\n'); break;
+                case 'r': s.append('\r'); break;
+                case 't': s.append('\t'); break;
+                case 'u':
+                    if (pos + 4 > json.length()) {
+                        throw error("bad unicode escape");
+                    }
+                    try {
+                        s.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+                    } catch (NumberFormatException ex) {
+                        throw error("bad unicode escape");
+                    }
+                    pos += 4;
+                    break;
+                default: s.append(e);
+            }
+        }
+        throw error("unterminated string");
+    }
+
+    private Double numberValue() {
+        int begin = pos;
+        while (pos < json.length() && "+-0123456789.eE".indexOf(json.charAt(pos)) >= 0) {
+            pos++;
+        }
+        try {
+            return Double.valueOf(json.substring(begin, pos));
+        } catch (NumberFormatException e) {
+            pos = begin;
+            throw error("value expected");
+        }
+    }
+
+    private Object literal(String literal, Object value) {
+        if (!json.startsWith(literal, pos)) {
+            throw error("value expected");
+        }
+        pos += literal.length();
+        return value;
+    }
+
+    private boolean consume(char c) {
+        if (pos < json.length() && json.charAt(pos) == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipWhitespace() {
+        while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private MapMLException error(String message) {
+        return new MapMLException("Error reading GeoJSON at " + pos + ": " + message);
+    }
+}
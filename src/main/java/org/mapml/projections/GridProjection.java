@@ -0,0 +1,437 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml.projections;
+
+/**
+ * A projection which approximates proj4j, in both directions, by interpolation
+ * in grids of exactly projected points, for projections such as Lambert 
+ * conformal conic and polar stereographic whose formulas are costly.
+ * 
+ * The inverse is interpolated over the bounds of a tiled CRS, and the forward
+ * projection over the longitudes and latitudes of those bounds.  Each grid is
+ * a square array of cells, and each cell is subdivided until bicubic 
+ * (Catmull-Rom) interpolation agrees with proj4j to within the maximum error,
+ * measured in projected units between the points of the subdivision.  Cells 
+ * which do not, e.g. those about a pole, or across the cut of a conic 
+ * projection, and points outside the grids are projected exactly.
+ * 
+ * Instances are immutable, and safe for concurrent use.
+ */
+final class GridProjection extends Projection {
+
+    /** the number of cells along each side of a grid */
+    static final int CELLS = 64;
+    /** the maximum number of subdivisions along each side of a cell */
+    static final int MAX_SUBDIVISION = 16;
+
+    private final double maxError;
+    // lng,lat to x,y
+    private final Grid forward;
+    // x,y to lng,lat
+    private final Grid inverse;
+
+    /**
+     * @param proj4code the code of the CRS, e.g. EPSG:3978
+     * @param bounds the projected bounds over which to interpolate
+     * @param maxError the maximum error of an interpolated point, in 
+     * projected units (metres)
+     */
+    GridProjection(String proj4code, Bounds bounds, double maxError) {
+        super(proj4code);
+        if (!(maxError > 0)) {
+            throw new IllegalArgumentException("The maximum error must be positive: " + maxError);
+        }
+        this.maxError = maxError;
+        this.inverse = new Grid(false, bounds.getMinX(), bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY());
+        double[] extent = geographicExtent(bounds);
+        this.forward = new Grid(true, extent[0], extent[1], extent[2], extent[3]);
+    }
+
+    /**
+     * @return the maximum error of an interpolated point, in projected units
+     */
+    double getMaxError() {
+        return maxError;
+    }
+
+    /**
+     * @return the largest error measured while building the grids, in 
+     * projected units; no more than the maximum error
+     */
+    double getMeasuredError() {
+        return Math.max(forward.measuredError, inverse.measuredError);
+    }
+
+    /**
+     * @param forward true for the forward projection, false for the inverse
+     * @return the fraction of the cells of a grid which are projected exactly
+     */
+    double getExactFraction(boolean forward) {
+        Grid grid = forward ? this.forward : this.inverse;
+        int exact = 0;
+        for (Patch patch : grid.patches) {
+            if (patch == null) {
+                exact++;
+            }
+        }
+        return (double) exact / grid.patches.length;
+    }
+
+    /**
+     * The longitudes and latitudes of projected bounds, which extend to 
+     * all longitudes and to the pole if the bounds contain a pole.
+     * @return west,south,east,north
+     */
+    private double[] geographicExtent(Bounds bounds) {
+        double[] extent = {180D, 90D, -180D, -90D};
+        double[] coords = new double[2];
+        for (int j = 0; j <= CELLS; j++) {
+            for (int i = 0; i <= CELLS; i++) {
+                coords[0] = inverse.xmin + i * inverse.dx;
+                coords[1] = inverse.ymin + j * inverse.dy;
+                if (exact(coords, false)) {
+                    extent[0] = Math.min(extent[0], coords[0]);
+                    extent[1] = Math.min(extent[1], coords[1]);
+                    extent[2] = Math.max(extent[2], coords[0]);
+                    extent[3] = Math.max(extent[3], coords[1]);
+                }
+            }
+        }
+        for (double pole = -90D; pole <= 90D; pole += 180D) {
+            coords[0] = 0;
+            coords[1] = pole;
+            if (exact(coords, true) && coords[0] >= bounds.getMinX() && coords[0] <= bounds.getMaxX()
+                    && coords[1] >= bounds.getMinY() && coords[1] <= bounds.getMaxY()) {
+                extent[0] = -180D;
+                extent[2] = 180D;
+                extent[pole < 0 ? 1 : 3] = pole;
+            }
+        }
+        if (!(extent[0] < extent[2] && extent[1] < extent[3])) {
+            throw new IllegalArgumentException("No points of the bounds can be unprojected: " 
+                    + bounds.getMinX() + "," + bounds.getMinY() + "," + bounds.getMaxX() + "," + bounds.getMaxY());
+        }
+        return extent;
+    }
+
+    /**
+     * Project a point exactly, in place.
+     * @param coords the point, replaced by its projection
+     * @param forward true to project, false to unproject
+     * @return false if the point cannot be projected
+     */
+    private boolean exact(double[] coords, boolean forward) {
+        try {
+            if (forward) {
+                super.project(coords, 0, 1);
+            } else {
+                super.unproject(coords, 0, 1);
+            }
+        } catch (RuntimeException e) {
+            // proj4j throws for some points e.g. beyond a pole
+            return false;
+        }
+        return !Double.isNaN(coords[0]) && !Double.isInfinite(coords[0]) 
+                && !Double.isNaN(coords[1]) && !Double.isInfinite(coords[1]);
+    }
+
+    @Override
+    public Point project(LatLng latlng) {
+        double[] coords = {latlng.lng, latlng.lat};
+        if (!forward.interpolate(coords[0], coords[1], coords, 0)) {
+            return super.project(latlng);
+        }
+        return new Point(coords[0], coords[1]);
+    }
+
+    @Override
+    public LatLng unproject(Point p) {
+        double[] coords = {p.x, p.y};
+        if (!inverse.interpolate(coords[0], coords[1], coords, 0)) {
+            return super.unproject(p);
+        }
+        return new LatLng(coords[1], coords[0]);
+    }
+
+    @Override
+    public void project(double[] coords, int offset, int count) {
+        for (int i = 0, c = offset; i < count; i++, c += 2) {
+            if (!forward.interpolate(coords[c], coords[c + 1], coords, c)) {
+                super.project(coords, c, 1);
+            }
+        }
+    }
+
+    @Override
+    public void project(double[] x, double[] y, int offset, int count) {
+        transform(forward, x, y, offset, count);
+    }
+
+    @Override
+    public void unproject(double[] coords, int offset, int count) {
+        for (int i = 0, c = offset; i < count; i++, c += 2) {
+            if (!inverse.interpolate(coords[c], coords[c + 1], coords, c)) {
+                super.unproject(coords, c, 1);
+            }
+        }
+    }
+
+    @Override
+    public void unproject(double[] x, double[] y, int offset, int count) {
+        transform(inverse, x, y, offset, count);
+    }
+
+    private void transform(Grid grid, double[] x, double[] y, int offset, int count) {
+        double[] coords = new double[2];
+        for (int i = offset; i < offset + count; i++) {
+            if (grid.interpolate(x[i], y[i], coords, 0)) {
+                x[i] = coords[0];
+                y[i] = coords[1];
+            } else if (grid == forward) {
+                super.project(x, y, i, 1);
+            } else {
+                super.unproject(x, y, i, 1);
+            }
+        }
+    }
+
+    /**
+     * @return v1 + t(v2 - v0)/2 + t^2(2v0 - 5v1 + 4v2 - v3)/2 
+     * + t^3(3(v1 - v2) + v3 - v0)/2, the Catmull-Rom spline through v1 and 
+     * v2 at t in [0,1]
+     */
+    private static double catmullRom(double v0, double v1, double v2, double v3, double t) {
+        return v1 + 0.5 * t * (v2 - v0 + t * (2 * v0 - 5 * v1 + 4 * v2 - v3 + t * (3 * (v1 - v2) + v3 - v0)));
+    }
+
+    /**
+     * @return a longitude in [-180,180]
+     */
+    private static double normaliseLongitude(double lng) {
+        return lng > 180D ? lng - 360D : lng < -180D ? lng + 360D : lng;
+    }
+
+    /**
+     * The interpolation of one direction of the projection.
+     */
+    private final class Grid {
+        // true for lng,lat to x,y; false for x,y to lng,lat
+        private final boolean forward;
+        private final double xmin, ymin, dx, dy;
+        // by row then column; null for cells projected exactly
+        private final Patch[] patches = new Patch[CELLS * CELLS];
+        private double measuredError;
+
+        Grid(boolean forward, double xmin, double ymin, double xmax, double ymax) {
+            this.forward = forward;
+            this.xmin = xmin;
+            this.ymin = ymin;
+            this.dx = (xmax - xmin) / CELLS;
+            this.dy = (ymax - ymin) / CELLS;
+            for (int j = 0; j < CELLS; j++) {
+                for (int i = 0; i < CELLS; i++) {
+                    patches[j * CELLS + i] = patch(i, j);
+                }
+            }
+        }
+
+        /**
+         * Subdivide a cell until it is accurate enough, guided by the error
+         * of bicubic interpolation being of the order of the cube of the 
+         * interval.
+         * @return the patch of the cell, or null if it is projected exactly
+         */
+        private Patch patch(int i, int j) {
+            int k = 1;
+            while (true) {
+                Patch patch = nodes(i, j, k);
+                if (patch == null) {
+                    return null;
+                }
+                double error = error(patch, i, j);
+                if (error <= maxError) {
+                    measuredError = Math.max(measuredError, error);
+                    return patch;
+                }
+                if (k == MAX_SUBDIVISION || Double.isNaN(error)) {
+                    return null;
+                }
+                k = Math.min(MAX_SUBDIVISION, Math.max(2 * k, (int) Math.ceil(k * Math.cbrt(2 * error / maxError))));
+            }
+        }
+
+        /**
+         * Project the nodes of a cell subdivided k times, with a margin of 
+         * one node about it for the bicubic interpolation of its edges.
+         * @return the patch, or null if a node cannot be projected
+         */
+        private Patch nodes(int i, int j, int k) {
+            int width = k + 3;
+            double[] nodes = new double[2 * width * width];
+            double[] coords = new double[2];
+            for (int r = 0; r < width; r++) {
+                for (int c = 0; c < width; c++) {
+                    coords[0] = xmin + (i + (c - 1) / (double) k) * dx;
+                    coords[1] = ymin + (j + (r - 1) / (double) k) * dy;
+                    // there are no latitudes past a pole to interpolate from
+                    if ((forward && Math.abs(coords[1]) > 90D) || !exact(coords, forward)) {
+                        return null;
+                    }
+                    nodes[2 * (r * width + c)] = coords[0];
+                    nodes[2 * (r * width + c) + 1] = coords[1];
+                }
+            }
+            if (!forward) {
+                // make longitudes continuous across the antimeridian, from 
+                // the node at the lower left corner of the cell
+                double reference = nodes[2 * (width + 1)];
+                for (int n = 0; n < nodes.length; n += 2) {
+                    if (nodes[n] - reference > 180D) {
+                        nodes[n] -= 360D;
+                    } else if (reference - nodes[n] > 180D) {
+                        nodes[n] += 360D;
+                    }
+                }
+            }
+            return new Patch(k, nodes);
+        }
+
+        /**
+         * @return the largest distance, in projected units, between the 
+         * exact projection and the interpolation of the points a quarter and
+         * three quarters of the way between the nodes of a patch, about where
+         * the error of a Catmull-Rom spline, which is in proportion to 
+         * t(2t-1)(t-1), is greatest; or NaN if a point cannot be projected
+         */
+        private double error(Patch patch, int i, int j) {
+            int steps = 4 * patch.k;
+            double error = 0;
+            double[] interpolated = new double[2];
+            double[] coords = new double[2];
+            for (int b = 1; b < steps; b += 2) {
+                for (int a = 1; a < steps; a += 2) {
+                    double u = a / (double) steps, v = b / (double) steps;
+                    double x = xmin + (i + u) * dx, y = ymin + (j + v) * dy;
+                    patch.interpolate(u, v, interpolated, 0);
+                    if (forward) {
+                        // the projection of the point, against its interpolation
+                        coords[0] = x;
+                        coords[1] = y;
+                    } else {
+                        // the projection of the interpolation, against the point
+                        coords[0] = normaliseLongitude(interpolated[0]);
+                        coords[1] = interpolated[1];
+                        interpolated[0] = x;
+                        interpolated[1] = y;
+                    }
+                    if (!exact(coords, true)) {
+                        return Double.NaN;
+                    }
+                    error = Math.max(error, Math.hypot(coords[0] - interpolated[0], coords[1] - interpolated[1]));
+                }
+            }
+            return error;
+        }
+
+        /**
+         * @param dest receives the interpolated point, which may be x,y
+         * @return false if the point must be projected exactly
+         */
+        boolean interpolate(double x, double y, double[] dest, int offset) {
+            double fx = (x - xmin) / dx, fy = (y - ymin) / dy;
+            // false for NaN too
+            if (!(fx >= 0 && fx <= CELLS && fy >= 0 && fy <= CELLS)) {
+                return false;
+            }
+            int i = Math.min((int) fx, CELLS - 1), j = Math.min((int) fy, CELLS - 1);
+            Patch patch = patches[j * CELLS + i];
+            if (patch == null) {
+                return false;
+            }
+            patch.interpolate(fx - i, fy - j, dest, offset);
+            if (!forward) {
+                dest[offset] = normaliseLongitude(dest[offset]);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The exactly projected nodes of a cell subdivided k times along each 
+     * side, and a margin of one node about them.
+     */
+    private static final class Patch {
+        private final int k;
+        private final int width;
+        // interleaved projected pairs, by row then column
+        private final double[] nodes;
+
+        Patch(int k, double[] nodes) {
+            this.k = k;
+            this.width = k + 3;
+            this.nodes = nodes;
+        }
+
+        /**
+         * @param u the position across the cell, in [0,1]
+         * @param v the position up the cell, in [0,1]
+         * @param dest receives the interpolated pair
+         */
+        void interpolate(double u, double v, double[] dest, int offset) {
+            double s = u * k, t = v * k;
+            int c = Math.min((int) s, k - 1), r = Math.min((int) t, k - 1);
+            s -= c;
+            t -= r;
+            for (int component = 0; component < 2; component++) {
+                int n = 2 * (r * width + c) + component;
+                double v0 = row(n, s);
+                double v1 = row(n + 2 * width, s);
+                double v2 = row(n + 4 * width, s);
+                double v3 = row(n + 6 * width, s);
+                dest[offset + component] = catmullRom(v0, v1, v2, v3, t);
+            }
+        }
+
+        private double row(int n, double s) {
+            return catmullRom(nodes[n], nodes[n + 2], nodes[n + 4], nodes[n + 6], s);
+        }
+    }
+}
@@ -40,34 +40,185 @@
  */
 package org.mapml.projections;
 
-import org.osgeo.proj4j.CRSFactory;
 import org.osgeo.proj4j.CoordinateReferenceSystem;
 import org.osgeo.proj4j.ProjCoordinate;
+import org.osgeo.proj4j.proj.MercatorProjection;
 
 /* 
 * The Projection class supplies proj4j projection services for known projections
+* 
+* Instances are safe for concurrent use by many request threads: the proj4j 
+* projection is not modified after construction, and each thread projects
+* through its own scratch coordinates.  The batch methods transform arrays of
+* coordinates in place without allocating per point; coordinates are always 
+* ordered x,y i.e. longitude,latitude in degrees for geographic coordinates.
+* 
+* Spherical (web) mercator, e.g. EPSG:3857, is computed with its closed form
+* formulas rather than by proj4j, unless the projection is created exact.
 */
 public class Projection {
   
   private final CoordinateReferenceSystem proj4CRS;
-  private static final CRSFactory factory = new CRSFactory();
+  private final org.osgeo.proj4j.proj.Projection projection;
+  // per-thread source and destination coordinates
+  private static final ThreadLocal<ProjCoordinate[]> SCRATCH = new ThreadLocal<ProjCoordinate[]>() {
+      @Override
+      protected ProjCoordinate[] initialValue() {
+          return new ProjCoordinate[] {new ProjCoordinate(), new ProjCoordinate()};
+      }
+  };
 
+  // the radius of the sphere of a spherical mercator projection computed 
+  // in closed form, or 0 if the projection is computed by proj4j
+  private final double radius;
   
   public Projection(String proj4code) {
-      this.proj4CRS = factory.createFromName(proj4code);
+      this(proj4code, false);
+  }
+  
+  /**
+   * @param proj4code the code of the CRS, e.g. EPSG:3857
+   * @param exact true to always compute the projection with proj4j
+   */
+  public Projection(String proj4code, boolean exact) {
+      this.proj4CRS = CRSRegistry.get(proj4code);
+      this.projection = proj4CRS.getProjection();
+      this.radius = exact ? 0 : sphericalMercatorRadius(projection);
+  }
+  
+  /**
+   * @return the radius of the sphere, if the projection is a spherical 
+   * mercator on the equator and the prime meridian, in metres, else 0
+   */
+  private static double sphericalMercatorRadius(org.osgeo.proj4j.proj.Projection p) {
+      if (p.getClass() == MercatorProjection.class && p.getEllipsoid().getEccentricitySquared() == 0
+              && p.getProjectionLongitude() == 0 && p.getTrueScaleLatitude() == 0 
+              && p.getScaleFactor() == 1 && p.getFromMetres() == 1 
+              && p.getFalseEasting() == 0 && p.getFalseNorthing() == 0) {
+          return p.getEquatorRadius();
+      }
+      return 0;
+  }
+  
+  /**
+   * @return true if the projection is computed in closed form, rather than
+   * by proj4j
+   */
+  public boolean isClosedForm() {
+      return radius != 0;
   }
   
   public Point project(LatLng latlng) {
-      ProjCoordinate src = new ProjCoordinate(latlng.lng,latlng.lat);
-      ProjCoordinate dest = new ProjCoordinate();
-      proj4CRS.getProjection().project(src, dest);
-      return new Point(dest.x,dest.y);
+      if (radius != 0) {
+          return new Point(mercatorX(latlng.lng), mercatorY(latlng.lat));
+      }
+      ProjCoordinate[] scratch = SCRATCH.get();
+      scratch[0].x = latlng.lng;
+      scratch[0].y = latlng.lat;
+      projection.project(scratch[0], scratch[1]);
+      return new Point(scratch[1].x,scratch[1].y);
   }
   public LatLng unproject(Point p) {
-      ProjCoordinate src = new ProjCoordinate(p.x,p.y);
-      ProjCoordinate dest = new ProjCoordinate();
-      proj4CRS.getProjection().inverseProject(src, dest);
-      return new LatLng(dest.y,dest.x);
+      if (radius != 0) {
+          return new LatLng(mercatorLatitude(p.y), mercatorLongitude(p.x));
+      }
+      ProjCoordinate[] scratch = SCRATCH.get();
+      scratch[0].x = p.x;
+      scratch[0].y = p.y;
+      projection.inverseProject(scratch[0], scratch[1]);
+      return new LatLng(scratch[1].y,scratch[1].x);
+  }
+  
+  /**
+   * Project interleaved longitude,latitude pairs in place.
+   * @param coords lng0,lat0,lng1,lat1... replaced by x0,y0,x1,y1...
+   * @param offset the index in coords of the first longitude
+   * @param count the number of coordinate pairs
+   */
+  public void project(double[] coords, int offset, int count) {
+      transform(coords, offset, coords, offset + 1, 2, count, true);
+  }
+  
+  /**
+   * Project longitudes and latitudes held in separate arrays, in place.
+   * @param x longitudes, replaced by projected x ordinates
+   * @param y latitudes, replaced by projected y ordinates
+   * @param offset the index of the first coordinate in both arrays
+   * @param count the number of coordinates
+   */
+  public void project(double[] x, double[] y, int offset, int count) {
+      transform(x, offset, y, offset, 1, count, true);
+  }
+  
+  /**
+   * Unproject interleaved x,y pairs in place.
+   * @param coords x0,y0,x1,y1... replaced by lng0,lat0,lng1,lat1...
+   * @param offset the index in coords of the first x
+   * @param count the number of coordinate pairs
+   */
+  public void unproject(double[] coords, int offset, int count) {
+      transform(coords, offset, coords, offset + 1, 2, count, false);
   }
   
+  /**
+   * Unproject x and y ordinates held in separate arrays, in place.
+   * @param x x ordinates, replaced by longitudes
+   * @param y y ordinates, replaced by latitudes
+   * @param offset the index of the first coordinate in both arrays
+   * @param count the number of coordinates
+   */
+  public void unproject(double[] x, double[] y, int offset, int count) {
+      transform(x, offset, y, offset, 1, count, false);
+  }
+  
+  private void transform(double[] x, int xoffset, double[] y, int yoffset, int stride, int count, boolean forward) {
+      if (radius != 0) {
+          for (int i = 0, xi = xoffset, yi = yoffset; i < count; i++, xi += stride, yi += stride) {
+              double a = x[xi], b = y[yi];
+              if (forward) {
+                  x[xi] = mercatorX(a);
+                  y[yi] = mercatorY(b);
+              } else {
+                  x[xi] = mercatorLongitude(a);
+                  y[yi] = mercatorLatitude(b);
+              }
+          }
+          return;
+      }
+      ProjCoordinate[] scratch = SCRATCH.get();
+      ProjCoordinate src = scratch[0], dest = scratch[1];
+      for (int i = 0, xi = xoffset, yi = yoffset; i < count; i++, xi += stride, yi += stride) {
+          src.x = x[xi];
+          src.y = y[yi];
+          if (forward) {
+              projection.project(src, dest);
+          } else {
+              projection.inverseProject(src, dest);
+          }
+          x[xi] = dest.x;
+          y[yi] = dest.y;
+      }
+  }
+  
+  // spherical mercator: x = R.lambda and y = R.ln(tan(pi/4 + phi/2)), 
+  // which is R.atanh(sin(phi)), computed with the intrinsic sin and log;
+  // the inverse is phi = pi/2 - 2.atan(exp(-y/R)).  As with proj4j, 
+  // inverse longitudes are clamped to +/-180 degrees.
+  
+  private double mercatorX(double lng) {
+      return radius * Math.toRadians(lng);
+  }
+  
+  private double mercatorY(double lat) {
+      double sin = Math.sin(Math.toRadians(lat));
+      return radius * 0.5 * Math.log((1 + sin) / (1 - sin));
+  }
+  
+  private double mercatorLongitude(double x) {
+      return Math.max(-180D, Math.min(180D, Math.toDegrees(x / radius)));
+  }
+  
+  private double mercatorLatitude(double y) {
+      return 90D - Math.toDegrees(2 * Math.atan(Math.exp(-y / radius)));
+  }
 }
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml.projections;
+
+import java.util.Arrays;
+
+/**
+ * A reusable page of tile coordinates at one zoom level, held in parallel
+ * primitive arrays of columns and rows, so that enumerating and rendering
+ * a page allocates nothing per tile.
+ * 
+ * Not thread safe; reuse a buffer per thread.
+ */
+public final class TileBuffer {
+    private int zoom;
+    private long[] columns;
+    private long[] rows;
+    private int size;
+    private long end;
+
+    /**
+     * @param capacity the initial number of tiles the buffer can hold
+     */
+    public TileBuffer(int capacity) {
+        this.columns = new long[capacity];
+        this.rows = new long[capacity];
+    }
+
+    /**
+     * Empty the buffer for a page at the zoom level, making room for 
+     * capacity tiles.
+     */
+    void reset(int zoom, int capacity) {
+        this.zoom = zoom;
+        this.size = 0;
+        this.end = 0;
+        if (columns.length < capacity) {
+            columns = Arrays.copyOf(columns, capacity);
+            rows = Arrays.copyOf(rows, capacity);
+        }
+    }
+
+    void setEnd(long end) {
+        this.end = end;
+    }
+
+    void add(long column, long row) {
+        columns[size] = column;
+        rows[size] = row;
+        size++;
+    }
+
+    /**
+     * @return the number of tiles in the buffer
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the zoom level of the tiles in the buffer
+     */
+    public int getZoom() {
+        return zoom;
+    }
+
+    /**
+     * @param i the index of a tile, less than {@link #size()}
+     * @return the column (x) of the tile
+     */
+    public long getColumn(int i) {
+        return columns[i];
+    }
+
+    /**
+     * @param i the index of a tile, less than {@link #size()}
+     * @return the row (y) of the tile
+     */
+    public long getRow(int i) {
+        return rows[i];
+    }
+
+    /**
+     * @return the index in the order of the tiles of the extent of the tile
+     * following the last one considered for the page, i.e. the start of the 
+     * next page
+     */
+    public long getEnd() {
+        return end;
+    }
+}
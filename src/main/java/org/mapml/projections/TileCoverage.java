@@ -0,0 +1,424 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml.projections;
+
+import com.vividsolutions.jts.densify.Densifier;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateFilter;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.Polygonal;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.geom.util.PolygonExtracter;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKTReader;
+import java.util.Arrays;
+import java.util.List;
+import org.mapml.exceptions.MapMLException;
+
+/**
+ * The tiles of a tiled CRS which intersect a polygonal coverage, such as the
+ * land area of a country, so that references to tiles which a tile server
+ * does not have need not be handed out.
+ * <p>
+ * At the zoom levels at which the coverage spans at most MAX_BITMAP_ROWS 
+ * rows of tiles, the coverage is rasterised when it is created into runs of
+ * covered columns for each row, so testing a tile is a binary search of a 
+ * row of runs.  The rasterisation is a scan of the edges of the polygons, 
+ * in time proportional to the number of edges and rows.  At deeper zoom levels a tile is tested against the polygons
+ * of the coverage, found with an STRtree and prepared for repeated tests.
+ * <p>
+ * Immutable, and safe for concurrent use.
+ */
+public final class TileCoverage implements TileFilter {
+    /**
+     * The maximum number of rows of tiles of the coverage at a zoom level 
+     * for which the covered tiles are rasterised.
+     */
+    public static final int MAX_BITMAP_ROWS = 4096;
+    // the maximum length, in degrees, of an edge of the coverage before it
+    // is projected, so that projected edges follow the curved meridians and 
+    // parallels of the projection
+    private static final double DENSIFY_TOLERANCE = 0.1;
+    private static final GeometryFactory FACTORY = new GeometryFactory();
+    
+    private final TiledCRS tiledCRS;
+    private final int tileSize;
+    // the prepared polygons of the coverage, in projected units
+    private final STRtree index = new STRtree();
+    // indexed by zoom: the row of the first element of runs
+    private final long[] firstRow;
+    // indexed by zoom and then row: the inclusive first and last columns of 
+    // the runs of covered tiles of the row, in order; null for the zoom 
+    // levels at which tiles are tested against the polygons
+    private final int[][][] runs;
+
+    /**
+     * Create the coverage, rasterising it at the zoom levels at which it is
+     * small enough.
+     * @param coverage the polygons of the coverage, in longitude, latitude
+     * @param tiledCRS the tiled CRS
+     * @param minZoom the minimum zoom level at which tiles will be tested
+     * @param maxZoom the maximum zoom level at which tiles will be tested
+     * @throws MapMLException if the coverage is not polygonal
+     */
+    public TileCoverage(Geometry coverage, TiledCRS tiledCRS, int minZoom, int maxZoom) {
+        this(coverage, tiledCRS, minZoom, maxZoom, MAX_BITMAP_ROWS);
+    }
+    
+    TileCoverage(Geometry coverage, TiledCRS tiledCRS, int minZoom, int maxZoom, int maxBitmapRows) {
+        if (coverage.getDimension() < 2) {
+            throw new MapMLException("Coverage must be polygonal: " + coverage.getGeometryType());
+        }
+        this.tiledCRS = tiledCRS;
+        this.tileSize = tiledCRS.getTileSize();
+        Geometry projected = Densifier.densify(coverage, DENSIFY_TOLERANCE);
+        projected.apply(new CoordinateFilter() {
+            private final double[] coords = new double[2];
+            @Override
+            public void filter(Coordinate c) {
+                coords[0] = c.x;
+                coords[1] = c.y;
+                TileCoverage.this.tiledCRS.project(coords, 0, 1);
+                c.x = coords[0];
+                c.y = coords[1];
+            }
+        });
+        projected.geometryChanged();
+        // the rasterisation takes the inside of the rings to alternate with 
+        // the outside, so overlapping polygons are merged
+        if (!(projected instanceof Polygonal) || !projected.isValid()) {
+            projected = projected.buffer(0);
+        }
+        for (Object polygon : PolygonExtracter.getPolygons(projected)) {
+            Polygon p = (Polygon) polygon;
+            index.insert(p.getEnvelopeInternal(), PreparedGeometryFactory.prepare(p));
+        }
+        // queries of a built tree do not modify it
+        index.build();
+        this.firstRow = new long[maxZoom + 1];
+        this.runs = new int[maxZoom + 1][][];
+        long[] range = new long[4];
+        for (int zoom = Math.max(minZoom, 0); zoom <= maxZoom; zoom++) {
+            Geometry pixels = toPixels(projected, zoom);
+            Envelope e = pixels.getEnvelopeInternal();
+            if (e.isNull() || !tiledCRS.getTileRange(new Bounds(e.getMinX(), e.getMinY(), e.getMaxX(), e.getMaxY()), zoom, range)) {
+                // no tiles are covered
+                runs[zoom] = new int[0][];
+            } else if (range[3] - range[1] < maxBitmapRows && range[2] <= Integer.MAX_VALUE) {
+                firstRow[zoom] = range[1];
+                runs[zoom] = new int[(int) (range[3] - range[1] + 1)][];
+                rasterise(pixels, range[1], range[3], range[0], range[2], zoom);
+            }
+        }
+    }
+    
+    /**
+     * Read a coverage.
+     * @param text a GeoJSON geometry, feature or feature collection, or a WKT
+     * geometry, whose polygons are the coverage, in longitude, latitude
+     * @return the geometry
+     * @throws MapMLException if the text is not GeoJSON or WKT
+     */
+    public static Geometry read(String text) {
+        String t = text.trim();
+        if (t.startsWith("{")) {
+            return GeoJSONReader.read(t, FACTORY);
+        }
+        try {
+            return new WKTReader(FACTORY).read(t);
+        } catch (ParseException e) {
+            throw new MapMLException("Error reading coverage WKT: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * @param zoom the zoom level
+     * @return true if the tiles at the zoom level are tested against a 
+     * rasterisation of the coverage
+     */
+    public boolean isRasterised(int zoom) {
+        return zoom >= 0 && zoom < runs.length && runs[zoom] != null;
+    }
+    
+    /**
+     * Test if a tile intersects the coverage.
+     * @param zoom the zoom level
+     * @param column the column of the tile
+     * @param row the row of the tile
+     * @return true if the tile intersects the coverage
+     */
+    @Override
+    public boolean covers(int zoom, long column, long row) {
+        if (!isRasterised(zoom)) {
+            return intersects(zoom, (double) column * tileSize, (double) row * tileSize, 
+                    (double) (column + 1) * tileSize, (double) (row + 1) * tileSize);
+        }
+        int[][] rows = runs[zoom];
+        long r = row - firstRow[zoom];
+        if (r < 0 || r >= rows.length || column < 0 || column > Integer.MAX_VALUE) {
+            return false;
+        }
+        int[] rowRuns = rows[(int) r];
+        if (rowRuns == null) {
+            return false;
+        }
+        // the last run which starts at or before the column
+        int lo = 0, hi = rowRuns.length / 2 - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (rowRuns[2 * mid] <= column) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return hi >= 0 && column <= rowRuns[2 * hi + 1];
+    }
+    
+    /**
+     * Test if a range of tiles intersects the coverage, against the same 
+     * rasterisation as {@link #covers(int, long, long)}.
+     */
+    @Override
+    public boolean intersects(int zoom, long minColumn, long minRow, long maxColumn, long maxRow) {
+        if (!isRasterised(zoom)) {
+            return intersects(zoom, (double) minColumn * tileSize, (double) minRow * tileSize, 
+                    (double) (maxColumn + 1) * tileSize, (double) (maxRow + 1) * tileSize);
+        }
+        int[][] rows = runs[zoom];
+        long first = Math.max(minRow - firstRow[zoom], 0);
+        long last = Math.min(maxRow - firstRow[zoom], rows.length - 1);
+        for (long r = first; r <= last; r++) {
+            int[] rowRuns = rows[(int) r];
+            if (rowRuns == null) {
+                continue;
+            }
+            // the last run which starts at or before the last column
+            int lo = 0, hi = rowRuns.length / 2 - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (rowRuns[2 * mid] <= maxColumn) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            if (hi >= 0 && minColumn <= rowRuns[2 * hi + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Test if an extent intersects the coverage.
+     * @param zoom the zoom level
+     * @param extent the extent, in projected, scaled units
+     * @return true if the extent intersects the coverage
+     */
+    public boolean intersects(int zoom, Bounds extent) {
+        return intersects(zoom, extent.getMinX(), extent.getMinY(), extent.getMaxX(), extent.getMaxY());
+    }
+    
+    private boolean intersects(int zoom, double xmin, double ymin, double xmax, double ymax) {
+        double[] projected = new double[4];
+        tiledCRS.untransform(new Bounds(xmin, ymin, xmax, ymax), zoom, projected);
+        Envelope envelope = new Envelope(projected[0], projected[2], projected[1], projected[3]);
+        List<?> candidates = index.query(envelope);
+        if (candidates.isEmpty()) {
+            return false;
+        }
+        Geometry rectangle = FACTORY.toGeometry(envelope);
+        for (Object candidate : candidates) {
+            if (((PreparedGeometry) candidate).intersects(rectangle)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private Geometry toPixels(Geometry projected, final int zoom) {
+        Geometry pixels = (Geometry) projected.clone();
+        pixels.apply(new CoordinateFilter() {
+            private final double[] coords = new double[2];
+            @Override
+            public void filter(Coordinate c) {
+                coords[0] = c.x;
+                coords[1] = c.y;
+                tiledCRS.transform(coords, 0, 1, zoom);
+                c.x = coords[0];
+                c.y = coords[1];
+            }
+        });
+        pixels.geometryChanged();
+        return pixels;
+    }
+    
+    /**
+     * Rasterise the coverage into runs of covered columns for each row.  A 
+     * tile intersects the coverage if its boundary crosses the tile, or if 
+     * the tile is inside it; within the band of a row, the first is the x 
+     * range of each edge clipped to the band, and the second the inside 
+     * spans of a line through the middle of the band.
+     * @param pixels the coverage, in pixels at the zoom level
+     */
+    private void rasterise(Geometry pixels, long minRow, long maxRow, long minColumn, long maxColumn, int zoom) {
+        int rowCount = (int) (maxRow - minRow + 1);
+        // per row: x ranges of the edges, and the x of the middle crossings
+        Spans[] spans = new Spans[rowCount];
+        Spans[] crossings = new Spans[rowCount];
+        for (Object polygon : PolygonExtracter.getPolygons(pixels)) {
+            Polygon p = (Polygon) polygon;
+            addEdges(p.getExteriorRing().getCoordinateSequence(), minRow, maxRow, spans, crossings);
+            for (int i = 0; i < p.getNumInteriorRing(); i++) {
+                addEdges(p.getInteriorRingN(i).getCoordinateSequence(), minRow, maxRow, spans, crossings);
+            }
+        }
+        for (int r = 0; r < rowCount; r++) {
+            Spans row = spans[r];
+            if (row == null) {
+                continue;
+            }
+            Spans middle = crossings[r];
+            if (middle != null) {
+                // the insides of the rings alternate with the outsides
+                Arrays.sort(middle.x, 0, middle.size);
+                for (int i = 0; i + 1 < middle.size; i += 2) {
+                    row.add(middle.x[i], middle.x[i + 1]);
+                }
+            }
+            runs[zoom][r] = runs(row, minColumn, maxColumn);
+        }
+    }
+    
+    private void addEdges(CoordinateSequence ring, long minRow, long maxRow, Spans[] spans, Spans[] crossings) {
+        for (int i = 1; i < ring.size(); i++) {
+            double x1 = ring.getX(i - 1), y1 = ring.getY(i - 1);
+            double x2 = ring.getX(i), y2 = ring.getY(i);
+            double ylo = Math.min(y1, y2), yhi = Math.max(y1, y2);
+            // the rows which the edge enters, not those it only touches
+            long first = Math.max((long) Math.floor(ylo / tileSize), minRow);
+            long last = Math.min(ylo == yhi ? first : (long) Math.ceil(yhi / tileSize) - 1, maxRow);
+            for (long row = first; row <= last; row++) {
+                int r = (int) (row - minRow);
+                double top = row * tileSize, bottom = top + tileSize;
+                double xa, xb;
+                if (y1 == y2) {
+                    xa = x1;
+                    xb = x2;
+                } else {
+                    xa = xAt(x1, y1, x2, y2, Math.max(top, ylo));
+                    xb = xAt(x1, y1, x2, y2, Math.min(bottom, yhi));
+                }
+                if (spans[r] == null) {
+                    spans[r] = new Spans();
+                }
+                spans[r].add(Math.min(xa, xb), Math.max(xa, xb));
+                double middle = top + tileSize / 2;
+                if ((y1 <= middle) != (y2 <= middle)) {
+                    if (crossings[r] == null) {
+                        crossings[r] = new Spans();
+                    }
+                    crossings[r].add(xAt(x1, y1, x2, y2, middle));
+                }
+            }
+        }
+    }
+    
+    private static double xAt(double x1, double y1, double x2, double y2, double y) {
+        return x1 + (x2 - x1) * (y - y1) / (y2 - y1);
+    }
+    
+    private int[] runs(Spans row, long minColumn, long maxColumn) {
+        long[] columns = new long[row.size / 2];
+        int count = 0;
+        for (int i = 0; i < row.size; i += 2) {
+            double a = row.x[i], b = row.x[i + 1];
+            long first = Math.max((long) Math.floor(a / tileSize), minColumn);
+            long last = Math.min(b > a ? (long) Math.ceil(b / tileSize) - 1 : (long) Math.floor(a / tileSize), maxColumn);
+            if (last >= first) {
+                columns[count++] = first << 32 | last;
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+        Arrays.sort(columns, 0, count);
+        int[] result = new int[2 * count];
+        int m = 0;
+        for (int i = 0; i < count; i++) {
+            int first = (int) (columns[i] >>> 32), last = (int) columns[i];
+            if (m > 0 && first <= result[m - 1] + 1) {
+                result[m - 1] = Math.max(result[m - 1], last);
+            } else {
+                result[m++] = first;
+                result[m++] = last;
+            }
+        }
+        return m == result.length ? result : Arrays.copyOf(result, m);
+    }
+    
+    /**
+     * A growable list of x values.
+     */
+    private static final class Spans {
+        double[] x = new double[8];
+        int size;
+        
+        void add(double value) {
+            if (size == x.length) {
+                x = Arrays.copyOf(x, 2 * size);
+            }
+            x[size++] = value;
+        }
+        
+        void add(double a, double b) {
+            add(a);
+            add(b);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml.projections;
+
+/**
+ * Selects the tiles which may be referred to, such as those within the 
+ * coverage of a layer or those which a tile cache has.
+ * 
+ * Implementations must be safe for concurrent use.
+ * @see TiledCRS#getTilesForExtent(Bounds, int, long, int, TileBuffer, TileFilter)
+ */
+public interface TileFilter {
+    /**
+     * @param zoom the zoom level
+     * @param column the column of the tile
+     * @param row the row of the tile
+     * @return true to keep the tile
+     */
+    boolean covers(int zoom, long column, long row);
+
+    /**
+     * Test if any tile of a range may be kept, so that a range with none is
+     * skipped without testing its tiles.  An implementation which cannot 
+     * tell cheaply returns true.
+     * @param zoom the zoom level
+     * @param minColumn the first column of the range
+     * @param minRow the first row of the range
+     * @param maxColumn the last column of the range, inclusive
+     * @param maxRow the last row of the range, inclusive
+     * @return false if no tile of the range is kept
+     */
+    boolean intersects(int zoom, long minColumn, long minRow, long maxColumn, long maxRow);
+}
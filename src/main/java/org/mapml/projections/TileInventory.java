@@ -0,0 +1,423 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml.projections;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.mapml.exceptions.MapMLException;
+
+/**
+ * The tiles which exist in a sparse tile cache, so that references to tiles
+ * which the cache would answer with 404 need not be handed out.
+ * <p>
+ * The inventory is an index file of the sorted keys of the tiles, each the
+ * zoom level above the Morton (Z-order) code of the column and row, so the
+ * tiles of a page, which are near each other, are near each other in the 
+ * file.  The file is memory-mapped, so a large inventory is paged in by the
+ * operating system rather than held on the heap, and a tile is looked up by
+ * a binary search.  The index is built from a listing of z/x/y tile paths, 
+ * or by walking a z/x/y directory tree of tiles, e.g. 15/9491/11735.png.
+ * <p>
+ * Columns and rows must be less than 2^29, and an index may hold at most
+ * MAX_TILES tiles.  Immutable, and safe for concurrent use.
+ */
+public final class TileInventory implements TileFilter {
+    private static final Logger log = LogManager.getLogger();
+    /** "MTIX" */
+    private static final int MAGIC = 0x4d544958;
+    private static final int VERSION = 1;
+    // magic, version, count and checksum
+    private static final int HEADER_BYTES = 24;
+    private static final int COORDINATE_BITS = 29;
+    private static final long MAX_COORDINATE = (1L << COORDINATE_BITS) - 1;
+    private static final int MAX_ZOOM = 31;
+    private static final long MORTON_MASK = (1L << (2 * COORDINATE_BITS)) - 1;
+    // the number of keys outside a range that intersects looks past before
+    // answering that the range may have a tile
+    private static final int MAX_JUMPS = 16;
+    /** the maximum number of tiles of an index, which is mapped as one buffer */
+    public static final int MAX_TILES = (Integer.MAX_VALUE - HEADER_BYTES) / 8;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final LongBuffer keys;
+    private final int size;
+    private final long checksum;
+
+    private TileInventory(LongBuffer keys, int size, long checksum) {
+        this.keys = keys;
+        this.size = size;
+        this.checksum = checksum;
+    }
+
+    /**
+     * Map an index file.
+     * @param index the index file
+     * @return the inventory
+     * @throws IOException if the file cannot be read
+     * @throws MapMLException if the file is not an index
+     */
+    public static TileInventory open(File index) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(index, "r"); FileChannel channel = file.getChannel()) {
+            long length = channel.size();
+            if (length < HEADER_BYTES || length > Integer.MAX_VALUE) {
+                throw new MapMLException("Not a tile inventory: " + index);
+            }
+            // the mapping remains valid when the channel is closed
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            long count = buffer.getLong(8);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || count != (length - HEADER_BYTES) / 8) {
+                throw new MapMLException("Not a tile inventory: " + index);
+            }
+            buffer.position(HEADER_BYTES);
+            return new TileInventory(buffer.slice().asLongBuffer(), (int) count, buffer.getLong(16));
+        }
+    }
+
+    /**
+     * Build an index file and map it.  The index is written beside the 
+     * index file and moved into place, so an existing index may be in use.
+     * @param source a text file listing the paths of tiles, one per line, 
+     * or a directory of tiles, in either case ending in zoom/column/row, 
+     * with or without a file extension
+     * @param index the index file to write
+     * @return the inventory
+     * @throws IOException if the source cannot be read or the index written
+     */
+    public static TileInventory build(File source, File index) throws IOException {
+        final Keys keys = new Keys();
+        if (source.isDirectory()) {
+            final Path root = source.toPath();
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (attributes.isRegularFile()) {
+                        keys.add(root.relativize(file).toString());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } else {
+            try (BufferedReader reader = Files.newBufferedReader(source.toPath(), StandardCharsets.UTF_8)) {
+                for (String line; (line = reader.readLine()) != null;) {
+                    line = line.trim();
+                    if (!line.isEmpty() && line.charAt(0) != '#') {
+                        keys.add(line);
+                    }
+                }
+            }
+        }
+        if (keys.ignored > 0) {
+            log.warn("Ignored " + keys.ignored + " paths which are not zoom/column/row tiles in " + source);
+        }
+        write(keys.sort(), index);
+        return open(index);
+    }
+
+    /**
+     * Write sorted, distinct keys to an index file.
+     */
+    private static void write(long[] keys, File index) throws IOException {
+        File parent = index.getAbsoluteFile().getParentFile();
+        File temporary = File.createTempFile(index.getName(), ".tmp", parent);
+        try {
+            long checksum = FNV_OFFSET_BASIS;
+            for (long key : keys) {
+                checksum = (checksum ^ key) * FNV_PRIME;
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 65536))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(keys.length);
+                out.writeLong(checksum);
+                for (long key : keys) {
+                    out.writeLong(key);
+                }
+            }
+            Files.move(temporary.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+    }
+
+    /**
+     * Test if a tile exists.
+     * @param zoom the zoom level
+     * @param column the column of the tile
+     * @param row the row of the tile
+     * @return true if the tile is in the inventory
+     */
+    @Override
+    public boolean covers(int zoom, long column, long row) {
+        if (zoom < 0 || zoom > MAX_ZOOM || column < 0 || column > MAX_COORDINATE || row < 0 || row > MAX_COORDINATE) {
+            return false;
+        }
+        long key = key(zoom, column, row);
+        int lo = 0, hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long k = keys.get(mid);
+            if (k < key) {
+                lo = mid + 1;
+            } else if (k > key) {
+                hi = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Test if the inventory may have a tile of a range.  The keys of the 
+     * tiles of the range lie between the keys of its corners, but so do the
+     * keys of many tiles outside it; from each such key the search jumps to
+     * the next key of the range (BIGMIN, Tropf and Herzog 1981).  After 
+     * MAX_JUMPS keys outside the range the answer is true.
+     */
+    @Override
+    public boolean intersects(int zoom, long minColumn, long minRow, long maxColumn, long maxRow) {
+        if (zoom < 0 || zoom > MAX_ZOOM || maxColumn < 0 || minColumn > MAX_COORDINATE 
+                || maxRow < 0 || minRow > MAX_COORDINATE || maxColumn < minColumn || maxRow < minRow) {
+            return false;
+        }
+        minColumn = Math.max(minColumn, 0);
+        minRow = Math.max(minRow, 0);
+        maxColumn = Math.min(maxColumn, MAX_COORDINATE);
+        maxRow = Math.min(maxRow, MAX_COORDINATE);
+        long zoomKey = key(zoom, 0, 0);
+        long min = spread(minColumn) | spread(minRow) << 1;
+        long max = spread(maxColumn) | spread(maxRow) << 1;
+        long code = min;
+        for (int jump = 0; jump < MAX_JUMPS; jump++) {
+            int i = ceiling(zoomKey + code);
+            if (i == size || keys.get(i) > zoomKey + max) {
+                return false;
+            }
+            long found = keys.get(i) & MORTON_MASK;
+            long column = compact(found), row = compact(found >>> 1);
+            if (column >= minColumn && column <= maxColumn && row >= minRow && row <= maxRow) {
+                return true;
+            }
+            code = bigmin(found, min, max);
+        }
+        return true;
+    }
+
+    /*
+     * The index of the first key at or above a key, or size if there is none.
+     */
+    private int ceiling(long key) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys.get(mid) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /*
+     * The least Morton code above code of a tile of the range whose corners
+     * have the codes min and max, given that code lies between them but its
+     * tile is outside the range; max + 1 if there is none.
+     */
+    static long bigmin(long code, long min, long max) {
+        long bigmin = max + 1;
+        for (int b = 2 * COORDINATE_BITS - 1; b >= 0; b--) {
+            long bit = 1L << b;
+            // the lower bits of the same ordinate
+            long lower = ((b & 1) == 0 ? 0x5555555555555555L : 0xaaaaaaaaaaaaaaaaL) & (bit - 1);
+            boolean c = (code & bit) != 0, lo = (min & bit) != 0, hi = (max & bit) != 0;
+            if (!c && !lo && hi) {
+                // the range splits at this bit and code is in its low half:
+                // the high half starts above code, and the low half may too
+                bigmin = (min & ~(bit | lower)) | bit;
+                max = (max & ~bit) | lower;
+            } else if (!c && lo) {
+                return min;
+            } else if (c && !hi) {
+                return bigmin;
+            } else if (c && !lo) {
+                // code is in the high half of the split
+                min = (min & ~(bit | lower)) | bit;
+            }
+        }
+        return bigmin;
+    }
+
+    /**
+     * @return the number of tiles in the inventory
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return a checksum of the tiles in the inventory, which changes when 
+     * the tiles do
+     */
+    public long getChecksum() {
+        return checksum;
+    }
+
+    @Override
+    public String toString() {
+        return "TileInventory[" + size + " tiles, checksum " + Long.toHexString(checksum) + "]";
+    }
+
+    /**
+     * The key of a tile: the zoom level in the top bits and the Morton code
+     * of the column and row, with the bits of the column in the even places,
+     * in the low 58 bits.
+     */
+    static long key(int zoom, long column, long row) {
+        return (long) zoom << (2 * COORDINATE_BITS) | spread(column) | spread(row) << 1;
+    }
+
+    // spread the low 29 bits of v into the even bits of the result
+    private static long spread(long v) {
+        v &= MAX_COORDINATE;
+        v = (v | v << 16) & 0x0000ffff0000ffffL;
+        v = (v | v << 8) & 0x00ff00ff00ff00ffL;
+        v = (v | v << 4) & 0x0f0f0f0f0f0f0f0fL;
+        v = (v | v << 2) & 0x3333333333333333L;
+        v = (v | v << 1) & 0x5555555555555555L;
+        return v;
+    }
+
+    // gather the even bits of v into the low 29 bits of the result
+    private static long compact(long v) {
+        v &= 0x5555555555555555L;
+        v = (v | v >>> 1) & 0x3333333333333333L;
+        v = (v | v >>> 2) & 0x0f0f0f0f0f0f0f0fL;
+        v = (v | v >>> 4) & 0x00ff00ff00ff00ffL;
+        v = (v | v >>> 8) & 0x0000ffff0000ffffL;
+        v = (v | v >>> 16) & 0x00000000ffffffffL;
+        return v & MAX_COORDINATE;
+    }
+
+    /**
+     * A growable array of the keys of the tiles of a source.
+     */
+    private static final class Keys {
+        long[] keys = new long[1024];
+        int size;
+        long ignored;
+
+        /**
+         * @param path a path ending in zoom/column/row, with or without an 
+         * extension, separated by / or \
+         */
+        void add(String path) {
+            long[] zxy = new long[3];
+            int end = path.length();
+            int dot = path.lastIndexOf('.');
+            if (dot > Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\'))) {
+                end = dot;
+            }
+            for (int i = 2; i >= 0; i--) {
+                int begin = end;
+                while (begin > 0 && path.charAt(begin - 1) != '/' && path.charAt(begin - 1) != '\\') {
+                    begin--;
+                }
+                try {
+                    zxy[i] = Long.parseLong(path.substring(begin, end));
+                } catch (NumberFormatException e) {
+                    ignored++;
+                    return;
+                }
+                end = begin - 1;
+                if (i > 0 && end < 0) {
+                    ignored++;
+                    return;
+                }
+            }
+            if (zxy[0] < 0 || zxy[0] > MAX_ZOOM || zxy[1] < 0 || zxy[1] > MAX_COORDINATE 
+                    || zxy[2] < 0 || zxy[2] > MAX_COORDINATE) {
+                ignored++;
+                return;
+            }
+            if (size == keys.length) {
+                if (size == MAX_TILES) {
+                    throw new MapMLException("A tile inventory may hold at most " + MAX_TILES + " tiles");
+                }
+                keys = Arrays.copyOf(keys, (int) Math.min(2L * size, MAX_TILES));
+            }
+            keys[size++] = key((int) zxy[0], zxy[1], zxy[2]);
+        }
+
+        /**
+         * @return the sorted, distinct keys
+         */
+        long[] sort() {
+            Arrays.sort(keys, 0, size);
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                if (n == 0 || keys[i] != keys[n - 1]) {
+                    keys[n++] = keys[i];
+                }
+            }
+            return Arrays.copyOf(keys, n);
+        }
+    }
+}
@@ -0,0 +1,453 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml.projections;
+
+import java.util.Arrays;
+
+/**
+ * Enumerates the tiles of a rectangle of tile coordinates in rings of 
+ * increasing distance from a centre point, without collecting and sorting 
+ * them, and can seek to the k-th tile of that order in O(log n) time.
+ * <p>
+ * The distance of a tile is the Chebyshev (chessboard) distance from the 
+ * centre point to the centre of the tile, measured in tiles, so the tiles 
+ * within a given distance always form a rectangle.  As the distance grows 
+ * through the distinct per-axis tile distances, that rectangle grows by a 
+ * column or a row on one or more sides: each such step is a "ring".  
+ * Within a ring, tiles are ordered by their distance along the ring from 
+ * the axis through the centre, so the ring's corners come last and the 
+ * order approximates increasing Euclidean distance.
+ * <p>
+ * Only tiles inside the clip rectangle are enumerated, but the rings stay 
+ * centred on the centre point, so a page of the order is the same whether 
+ * or not its neighbours were clipped away.
+ * <p>
+ * Not thread safe; a TileSpiral is a cursor for a single request.
+ */
+public class TileSpiral {
+    // the number of rings a call to next skips before returning a tile of 
+    // a ring it has not tested, bounding the work of the call
+    private static final int MAX_SKIPPED_RINGS = 32;
+    // the tile whose centre is nearest the centre point on the low side
+    private final long X, Y;
+    // per-axis distance from the centre point to the centre of the tile X,Y 
+    // (f) and to the centre of the tile X+1,Y+1 (g)
+    private final double fx, gx, fy, gy;
+    // the distinct values of fx, gx, fy, gy in ascending order
+    private final double[] offsets;
+    private final int m;
+    // the clip rectangle, inclusive
+    private final long x0, y0, x1, y1;
+    private final long size;
+    // the number of rings after which the clip is covered
+    private final long rings;
+    // ring index ranges over which the clipped columns (rows) grow
+    private final long jx0, jx1, jy0, jy1;
+
+    // cursor state
+    private long ring, step, position;
+    private int ringCols, ringRows;
+    private final long[] colsOfRing = new long[2], rowsOfRing = new long[2];
+    private final long[] colsOfStep = new long[2], rowsOfStep = new long[2];
+    private final long[] stepX = new long[8], stepY = new long[8];
+    private int stepLength, stepIndex;
+    private long x, y;
+    // true if the current ring has been tested against a filter
+    private boolean ringTested;
+
+    /**
+     * @param cx the x ordinate of the centre point, in decimal tiles
+     * @param cy the y ordinate of the centre point, in decimal tiles
+     * @param xmin the minimum tile column to enumerate
+     * @param ymin the minimum tile row to enumerate
+     * @param xmax the maximum tile column to enumerate, inclusive
+     * @param ymax the maximum tile row to enumerate, inclusive
+     */
+    public TileSpiral(double cx, double cy, long xmin, long ymin, long xmax, long ymax) {
+        this.X = (long) Math.floor(cx - 0.5);
+        this.Y = (long) Math.floor(cy - 0.5);
+        this.fx = (cx - 0.5) - X;
+        this.gx = 1 - fx;
+        this.fy = (cy - 0.5) - Y;
+        this.gy = 1 - fy;
+        double[] o = {fx, gx, fy, gy};
+        Arrays.sort(o);
+        int distinct = 1;
+        for (int i = 1; i < o.length; i++) {
+            // an offset of 1 (when the centre is on a tile edge) is the 
+            // offset 0 of the next ring
+            if (o[i] != o[distinct - 1] && o[i] < 1) {
+                o[distinct++] = o[i];
+            }
+        }
+        this.offsets = Arrays.copyOf(o, distinct);
+        this.m = distinct;
+        this.x0 = xmin;
+        this.y0 = ymin;
+        this.x1 = xmax;
+        this.y1 = ymax;
+        boolean empty = xmax < xmin || ymax < ymin;
+        this.size = empty ? 0 : (xmax - xmin + 1) * (ymax - ymin + 1);
+        long reach = Math.max(Math.max(Math.abs(X - x0), Math.abs(x1 - X)), 
+                Math.max(Math.abs(Y - y0), Math.abs(y1 - Y))) + 2;
+        this.rings = empty ? 0 : m * reach;
+        this.jx0 = firstRing(true, 1);
+        this.jx1 = firstRing(true, x1 - x0 + 1);
+        this.jy0 = firstRing(false, 1);
+        this.jy1 = firstRing(false, y1 - y0 + 1);
+        seek(0);
+    }
+
+    /**
+     * @return the number of tiles in the clip rectangle
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return the index in the order of the tile which the next call to 
+     * {@link #next()} will return
+     */
+    public long position() {
+        return position;
+    }
+
+    /**
+     * @return true if {@link #next()} will return another tile
+     */
+    public boolean hasNext() {
+        return position < size;
+    }
+
+    /**
+     * Position the cursor before the k-th tile of the order.
+     * @param k zero-based index of the tile to be returned by the next call to
+     * {@link #next()}; if it is not less than {@link #size()} the cursor is exhausted.
+     */
+    public final void seek(long k) {
+        position = Math.max(0, k);
+        stepLength = stepIndex = 0;
+        if (position >= size) {
+            position = size;
+            return;
+        }
+        // the first ring which reaches beyond k
+        long lo = 0, hi = rings;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (count(mid) > position) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        startRing(lo);
+        long offset = position - count(lo - 1);
+        // the first step of the ring which reaches beyond the offset
+        long sides = stepCount(ring - 1);
+        if (offset < sides) {
+            lo = 0;
+            hi = ring - 1;
+            while (lo < hi) {
+                long mid = (lo + hi) >>> 1;
+                if (stepCount(mid) > offset) {
+                    hi = mid;
+                } else {
+                    lo = mid + 1;
+                }
+            }
+            loadStep(lo);
+            stepIndex = (int) (offset - stepCount(lo - 1));
+        } else {
+            loadStep(ring);
+            stepIndex = (int) (offset - sides);
+        }
+    }
+
+    /**
+     * Advance to the next tile.
+     * @return false if there are no more tiles
+     */
+    public boolean next() {
+        return next(null, 0);
+    }
+
+    /**
+     * Advance to the next tile, skipping the rings of which the filter keeps
+     * no tile.  A ring is tested against the filter as up to four ranges of 
+     * tiles, so a filter which keeps few of the tiles far from the centre is
+     * not asked about each of the tiles of the rings between.  A call skips
+     * at most MAX_SKIPPED_RINGS rings, so its work is bounded; it then 
+     * returns the first tile of the following ring, and the rest of that
+     * ring is tested by the next call.
+     * @param filter the tiles to keep, or null
+     * @param zoom the zoom level of the tiles, for the filter
+     * @return false if there are no more tiles
+     */
+    public boolean next(TileFilter filter, int zoom) {
+        if (position >= size) {
+            return false;
+        }
+        if (filter != null && !ringTested && !skipRings(filter, zoom)) {
+            return false;
+        }
+        while (stepIndex >= stepLength) {
+            if (step < ring) {
+                loadStep(nextStep(step));
+            } else {
+                startRing(nextRing());
+                loadStep(nextStep(-1));
+                if (filter != null && !skipRings(filter, zoom)) {
+                    return false;
+                }
+            }
+        }
+        x = stepX[stepIndex];
+        y = stepY[stepIndex];
+        stepIndex++;
+        position++;
+        return true;
+    }
+
+    /**
+     * @return the column of the current tile
+     */
+    public long getX() {
+        return x;
+    }
+
+    /**
+     * @return the row of the current tile
+     */
+    public long getY() {
+        return y;
+    }
+
+    /*
+     * The rectangle of tiles within the distance offsets[i % m] + i / m of the 
+     * centre extends lo(i) columns (rows) from X (Y) towards the origin, 
+     * and hi(i) columns (rows) away from it.
+     */
+    private long lo(long i, double f) {
+        return i < 0 ? 0 : i / m + (f <= offsets[(int) (i % m)] ? 1 : 0);
+    }
+
+    private long width(long i) {
+        long min = Math.max(X - lo(i, fx) + 1, x0);
+        long max = Math.min(X + lo(i, gx), x1);
+        return Math.max(0, max - min + 1);
+    }
+
+    private long height(long i) {
+        long min = Math.max(Y - lo(i, fy) + 1, y0);
+        long max = Math.min(Y + lo(i, gy), y1);
+        return Math.max(0, max - min + 1);
+    }
+
+    /*
+     * The number of tiles in rings 0..i
+     */
+    private long count(long i) {
+        return width(i) * height(i);
+    }
+
+    /*
+     * The first ring at which the clipped width (height) is at least n
+     */
+    private long firstRing(boolean columns, long n) {
+        long lo = 0, hi = rings;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if ((columns ? width(mid) : height(mid)) >= n) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    /*
+     * Put the columns (rows) added at ring i and inside the clip into lines,
+     * returning their number.
+     */
+    private int linesOf(long i, boolean columns, long[] lines) {
+        if (i < 0) {
+            return 0;
+        }
+        long anchor = columns ? X : Y;
+        long min = columns ? x0 : y0, max = columns ? x1 : y1;
+        double f = columns ? fx : fy, g = columns ? gx : gy;
+        int n = 0;
+        long low = lo(i, f);
+        if (low > lo(i - 1, f) && anchor - low + 1 >= min && anchor - low + 1 <= max) {
+            lines[n++] = anchor - low + 1;
+        }
+        long high = lo(i, g);
+        if (high > lo(i - 1, g) && anchor + high >= min && anchor + high <= max) {
+            lines[n++] = anchor + high;
+        }
+        return n;
+    }
+
+    /*
+     * The next ring after the current one which has tiles in the clip.
+     */
+    private long nextRing() {
+        long r = ring + 1;
+        while (count(r) == count(r - 1)) {
+            r++;
+        }
+        return r;
+    }
+
+    /*
+     * Skip from the current ring to the first which the filter may keep 
+     * tiles of, or past MAX_SKIPPED_RINGS rings to one not yet tested, 
+     * returning false if there is no more.
+     */
+    private boolean skipRings(TileFilter filter, int zoom) {
+        for (int skipped = 0; !ringIntersects(filter, zoom); skipped++) {
+            position = count(ring);
+            if (position >= size) {
+                position = size;
+                stepLength = stepIndex = 0;
+                return false;
+            }
+            startRing(nextRing());
+            loadStep(nextStep(-1));
+            if (skipped == MAX_SKIPPED_RINGS) {
+                return true;
+            }
+        }
+        ringTested = true;
+        return true;
+    }
+
+    /*
+     * Test the ranges of the current ring: its new columns across the rows
+     * of the rectangle of the ring, and its new rows across the columns.
+     */
+    private boolean ringIntersects(TileFilter filter, int zoom) {
+        long minColumn = Math.max(X - lo(ring, fx) + 1, x0), maxColumn = Math.min(X + lo(ring, gx), x1);
+        long minRow = Math.max(Y - lo(ring, fy) + 1, y0), maxRow = Math.min(Y + lo(ring, gy), y1);
+        for (int c = 0; c < ringCols; c++) {
+            if (filter.intersects(zoom, colsOfRing[c], minRow, colsOfRing[c], maxRow)) {
+                return true;
+            }
+        }
+        for (int r = 0; r < ringRows; r++) {
+            if (filter.intersects(zoom, minColumn, rowsOfRing[r], maxColumn, rowsOfRing[r])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void startRing(long i) {
+        ringTested = false;
+        ring = i;
+        ringCols = linesOf(i, true, colsOfRing);
+        ringRows = linesOf(i, false, rowsOfRing);
+    }
+
+    /*
+     * The number of tiles in steps 0..j of the current ring: the tiles of its
+     * new columns in rows added up to ring j, and of its new rows in columns
+     * added up to ring j.  The corners of the ring are its last step.
+     */
+    private long stepCount(long j) {
+        return ringCols * height(j) + ringRows * width(j);
+    }
+
+    /*
+     * The next step of the current ring after j which may have tiles, or the
+     * ring's corners.
+     */
+    private long nextStep(long j) {
+        long next = ring;
+        if (ringCols > 0) {
+            long candidate = Math.max(j + 1, jy0);
+            if (candidate <= jy1 && candidate < next) {
+                next = candidate;
+            }
+        }
+        if (ringRows > 0) {
+            long candidate = Math.max(j + 1, jx0);
+            if (candidate <= jx1 && candidate < next) {
+                next = candidate;
+            }
+        }
+        return next;
+    }
+
+    private void loadStep(long j) {
+        step = j;
+        stepLength = stepIndex = 0;
+        if (j < ring) {
+            int nrows = linesOf(j, false, rowsOfStep);
+            int ncols = linesOf(j, true, colsOfStep);
+            for (int c = 0; c < ringCols; c++) {
+                for (int r = 0; r < nrows; r++) {
+                    add(colsOfRing[c], rowsOfStep[r]);
+                }
+            }
+            for (int r = 0; r < ringRows; r++) {
+                for (int c = 0; c < ncols; c++) {
+                    add(colsOfStep[c], rowsOfRing[r]);
+                }
+            }
+        } else {
+            for (int c = 0; c < ringCols; c++) {
+                for (int r = 0; r < ringRows; r++) {
+                    add(colsOfRing[c], rowsOfRing[r]);
+                }
+            }
+        }
+    }
+
+    private void add(long col, long row) {
+        stepX[stepLength] = col;
+        stepY[stepLength] = row;
+        stepLength++;
+    }
+}
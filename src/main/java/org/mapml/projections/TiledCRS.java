@@ -41,9 +41,6 @@
 package org.mapml.projections;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
 import org.mapml.MapMLConstants;
 
@@ -53,19 +50,41 @@ public class TiledCRS {
     private final Transformation transformation;
     private final Projection projection;
     private final double[] scales;
+    // the reciprocals of the scales: projected units per pixel
+    private final double[] resolutions;
     private final String name;
     private final int TILESIZE = 256;
     private final Point TILE_ORIGIN;
-    private int pageSize = MapMLConstants.PAGESIZE;
+    // fraction of a tile within which a bounds edge is taken to be on a tile edge
+    private static final double EDGE_TOLERANCE = 1e-6;
+    /**
+     * The number of pages worth of tiles tested for a page of the tiles kept
+     * by a filter, bounding the work of a request for an extent whose tiles 
+     * are mostly not kept, whatever the size of the extent.  Rings of tiles
+     * which the filter keeps none of are skipped without testing their 
+     * tiles, a bounded number at a time.
+     */
+    public static final int MAX_SCAN_PAGES = 16;
     
-    // the max.x,max.y of the Bounds member are integer numbers (though the defn of Bounds.* are double)
-    // representing the maximum tile ordinate for the zoom level (the key).  min.x,
-    // min.y (should/will) always be 0.
-    private final HashMap<Integer, Bounds> tileBounds = new HashMap<>();
+    // the maximum tile column and row, inclusive, indexed by zoom level.  The
+    // minimum column and row are always taken to be 0.
+    private final long[] maxColumn;
+    private final long[] maxRow;
     
     private final Bounds bounds;
     
     public TiledCRS(String name) {
+        this(name, 0);
+    }
+    
+    /**
+     * @param name the name of the tiled CRS, e.g. CBMTILE
+     * @param maxTransformError the maximum error, in projected units, of 
+     * points projected by interpolation in grids of exactly projected points,
+     * which is much quicker than proj4j for e.g. Lambert conformal conic; or 
+     * 0 to always project exactly.  Web mercator is always computed exactly.
+     */
+    public TiledCRS(String name, double maxTransformError) {
         TiledCRSParams parameters = TiledCRSConstants.tiledCRSDefinitions.get(name);
         if (parameters == null) {
           throw new RuntimeException("Definition for Tiled CRS not found: "+name);
@@ -76,56 +95,43 @@ public class TiledCRS {
         this.TILE_ORIGIN = parameters.getOrigin();
         this.transformation = new Transformation(1, (-1 * parameters.getOrigin().x), -1, parameters.getOrigin().y);
         // the projection below is the proj4 / EPSG definition
-        this.projection = new Projection(parameters.getCode());
+        Projection exact = new Projection(parameters.getCode());
+        this.projection = maxTransformError > 0 && !exact.isClosedForm() 
+                ? new GridProjection(parameters.getCode(), this.bounds, maxTransformError) : exact;
         // the 'scales' are the reciprocal of the resolution of the zoom level
         // the resolution is in projected units, thus the scales are pixels per 
         // projected unit.
         this.scales = parameters.getScales();
+        this.resolutions = new double[scales.length];
+        for (int zoom = 0; zoom < scales.length; zoom++) {
+            this.resolutions[zoom] = 1 / scales[zoom];
+        }
         // the name is the name of the TiledCRS, which is equal to the name of 
         // the 'projection' in the MapML projection registry*.
         this.name = name;
+        this.maxColumn = new long[scales.length];
+        this.maxRow = new long[scales.length];
         // calculate the maximum tile coordinates on a per-zoom-level basis.
         init();
     }
     private void init() {
       // establish the maximum tile coordinates for each zoom value
       // we know that the minimum x and y are 0 at 85.0511D North and 180.0 West
-
+      double[] pb = new double[4];
       for (int zoom = 0; zoom < this.scales.length ;zoom++) {
-        Bounds pb = new Bounds(
-            this.transformation.transform(this.bounds.min, this.scales[zoom]), 
-            this.transformation.transform(this.bounds.max, this.scales[zoom])
-        ) ;
-        // consider if the min should be automatically bumped up to 0,0 if 
-        // it is below that.  If it is below that, it might indicate an
-        // error in the TiledCRSConstants parameter for BOUNDS, possibly
-        // due to converting from a theoretical boundary in lat long to projected
-        // coordinates e.g. -90,-180 90,180 instead of -85.011,-180.0 85.011,180
-        
-        // in any case at the current time the tileBounds values are only used
-        // as an upper limit (i.e. only the tb.max is used (0 is taken to be min). 
-        Bounds tb = new Bounds(
-                pb.min.divideBy(TILESIZE).floor(),
-                pb.max.divideBy(TILESIZE).floor());
-        this.tileBounds.put(zoom, tb);
+        this.transformation.transform(this.bounds.min.x, this.bounds.min.y, this.scales[zoom], pb, 0);
+        this.transformation.transform(this.bounds.max.x, this.bounds.max.y, this.scales[zoom], pb, 2);
+        // the last tile is the one containing the max edge of the bounds,
+        // unless that edge falls on a tile boundary (allowing for rounding 
+        // error in the projected bounds)
+        this.maxColumn[zoom] = (long) Math.ceil(Math.max(pb[0], pb[2]) / TILESIZE - EDGE_TOLERANCE) - 1;
+        this.maxRow[zoom] = (long) Math.ceil(Math.max(pb[1], pb[3]) / TILESIZE - EDGE_TOLERANCE) - 1;
       }
     }
     public int getMaxZoom() {
-      return Collections.max(tileBounds.keySet());
-    }
-    
-    /**
-     * For testing purposes need to be able to set the pagesize. 
-     * @param size 
-     */
-    public void setPageSize(int size) {
-        pageSize = size;
+      return this.scales.length - 1;
     }
     
-    public int getPageSize() {
-        return pageSize;
-    }
-
     public String getName() {
       return name;
     }
@@ -134,6 +140,14 @@ public class TiledCRS {
         return this.TILESIZE;
     }
     
+    /**
+     * @return the maximum error of projected points, in projected units, or 0
+     * if points are projected exactly
+     */
+    public double getMaxTransformError() {
+        return projection instanceof GridProjection ? ((GridProjection) projection).getMaxError() : 0;
+    }
+    
     public Point latLngToPoint(LatLng latlng, int zoom) {
         Point p = this.projection.project(latlng);
         return this.transformation.transform(p, this.scales[zoom]);
@@ -146,6 +160,90 @@ public class TiledCRS {
     public Point untransform(Point p, int zoom) {
       return this.transformation.untransform(p, this.scales[zoom]);
     }
+    /**
+     * Untransform a pixel coordinate pair into a caller-provided array.
+     * @param x the pixel x
+     * @param y the pixel y
+     * @param zoom the zoom level
+     * @param dest receives the projected x,y
+     * @param offset the index in dest of the projected x
+     */
+    public void untransform(double x, double y, int zoom, double[] dest, int offset) {
+      this.transformation.untransformAtResolution(x, y, this.resolutions[zoom], dest, offset);
+    }
+    /**
+     * Untransform pixel bounds into projected bounds in a caller-provided array.
+     * @param bounds the extent, in projected, scaled units
+     * @param zoom the zoom level
+     * @param dest receives xmin,ymin,xmax,ymax in projected units
+     */
+    public void untransform(Bounds bounds, int zoom, double[] dest) {
+      untransform(bounds.min.x, bounds.min.y, zoom, dest, 0);
+      untransform(bounds.max.x, bounds.max.y, zoom, dest, 2);
+      // the y axis is flipped by the transformation
+      double t;
+      if (dest[0] > dest[2]) { t = dest[0]; dest[0] = dest[2]; dest[2] = t; }
+      if (dest[1] > dest[3]) { t = dest[1]; dest[1] = dest[3]; dest[3] = t; }
+    }
+    /**
+     * Convert interleaved longitude,latitude pairs to pixel coordinates at the
+     * zoom level, in place.  Safe for concurrent use.
+     * @param coords lng0,lat0,lng1,lat1... replaced by x0,y0,x1,y1...
+     * @param offset the index in coords of the first longitude
+     * @param count the number of coordinate pairs
+     * @param zoom the zoom level
+     */
+    public void latLngToPoint(double[] coords, int offset, int count, int zoom) {
+        this.projection.project(coords, offset, count);
+        this.transformation.transform(coords, offset, count, this.scales[zoom]);
+    }
+    /**
+     * Project interleaved longitude,latitude pairs, in place.  Safe for 
+     * concurrent use.
+     * @param coords lng0,lat0,lng1,lat1... replaced by projected x0,y0,x1,y1...
+     * @param offset the index in coords of the first longitude
+     * @param count the number of coordinate pairs
+     */
+    public void project(double[] coords, int offset, int count) {
+        this.projection.project(coords, offset, count);
+    }
+    /**
+     * Transform interleaved projected coordinates to pixel coordinates at 
+     * the zoom level, in place.
+     * @param coords x0,y0,x1,y1... in projected units, replaced by pixels
+     * @param offset the index in coords of the first x
+     * @param count the number of coordinate pairs
+     * @param zoom the zoom level
+     */
+    public void transform(double[] coords, int offset, int count, int zoom) {
+        this.transformation.transform(coords, offset, count, this.scales[zoom]);
+    }
+    /**
+     * Convert interleaved pixel coordinates at the zoom level to longitude,
+     * latitude pairs, in place.  Safe for concurrent use.
+     * @param coords x0,y0,x1,y1... replaced by lng0,lat0,lng1,lat1...
+     * @param offset the index in coords of the first x
+     * @param count the number of coordinate pairs
+     * @param zoom the zoom level
+     */
+    public void pointToLatLng(double[] coords, int offset, int count, int zoom) {
+        this.transformation.untransform(coords, offset, count, this.scales[zoom]);
+        this.projection.unproject(coords, offset, count);
+    }
+    /**
+     * Get the geographic location of the centre of each tile in a buffer.
+     * @param tiles the tiles
+     * @param coords receives lng0,lat0,lng1,lat1... for the tiles in order; 
+     * must have room for 2 * tiles.size() values
+     */
+    public void getTileCentres(TileBuffer tiles, double[] coords) {
+        int n = tiles.size();
+        for (int i = 0; i < n; i++) {
+            coords[2 * i] = (tiles.getColumn(i) + 0.5) * TILESIZE;
+            coords[2 * i + 1] = (tiles.getRow(i) + 0.5) * TILESIZE;
+        }
+        pointToLatLng(coords, 0, n, tiles.getZoom());
+    }
     /**
      * 
      * @param bounds the LatLngBounds that should be transformed to projected, scaled bounds
@@ -157,6 +255,43 @@ public class TiledCRS {
         LatLng ne = bounds.northEast;
         return new Bounds(latLngToPoint(sw,zoom),latLngToPoint(ne,zoom));
     }
+    /**
+     * Transform a geographic bounds into pixel bounds, densifying its edges 
+     * so that the curvature of the projected edges is taken into account.
+     * 
+     * @param bounds the LatLngBounds that should be transformed to projected, scaled bounds
+     * @param zoom the zoom scale at which to transform the bounds
+     * @param segments the number of segments into which each edge is divided
+     * @return the pixel bounds of the projected edges
+     */
+    public Bounds getPixelBounds(LatLngBounds bounds, int zoom, int segments) {
+        int n = Math.max(segments, 1);
+        LatLng sw = bounds.southWest;
+        LatLng ne = bounds.northEast;
+        double dlng = (ne.lng - sw.lng) / n, dlat = (ne.lat - sw.lat) / n;
+        // walk the ring: south edge east, east edge north, north edge west, west edge south
+        double[] coords = new double[8 * n];
+        for (int i = 0; i < n; i++) {
+            coords[2 * i] = sw.lng + i * dlng;
+            coords[2 * i + 1] = sw.lat;
+            coords[2 * (n + i)] = ne.lng;
+            coords[2 * (n + i) + 1] = sw.lat + i * dlat;
+            coords[2 * (2 * n + i)] = ne.lng - i * dlng;
+            coords[2 * (2 * n + i) + 1] = ne.lat;
+            coords[2 * (3 * n + i)] = sw.lng;
+            coords[2 * (3 * n + i) + 1] = ne.lat - i * dlat;
+        }
+        latLngToPoint(coords, 0, 4 * n, zoom);
+        double xmin = Double.POSITIVE_INFINITY, ymin = Double.POSITIVE_INFINITY;
+        double xmax = Double.NEGATIVE_INFINITY, ymax = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < coords.length; i += 2) {
+            xmin = Math.min(xmin, coords[i]);
+            xmax = Math.max(xmax, coords[i]);
+            ymin = Math.min(ymin, coords[i + 1]);
+            ymax = Math.max(ymax, coords[i + 1]);
+        }
+        return new Bounds(new Point(xmin, ymin), new Point(xmax, ymax));
+    }
     /**
      * 
      * @param bounds - projected, but not scaled bounds
@@ -164,9 +299,10 @@ public class TiledCRS {
      * @return pixel bounds transformation of the given bounds
      */
     public Bounds getPixelBounds(Bounds bounds, int zoom) {
-      Point min = this.transformation.transform(bounds.min, this.scales[zoom]).round();
-      Point max = this.transformation.transform(bounds.max, this.scales[zoom]).round();
-      return new Bounds(min, max);
+      double[] pb = new double[4];
+      this.transformation.transform(bounds.min.x, bounds.min.y, this.scales[zoom], pb, 0);
+      this.transformation.transform(bounds.max.x, bounds.max.y, this.scales[zoom], pb, 2);
+      return new Bounds(Math.round(pb[0]), Math.round(pb[1]), Math.round(pb[2]), Math.round(pb[3]));
     }
     // convenience methods
     public Point project(LatLng latLng) {
@@ -176,74 +312,180 @@ public class TiledCRS {
       return this.projection.unproject(point);
     }
     /**
-     * Count the width of the *tile* bounds at the given zoom level in integral tile units.
-     * @param zoom integer zoom level at which to calculate the width
-     * @param bounds the bounds for which the calculation/conversion should be done
-     * @return long the number of tiles wide the bounds is at the zoom level
+     * Clip the tile bounds of an extent to the tile matrix of a zoom level.
+     * @param extent the extent, in projected, scaled units
+     * @param zoom the zoom level
+     * @return the min column, min row, max column and max row of the tiles 
+     * that cover the extent and exist at the zoom level; the max is less than
+     * the min if there are none.
      */
-    protected long tileWidth(int zoom, Bounds bounds) {
-        if (zoom == -1 || bounds == null) return 0;
-        return (long)bounds.max.x+1 - (long)bounds.min.x;
+    private long minColumn(Bounds extent) {
+        return Math.max((long) Math.floor(extent.min.x / TILESIZE), 0);
+    }
+    private long minRow(Bounds extent) {
+        return Math.max((long) Math.floor(extent.min.y / TILESIZE), 0);
+    }
+    private long maxColumn(Bounds extent, int zoom) {
+        return Math.min((long) Math.floor(extent.max.x / TILESIZE), maxColumn[zoom]);
+    }
+    private long maxRow(Bounds extent, int zoom) {
+        return Math.min((long) Math.floor(extent.max.y / TILESIZE), maxRow[zoom]);
     }
     
+    /**
+     * Count the tiles which cover the bounds and exist at the zoom level.
+     * @param zoom the zoom level
+     * @param bounds the extent, in projected, scaled units
+     * @return the number of tiles
+     */
     public long tileCount(int zoom, Bounds bounds) {
         if (zoom == -1 || bounds == null) return 0;
-
-        Point min = bounds.min.divideBy(TILESIZE).floor();
-        Point max = bounds.max.divideBy(TILESIZE).floor();
-
-        // integer coordinate system, bump max values up to next increment
-        long width = (long) (max.x+1 - min.x);
-        long height = (long) (max.y+1 - min.y);
-        return width * height;
+        long columns = maxColumn(bounds, zoom) - minColumn(bounds) + 1;
+        long rows = maxRow(bounds, zoom) - minRow(bounds) + 1;
+        return columns <= 0 || rows <= 0 ? 0 : columns * rows;
     }
     
+    /**
+     * Get the range of the tiles which cover the bounds and exist at the 
+     * zoom level.
+     * @param bounds the extent, in projected, scaled units
+     * @param zoom the zoom level
+     * @param dest receives the min column, min row, max column and max row
+     * @return false if there are no such tiles
+     */
+    public boolean getTileRange(Bounds bounds, int zoom, long[] dest) {
+        dest[0] = minColumn(bounds);
+        dest[1] = minRow(bounds);
+        dest[2] = maxColumn(bounds, zoom);
+        dest[3] = maxRow(bounds, zoom);
+        return dest[2] >= dest[0] && dest[3] >= dest[1];
+    }
+    
+    /**
+     * Snap an extent outward to the tile grid.  The result selects exactly 
+     * the tiles that cover the extent, so all the extents which select the
+     * same tiles snap to the same bounds.  Tiles are selected by the column
+     * and row of the max ordinates, so the max of the result is the last 
+     * pixel of the last tile, not the edge of the next one.
+     * 
+     * @param extent the extent, in projected, scaled units
+     * @return the tile-aligned extent
+     */
+    public Bounds getTileAlignedBounds(Bounds extent) {
+        return new Bounds(Math.floor(extent.min.x / TILESIZE) * TILESIZE, 
+                Math.floor(extent.min.y / TILESIZE) * TILESIZE,
+                (Math.floor(extent.max.x / TILESIZE) + 1) * TILESIZE - 1, 
+                (Math.floor(extent.max.y / TILESIZE) + 1) * TILESIZE - 1);
+    }
+    
+    /**
+     * Get a page of the default size of the tiles covering the extent, in 
+     * order of increasing distance from the centre of the extent.
+     * 
+     * @param extent the extent, in projected, scaled units
+     * @param zoom the zoom level
+     * @param start the index of the first tile of the page in the order
+     * @return at most MapMLConstants.PAGESIZE tiles
+     */
     public List<TileCoordinates> getTilesForExtent(Bounds extent, int zoom, long start) {
-        
-        // the extent must be expressed in projected, scaled units
-        Bounds pb = extent;
-        // the min/max in decimal tiles truncated to the next lower integer tile ordinate
-        Bounds tb = new Bounds(
-                pb.min.divideBy(TILESIZE).floor(),
-                pb.max.divideBy(TILESIZE).floor());
-        long width = tileWidth(zoom, tb);
-        List<TileCoordinates> tiles = new ArrayList<>();
-        for (long i = (start > 0?(long)tb.min.y+start/width:(long)tb.min.y); i <= tb.max.y; i++) {
-            for (long j = (start > 0?(long)tb.min.x+(start % width):(long)tb.min.x); j <= tb.max.x;j++) {
-                if (tiles.size() < pageSize) {
-                  if (i >= 0 && i <= tileBounds.get(zoom).max.y && j >= 0 && j < tileBounds.get(zoom).max.x) {
-                    tiles.add(new TileCoordinates(j, i, zoom));
-                  }
-                } else {
-                  break;
+        return getTilesForExtent(extent, zoom, start, MapMLConstants.PAGESIZE);
+    }
+    /**
+     * Get a page of the tiles covering the extent, in order of increasing 
+     * distance from the centre of the extent.
+     * 
+     * @param extent the extent, in projected, scaled units
+     * @param zoom the zoom level
+     * @param start the index of the first tile of the page in the order
+     * @param pageSize the maximum number of tiles in the page
+     * @return at most pageSize tiles
+     */
+    public List<TileCoordinates> getTilesForExtent(Bounds extent, int zoom, long start, int pageSize) {
+        TileBuffer buffer = new TileBuffer(0);
+        getTilesForExtent(extent, zoom, start, pageSize, buffer);
+        List<TileCoordinates> tiles = new ArrayList<>(buffer.size());
+        for (int i = 0; i < buffer.size(); i++) {
+            tiles.add(new TileCoordinates(buffer.getColumn(i), buffer.getRow(i), zoom));
+        }
+        return tiles;
+    }
+    /**
+     * Fill a buffer with a page of the tiles covering the extent, in order of 
+     * increasing distance from the centre of the extent.
+     * 
+     * @param extent the extent, in projected, scaled units
+     * @param zoom the zoom level
+     * @param start the index of the first tile of the page in the order
+     * @param pageSize the maximum number of tiles in the page
+     * @param buffer the buffer to fill, replacing its contents
+     * @return the number of tiles in the page, at most pageSize
+     */
+    public int getTilesForExtent(Bounds extent, int zoom, long start, int pageSize, TileBuffer buffer) {
+        return getTilesForExtent(extent, zoom, start, pageSize, buffer, null);
+    }
+    /**
+     * Fill a buffer with a page of the tiles covering the extent which are
+     * kept by a filter, such as a coverage, in order of increasing distance
+     * from the centre of the extent.  Tiles which are not kept are skipped, 
+     * so the page is the next pageSize kept tiles of the order, and 
+     * {@link TileBuffer#getEnd()} is the start of the following page.  Rings
+     * of the order which the filter keeps no tiles of are skipped, and once
+     * MAX_SCAN_PAGES * pageSize tiles have been tested the page ends with 
+     * the tiles found so far; a page of an extent whose tiles are mostly not
+     * kept may therefore be short, or even empty, with its end before the 
+     * end of the extent.
+     * 
+     * @param extent the extent, in projected, scaled units
+     * @param zoom the zoom level
+     * @param start the index of the first tile to consider in the order
+     * @param pageSize the maximum number of tiles in the page
+     * @param buffer the buffer to fill, replacing its contents
+     * @param filter the tiles to keep, or null to keep all the tiles
+     * @return the number of tiles in the page, at most pageSize
+     */
+    public int getTilesForExtent(Bounds extent, int zoom, long start, int pageSize, TileBuffer buffer, TileFilter filter) {
+        buffer.reset(zoom, pageSize);
+        long count = tileCount(zoom, extent);
+        if (start >= count) {
+            buffer.setEnd(count);
+            return 0;
+        }
+        TileSpiral spiral = getTileSpiral(extent, zoom);
+        spiral.seek(start);
+        if (filter == null) {
+            while (buffer.size() < pageSize && spiral.next()) {
+                buffer.add(spiral.getX(), spiral.getY());
+            }
+        } else {
+            long limit = (long) pageSize * MAX_SCAN_PAGES;
+            long tested = 0;
+            while (buffer.size() < pageSize && tested < limit && spiral.next(filter, zoom)) {
+                tested++;
+                if (filter.covers(zoom, spiral.getX(), spiral.getY())) {
+                    buffer.add(spiral.getX(), spiral.getY());
                 }
             }
         }
+        buffer.setEnd(spiral.position());
+        return buffer.size();
+    }
+    /**
+     * 
+     * @param extent the extent, in projected, scaled units
+     * @param zoom the zoom level
+     * @return a cursor over the tiles of the extent that exist at the zoom 
+     * level, centred on the centre of the extent
+     */
+    public TileSpiral getTileSpiral(Bounds extent, int zoom) {
         // the centre of the extent in decimal tiles... not truncated
-        Point centre  = pb.getCentre().divideBy(TILESIZE);
-        Collections.sort(tiles, new TileComparator(centre));
-        return tiles;
+        double cx = (extent.min.x + extent.max.x) / 2 / TILESIZE;
+        double cy = (extent.min.y + extent.max.y) / 2 / TILESIZE;
+        return new TileSpiral(cx, cy, minColumn(extent), minRow(extent), 
+                maxColumn(extent, zoom), maxRow(extent, zoom));
     }
     public List<TileCoordinates> getTilesForExtent(LatLngBounds extent, int zoom, long start) {
       
         Bounds pb = getPixelBounds(extent, zoom);
         return getTilesForExtent(pb, zoom, start);
     }
-  /**
-   * Compares two tile coordinates and ranks them by distance from the constructed
-   * center point.
-   */
-  protected class TileComparator implements Comparator<TileCoordinates> {
-      private final Point centre;
-      public TileComparator(Point centre) {
-        this.centre = centre;
-      }
-      @Override
-      public int compare(TileCoordinates t1, TileCoordinates t2) {
-          // add 0.5 to ordinates to calculate distance to tile centres
-          Double d1 = this.centre.distanceTo(new Point(t1.x+0.5,t1.y+0.5));
-          Double d2 = this.centre.distanceTo(new Point(t2.x+0.5,t2.y+0.5));
-          return d1.compareTo(d2);
-      }
-  }
 }
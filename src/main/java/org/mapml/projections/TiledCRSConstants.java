@@ -48,9 +48,14 @@ public class TiledCRSConstants {
     static {
         final String OSMTILE_NAME = "OSMTILE";
         final String OSMTILE_CODE = "EPSG:3857";
-        Projection proj = new Projection(OSMTILE_CODE);
+        // the spherical mercator projection of 85.0511287798S,180W and 
+        // 85.0511287798N,180E, computed directly so that loading the 
+        // definitions does not create a proj4j projection
+        final double OSMTILE_RADIUS = 6378137D;
+        final double OSMTILE_MAX_X = Math.PI * OSMTILE_RADIUS;
+        final double OSMTILE_MAX_Y = OSMTILE_RADIUS * Math.log(Math.tan(Math.PI / 4 + Math.toRadians(85.0511287798D) / 2));
         final Bounds OSMTILE_BOUNDS = 
-                new Bounds(proj.project(new LatLng(-85.0511287798,-180)), proj.project(new LatLng(85.0511287798,180)));
+                new Bounds(new Point(-OSMTILE_MAX_X, -OSMTILE_MAX_Y), new Point(OSMTILE_MAX_X, OSMTILE_MAX_Y));
         final int OSMTILE_TILE_SIZE = 256;
         final double[] OSMTILE_SCALES = {
                   /* "scale" is the reciprocal of "resolution", per Proj4Leaflet.js */
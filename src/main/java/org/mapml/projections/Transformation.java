@@ -45,12 +45,17 @@ public class Transformation {
   private final double b;
   private final double c;
   private final double d;
+  // reciprocals of a and c, so that untransforming needs no division
+  private final double ia;
+  private final double ic;
   
   public Transformation(double a, double b, double c, double d) {
     this.a = a;
     this.b = b;
     this.c = c;
     this.d = d;
+    this.ia = 1 / a;
+    this.ic = 1 / c;
   }
   
   public Point transform(Point p, double scale) {
@@ -66,4 +71,69 @@ public class Transformation {
     }
     return new Point((p.x / scale - this.b) / this.a, (p.y / scale - this.d) / this.c);
   }
+  
+  /**
+   * Transform a coordinate pair into a caller-provided array.
+   * @param x the x to transform
+   * @param y the y to transform
+   * @param scale the scale of the zoom level
+   * @param dest receives the transformed x,y
+   * @param offset the index in dest of the transformed x
+   */
+  public void transform(double x, double y, double scale, double[] dest, int offset) {
+    if (Double.compare(scale, 0D) == 0) { 
+      scale = 1.0D;
+    }
+    dest[offset] = scale * (this.a * x + this.b);
+    dest[offset + 1] = scale * (this.c * y + this.d);
+  }
+  
+  /**
+   * Untransform a coordinate pair into a caller-provided array.  Takes the 
+   * resolution, the reciprocal of the scale, so that callers which keep the
+   * resolution of each zoom level avoid any division.
+   * @param x the x to untransform
+   * @param y the y to untransform
+   * @param resolution the reciprocal of the scale of the zoom level
+   * @param dest receives the untransformed x,y
+   * @param offset the index in dest of the untransformed x
+   */
+  public void untransformAtResolution(double x, double y, double resolution, double[] dest, int offset) {
+    dest[offset] = (x * resolution - this.b) * this.ia;
+    dest[offset + 1] = (y * resolution - this.d) * this.ic;
+  }
+  
+  /**
+   * Transform interleaved x,y pairs in place.
+   * @param coords x0,y0,x1,y1...
+   * @param offset the index in coords of the first x
+   * @param count the number of coordinate pairs
+   * @param scale the scale of the zoom level
+   */
+  public void transform(double[] coords, int offset, int count, double scale) {
+    if (Double.compare(scale, 0D) == 0) { 
+      scale = 1.0D;
+    }
+    for (int i = offset, end = offset + 2 * count; i < end; i += 2) {
+      coords[i] = scale * (this.a * coords[i] + this.b);
+      coords[i + 1] = scale * (this.c * coords[i + 1] + this.d);
+    }
+  }
+  
+  /**
+   * Untransform interleaved x,y pairs in place.
+   * @param coords x0,y0,x1,y1...
+   * @param offset the index in coords of the first x
+   * @param count the number of coordinate pairs
+   * @param scale the scale of the zoom level
+   */
+  public void untransform(double[] coords, int offset, int count, double scale) {
+    if (Double.compare(scale, 0D) == 0) { 
+      scale = 1.0D;
+    }
+    double resolution = 1 / scale;
+    for (int i = offset, end = offset + 2 * count; i < end; i += 2) {
+      untransformAtResolution(coords[i], coords[i + 1], resolution, coords, i);
+    }
+  }
 }
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.mapml.exceptions.MapMLException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * The definition of a layer as it is declared in web.xml: the name and 
+ * init-params of a MapMLServlet, and the URL patterns it is mapped to.
+ */
+public class LayerConfig {
+    static final String SERVLET_CLASS = "org.mapml.servlet.MapMLServlet";
+
+    private final String name;
+    private final Map<String, String> parameters;
+    private final List<String> urlPatterns;
+
+    public LayerConfig(String name, Map<String, String> parameters, List<String> urlPatterns) {
+        this.name = name;
+        this.parameters = Collections.unmodifiableMap(parameters);
+        this.urlPatterns = Collections.unmodifiableList(urlPatterns);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Map<String, String> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * @return the servlet-mapping url-patterns of the layer, e.g. /osm/*
+     */
+    public List<String> getUrlPatterns() {
+        return urlPatterns;
+    }
+
+    /**
+     * Read the MapMLServlet layers declared in a web.xml deployment descriptor.
+     * @param webXml the deployment descriptor
+     * @return the layers, in document order
+     * @throws IOException if the descriptor cannot be read
+     */
+    public static List<LayerConfig> read(InputStream webXml) throws IOException {
+        Document document;
+        try {
+            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+            dbf.setValidating(false);
+            dbf.setNamespaceAware(false);
+            dbf.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+            DocumentBuilder db = dbf.newDocumentBuilder();
+            document = db.parse(webXml);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new MapMLException("Error parsing web.xml: " + e.getMessage(), e);
+        }
+        Map<String, List<String>> mappings = new LinkedHashMap<>();
+        NodeList servletMappings = document.getElementsByTagName("servlet-mapping");
+        for (int i = 0; i < servletMappings.getLength(); i++) {
+            Element mapping = (Element) servletMappings.item(i);
+            String servlet = text(mapping, "servlet-name");
+            if (!mappings.containsKey(servlet)) {
+                mappings.put(servlet, new ArrayList<String>());
+            }
+            NodeList patterns = mapping.getElementsByTagName("url-pattern");
+            for (int j = 0; j < patterns.getLength(); j++) {
+                mappings.get(servlet).add(patterns.item(j).getTextContent().trim());
+            }
+        }
+        List<LayerConfig> layers = new ArrayList<>();
+        NodeList servlets = document.getElementsByTagName("servlet");
+        for (int i = 0; i < servlets.getLength(); i++) {
+            Element servlet = (Element) servlets.item(i);
+            if (!SERVLET_CLASS.equals(text(servlet, "servlet-class"))) {
+                continue;
+            }
+            String name = text(servlet, "servlet-name");
+            Map<String, String> parameters = new LinkedHashMap<>();
+            NodeList initParams = servlet.getElementsByTagName("init-param");
+            for (int j = 0; j < initParams.getLength(); j++) {
+                Element param = (Element) initParams.item(j);
+                // the container trims the value, but not lines within it
+                parameters.put(text(param, "param-name"), text(param, "param-value"));
+            }
+            List<String> patterns = mappings.get(name);
+            layers.add(new LayerConfig(name, parameters, 
+                    patterns != null ? patterns : Collections.<String>emptyList()));
+        }
+        return layers;
+    }
+
+    private static String text(Element parent, String name) {
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE && name.equals(child.getNodeName())) {
+                return child.getTextContent().trim();
+            }
+        }
+        return null;
+    }
+}
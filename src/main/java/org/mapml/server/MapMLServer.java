@@ -0,0 +1,291 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml.server;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.mapml.MapMLLayer;
+import org.mapml.MapMLResponse;
+import org.mapml.uri.MapMLRequest;
+
+/**
+ * Serves the layers declared in a web.xml from an embedded HTTP server, 
+ * without a servlet container.  Each request is handled on its own thread:
+ * a virtual thread when the JVM provides them (Java 21 and later), 
+ * otherwise a thread from a cached pool.  Requests are handled as 
+ * MapMLServlet handles them.
+ * <p>
+ * The URLs of the documents are made from the public base URL of the 
+ * server when one is given, and otherwise from the local address of the
+ * connection; the Host header of a request is not trusted, as it would 
+ * let any client add entries to the cache.
+ * <p>
+ * Usage: MapMLServer web.xml [port [context-path [base-url]]]
+ * <p>
+ * The build packages it as target/MapMLTileServlet-*-standalone.jar, run with
+ * java -jar.
+ */
+public class MapMLServer {
+    private static final Logger log = LogManager.getLogger();
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final List<MapMLLayer> layers = new ArrayList<>();
+
+    /**
+     * @param configs the layers to serve
+     * @param port the port on which to listen, 0 for any free port
+     * @param contextPath prefix of the layers' url-patterns, e.g. /mapml, or ""
+     * @throws IOException if the server cannot listen on the port
+     */
+    public MapMLServer(List<LayerConfig> configs, int port, String contextPath) throws IOException {
+        this(configs, port, contextPath, null);
+    }
+
+    /**
+     * @param configs the layers to serve
+     * @param port the port on which to listen, 0 for any free port
+     * @param contextPath prefix of the layers' url-patterns, e.g. /mapml, or ""
+     * @param baseUrl the URL at which clients reach the root of the server,
+     * e.g. https://maps.example.com, or null to use the local address
+     * @throws IOException if the server cannot listen on the port
+     */
+    public MapMLServer(List<LayerConfig> configs, int port, String contextPath, String baseUrl) throws IOException {
+        if (baseUrl != null) {
+            baseUrl = MapMLLayer.checkBaseUrl(baseUrl);
+        }
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        for (LayerConfig config : configs) {
+            MapMLLayer layer = new MapMLLayer(config.getName(), config.getParameters());
+            layers.add(layer);
+            for (String pattern : config.getUrlPatterns()) {
+                // /osm/* maps /osm and everything below it
+                String path = contextPath + (pattern.endsWith("/*") ? pattern.substring(0, pattern.length() - 2) : pattern);
+                server.createContext(path.isEmpty() ? "/" : path, new LayerHandler(layer, path, baseUrl));
+                log.info("Serving layer " + config.getName() + " at " + path);
+            }
+        }
+        executor = newThreadPerTaskExecutor();
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Use a virtual thread per request where the JVM has them; the source 
+     * level of the project predates them, so they are found reflectively.
+     */
+    private static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            log.info("Virtual threads are not available, using a thread pool");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stop accepting requests, waiting at most delay seconds for those in progress.
+     */
+    public void stop(int delay) {
+        server.stop(delay);
+        executor.shutdown();
+        for (MapMLLayer layer : layers) {
+            layer.close();
+            if (layer.getCache() != null) {
+                log.info(layer.getName() + ": " + layer.getCache());
+            }
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: MapMLServer web.xml [port [context-path [base-url]]]");
+            System.exit(2);
+        }
+        List<LayerConfig> configs;
+        try (InputStream in = new FileInputStream(new File(args[0]))) {
+            configs = LayerConfig.read(in);
+        }
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+        String contextPath = args.length > 2 ? args[2] : "";
+        String baseUrl = args.length > 3 ? args[3] : null;
+        final MapMLServer server = new MapMLServer(configs, port, contextPath, baseUrl);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                server.stop(1);
+            }
+        });
+        server.start();
+        log.info("MapML server listening on port " + server.getPort());
+    }
+
+    /**
+     * Handles the requests for a layer, as MapMLServlet does.
+     */
+    private static final class LayerHandler implements HttpHandler {
+        private final MapMLLayer layer;
+        private final String path;
+        private final String baseUrl;
+
+        LayerHandler(MapMLLayer layer, String path, String baseUrl) {
+            this.layer = layer;
+            this.path = path;
+            this.baseUrl = baseUrl;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                String requestPath = exchange.getRequestURI().getRawPath();
+                // a context matches any path with its prefix, but /osm is not /osmtile
+                if (requestPath.length() > path.length() && requestPath.charAt(path.length()) != '/' && !path.endsWith("/")) {
+                    sendError(exchange, 404, "Not found");
+                    return;
+                }
+                String method = exchange.getRequestMethod();
+                boolean head = "HEAD".equals(method);
+                if (!head && !"GET".equals(method)) {
+                    exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                    sendError(exchange, 405, "Method not allowed");
+                    return;
+                }
+                handleGet(exchange, requestPath, head);
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void handleGet(HttpExchange exchange, String requestPath, boolean head) throws IOException {
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("Access-Control-Allow-Origin", "*");
+            String scheme = baseUrl != null ? baseUrl.substring(0, baseUrl.indexOf(':')) : "http";
+            byte[] body;
+            try {
+                MapMLRequest query = MapMLRequest.current().parse(exchange.getRequestURI().getRawQuery());
+                InetSocketAddress local = exchange.getLocalAddress();
+                String base = (baseUrl != null ? baseUrl 
+                        : MapMLLayer.localUrl(scheme, local.getAddress().getHostAddress(), local.getPort())) + requestPath;
+                Headers request = exchange.getRequestHeaders();
+                MapMLResponse document = layer.respond(query, exchange.getRequestURI().getRawQuery(), scheme, base, 
+                        request.getFirst("Accept"), request.getFirst("Accept-Encoding"));
+
+                if (document.isRedirect()) {
+                    headers.set("Location", document.getLocation());
+                    exchange.sendResponseHeaders(302, -1);
+                    return;
+                }
+                if (document.getLocation() != null) {
+                    headers.set("Content-Location", document.getLocation());
+                }
+                headers.set("Content-Type", document.getContentType());
+                headers.set("Vary", document.getVary());
+                if (document.isNotModified(request.getFirst("If-None-Match"), request.getFirst("If-Modified-Since"))) {
+                    setHeaders(headers, document.getValidators());
+                    exchange.sendResponseHeaders(304, -1);
+                    return;
+                }
+                try {
+                    body = document.getDocument();
+                } catch (Exception e) {
+                    sendError(exchange, 500, e.getMessage());
+                    return;
+                }
+                setHeaders(headers, document.getHeaders());
+            } catch (RuntimeException e) {
+                sendError(exchange, 400, e.getMessage());
+                return;
+            }
+            if (head) {
+                headers.set("Content-Length", String.valueOf(body.length));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+
+        /**
+         * Set the headers of a document, which an error does not have, lest
+         * it be cached.
+         */
+        private void setHeaders(Headers headers, Map<String, String> values) {
+            for (Map.Entry<String, String> header : values.entrySet()) {
+                headers.set(header.getKey(), header.getValue());
+            }
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = (message == null ? "" : message).getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "text/plain;charset=UTF-8");
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
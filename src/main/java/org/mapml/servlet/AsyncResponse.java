@@ -0,0 +1,249 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml.servlet;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Writes a response asynchronously, so that slow clients do not hold a 
+ * container thread.  The document is rendered on a worker thread, then 
+ * written in chunks with Servlet 3.1 non-blocking I/O: a chunk is only 
+ * written when the output stream is ready, and the container calls back
+ * when the client has drained it.  The request is abandoned if it times
+ * out or the client goes away.
+ * 
+ * The worker only renders: it claims the request for writing, or for an 
+ * error, by moving it out of RENDERING, and the response is then set up on
+ * a container thread through {@link AsyncContext#start}.  A timeout which 
+ * finds the request still RENDERING claims it to send the error instead, 
+ * and a document rendered after that is dropped; a timeout while WRITING
+ * completes the request, leaving the response as it is.
+ */
+final class AsyncResponse implements WriteListener, AsyncListener, Runnable {
+    private static final Logger log = LogManager.getLogger();
+    static final int CHUNK_SIZE = 8192;
+
+    private final AsyncContext context;
+    private final HttpServletResponse response;
+    private final Callable<byte[]> renderer;
+    private final Map<String, String> headers;
+    // the document is being rendered; nothing has been written
+    private static final int RENDERING = 0;
+    // the document is being written as the client is ready for it
+    private static final int WRITING = 1;
+    // the request is complete, or has been handed back to the container
+    private static final int DONE = 2;
+
+    private final AtomicInteger state = new AtomicInteger(RENDERING);
+    private ServletOutputStream out;
+    private byte[] body;
+    private int position;
+
+    private AsyncResponse(AsyncContext context, HttpServletResponse response, Map<String, String> headers, 
+            Callable<byte[]> renderer) {
+        this.context = context;
+        this.response = response;
+        this.headers = headers;
+        this.renderer = renderer;
+    }
+
+    /**
+     * Put the request into asynchronous mode and render the response on
+     * the executor.
+     * @param request the request, which must support asynchronous operation
+     * @param response the response, with the headers of any response set
+     * @param timeout the time in milliseconds after which the request is abandoned
+     * @param executor the worker threads on which to render
+     * @param headers the headers of the document, e.g. Content-Encoding,
+     * which are only set once it has been rendered, and not on an error
+     * @param renderer renders the body of the response
+     */
+    static void start(HttpServletRequest request, HttpServletResponse response, long timeout, 
+            Executor executor, Map<String, String> headers, Callable<byte[]> renderer) {
+        AsyncContext context = request.startAsync(request, response);
+        context.setTimeout(timeout);
+        AsyncResponse asyncResponse = new AsyncResponse(context, response, headers, renderer);
+        context.addListener(asyncResponse);
+        try {
+            executor.execute(asyncResponse);
+        } catch (RejectedExecutionException e) {
+            // the render queue is full, or the server is shutting down
+            asyncResponse.fail(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Server busy");
+        }
+    }
+
+    /**
+     * Render the body, then hand it to a container thread to be written as
+     * the client is ready to receive it.
+     */
+    @Override
+    public void run() {
+        if (state.get() != RENDERING) return;
+        try {
+            body = renderer.call();
+        } catch (final Exception e) {
+            if (state.compareAndSet(RENDERING, DONE)) {
+                context.start(new Runnable() {
+                    @Override
+                    public void run() {
+                        sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+                    }
+                });
+            }
+            return;
+        }
+        if (!state.compareAndSet(RENDERING, WRITING)) {
+            // timed out while rendering: the container has the response
+            body = null;
+            return;
+        }
+        context.start(new Runnable() {
+            @Override
+            public void run() {
+                startWriting();
+            }
+        });
+    }
+
+    /**
+     * Set the headers of the document and wait for the client, on a 
+     * container thread.
+     */
+    private void startWriting() {
+        if (state.get() != WRITING) return;
+        try {
+            MapMLServlet.setHeaders(response, headers);
+            response.setContentLength(body.length);
+            out = response.getOutputStream();
+            // the container calls onWritePossible when the stream is ready
+            out.setWriteListener(this);
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Abandoning response: " + e.getMessage());
+            complete();
+        }
+    }
+
+    @Override
+    public void onWritePossible() throws IOException {
+        while (state.get() == WRITING && out.isReady()) {
+            if (position == body.length) {
+                complete();
+                return;
+            }
+            int length = Math.min(CHUNK_SIZE, body.length - position);
+            out.write(body, position, length);
+            position += length;
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        // usually the client has gone away
+        log.debug("Abandoning response: " + (t != null ? t.getMessage() : "error"));
+        complete();
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) throws IOException {
+        if (state.compareAndSet(RENDERING, DONE)) {
+            // nothing has touched the response
+            response.reset();
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            context.complete();
+        } else {
+            // the document is being written: it is cut short
+            complete();
+        }
+    }
+
+    @Override
+    public void onError(AsyncEvent event) throws IOException {
+        onError(event.getThrowable());
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) throws IOException {
+        state.set(DONE);
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) throws IOException {
+    }
+
+    /**
+     * Send an error instead of the document, unless the request has already
+     * timed out.
+     */
+    private void fail(int status, String message) {
+        if (state.compareAndSet(RENDERING, DONE)) {
+            sendError(status, message);
+        }
+    }
+
+    private void sendError(int status, String message) {
+        try {
+            response.sendError(status, message);
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Error sending error: " + e.getMessage());
+        }
+        context.complete();
+    }
+
+    private void complete() {
+        if (state.getAndSet(DONE) != DONE) {
+            context.complete();
+        }
+    }
+}
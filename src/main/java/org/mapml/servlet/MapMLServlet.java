@@ -41,24 +41,41 @@
 package org.mapml.servlet;
 
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import org.mapml.MapMLServiceBounds;
-import org.mapml.MapMLPrinter;
-import org.mapml.exceptions.BadRequestException;
-import org.mapml.projections.Bounds;
-import org.mapml.projections.Point;
-import org.mapml.uri.QueryParam;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.mapml.MapMLLayer;
+import org.mapml.MapMLResponse;
+import org.mapml.exceptions.InvalidParameterException;
+import org.mapml.exceptions.MapMLException;
+import org.mapml.uri.MapMLRequest;
 
-@WebServlet(name = "MapMLServlet", urlPatterns = {"/MapMLServlet"})
+@WebServlet(name = "MapMLServlet", urlPatterns = {"/MapMLServlet"}, asyncSupported = true)
 public class MapMLServlet extends HttpServlet {
     private static final long serialVersionUID = 1L;
-    private MapMLPrinter printer;
+    private static final Logger log = LogManager.getLogger();
+    /**
+     * Prefix of the servlet context attribute under which each layer's
+     * response cache is published, e.g. org.mapml.cache.osm
+     */
+    public static final String CACHE_ATTRIBUTE_PREFIX = "org.mapml.cache.";
+    private MapMLLayer layer;
+    // the public URL of the root of the server, or null to use the local address
+    private String baseUrl;
+    // the render pool when responses are written asynchronously, else null
+    private ExecutorService executor;
+    private long asyncTimeout;
 
     /**
      * Handles the HTTP <code>GET</code> method.
@@ -78,35 +95,61 @@ public class MapMLServlet extends HttpServlet {
     @Override
     public void init() throws ServletException {
         ServletConfig config = getServletConfig();
-        Bounds extent = new Bounds(config.getInitParameter("extent"));
-        String[] range = config.getInitParameter("zoomRange").split(",");
-        
-        String projection = config.getInitParameter("projection");
-        printer = new MapMLPrinter(projection);
-        
-        printer.setServiceBounds(new MapMLServiceBounds(Integer.parseInt(range[0]),Integer.parseInt(range[1]),extent, printer.getTiledCRS()));
-        
-        String tileUrlTemplates = config.getInitParameter("tileUrlTemplate");
-        String wmsUrlTemplates = config.getInitParameter("wmsUrlTemplate");
-        
-        if (tileUrlTemplates == null && wmsUrlTemplates == null) {
-            throw new ServletException("Error reading tileUrlTemplate and wmsUrlTemplate config parameters from web.xml\n");
+        Map<String, String> parameters = new LinkedHashMap<>();
+        for (Enumeration<String> e = config.getInitParameterNames(); e.hasMoreElements();) {
+            String name = e.nextElement();
+            parameters.put(name, config.getInitParameter(name));
+        }
+        try {
+            layer = new MapMLLayer(getServletName(), parameters);
+        } catch (MapMLException e) {
+            throw new ServletException(e.getMessage() + " in web.xml", e);
         }
-        if (tileUrlTemplates != null) {
-            printer.setTileUrlTemplates(tileUrlTemplates.split("\\n"));
-        printer.setTileServers(config.getInitParameter("tileServers"));
+        // baseUrl, an init-param or a context-param for all the layers, is 
+        // the URL at which clients reach the server, e.g. behind a proxy
+        String base = config.getInitParameter("baseUrl");
+        if (base == null) {
+            base = getServletContext().getInitParameter("baseUrl");
+        }
+        try {
+            baseUrl = base == null || base.trim().isEmpty() ? null : MapMLLayer.checkBaseUrl(base);
+        } catch (MapMLException e) {
+            throw new ServletException(e.getMessage() + " in web.xml", e);
         }
-        if (wmsUrlTemplates != null) {
-            printer.setWmsUrlTemplates(wmsUrlTemplates.split("\\n"));
+        if (layer.getCache() != null) {
+            getServletContext().setAttribute(CACHE_ATTRIBUTE_PREFIX + getServletName(), layer.getCache());
         }
-        printer.setLicenseUrl(config.getInitParameter("licenseUrl"));
-        printer.setLicenseTitle(config.getInitParameter("licenseTitle"));
-        printer.setTitle(config.getInitParameter("title"));
         
-        if (config.getInitParameter("legendUrl") != null) {
-            printer.setLegendUrl(config.getInitParameter("legendUrl"));
+        // async=true renders on a shared pool of asyncThreads workers and 
+        // writes with non-blocking I/O, abandoning the request after 
+        // asyncTimeout milliseconds
+        if (Boolean.parseBoolean(config.getInitParameter("async"))) {
+            executor = RenderPool.acquire(intParameter(config, "asyncThreads", 4));
+            asyncTimeout = intParameter(config, "asyncTimeout", 30000);
         }
     }
+    
+    private static int intParameter(ServletConfig config, String name, int defaultValue) {
+        String value = config.getInitParameter(name);
+        return value == null || value.trim().isEmpty() ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    @Override
+    public void destroy() {
+        if (layer != null && layer.getCache() != null) {
+            log.info(getServletName() + ": " + layer.getCache());
+            getServletContext().removeAttribute(CACHE_ATTRIBUTE_PREFIX + getServletName());
+            layer.getCache().clear();
+        }
+        if (layer != null) {
+            layer.close();
+        }
+        if (executor != null) {
+            RenderPool.release();
+            executor = null;
+        }
+        super.destroy();
+    }
     /**
      * Processes <code>GET</code> requests.
      *
@@ -119,51 +162,103 @@ public class MapMLServlet extends HttpServlet {
             throws ServletException, IOException {
 
         try {
-            int    zoom = (Integer)QueryParam.zoom.parse(request);
-            
-            double xmin = (double)QueryParam.xmin.parse(request);
-            double ymin = (double)QueryParam.ymin.parse(request);
-            double xmax = (double)QueryParam.xmax.parse(request);
-            double ymax = (double)QueryParam.ymax.parse(request);
-            
-            Bounds bounds = null;
-            if (!(xmin == 0D && ymin == 0D && xmax == 0D && ymax == 0D)) {
-                bounds = new Bounds(new Point(xmin,ymin), new Point(xmax,ymax));
-            }
+            MapMLRequest query = MapMLRequest.current().parse(request.getQueryString());
+            // not getRequestURL(), which is made from the Host header
+            String scheme = baseUrl != null ? baseUrl.substring(0, baseUrl.indexOf(':')) : request.getScheme();
+            String base = (baseUrl != null ? baseUrl 
+                    : MapMLLayer.localUrl(scheme, request.getLocalAddr(), request.getLocalPort())) + request.getRequestURI();
+            // alt is a stealth parameter, not part of the contract good for debugging responses though
+            // tile templates and binary documents are smaller alternatives
+            // to XML with a tile element per tile
+            MapMLResponse document = layer.respond(query, request.getQueryString(), scheme, base, 
+                    request.getHeader("Accept"), request.getHeader("Accept-Encoding"));
 
-            String projection = (String)QueryParam.projection.parse(request);
-            String availableProjection = printer.getTiledCRS().getName();
-            // validate that the requested projection is available
-            if (!availableProjection.equalsIgnoreCase(projection) && !projection.equalsIgnoreCase("OSMTILE")) {
-                // this could probably be a 416, I think.
-                throw new BadRequestException("Invalid projection requested: "+ projection);
+            // with canonicalUrls, all the requests for the same tiles share a URL
+            if (document.isRedirect()) {
+                response.sendRedirect(document.getLocation());
+                return;
             }
-            projection = availableProjection;
-
-            // alt is a stealth parameter, not part of the contract good for debugging responses though
-            String alt = (String)QueryParam.alt.parse(request);
-            String responseType;
-            if (alt != null && alt.equalsIgnoreCase("xml")) {
-                responseType = "application/xml";
-            } else {
-                responseType = "text/mapml;projection="+projection+";zoom="+zoom;
+            if (document.getLocation() != null) {
+                response.setHeader("Content-Location", document.getLocation());
             }
-            response.setContentType(responseType);
-            response.setCharacterEncoding("UTF-8");
-            
-            // start should be set if this is not the first page of large request
-            long start = (Long)QueryParam.start.parse(request);
-
-            // getRequestURL() omits the query part
-            String base = request.getRequestURL().toString();
+            response.setContentType(document.getContentType());
+            response.setHeader("Vary", document.getVary());
+            // the headers of the document, which an error does not have, 
+            // lest it be cached
+            if (document.isNotModified(request.getHeader("If-None-Match"), request.getHeader("If-Modified-Since"))) {
+                setHeaders(response, document.getValidators());
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+            Map<String, String> headers = document.getHeaders();
 
-            try (PrintWriter out = response.getWriter()) {
-                printer.printMapMLDoc(request.getScheme(), responseType, start, base,  zoom, bounds, projection, out);
+            if (executor != null && request.isAsyncSupported()) {
+                AsyncResponse.start(request, response, asyncTimeout, executor, headers, renderer(document));
+                return;
+            }
+            if (layer.getCache() != null) {
+                byte[] body;
+                try {
+                    body = document.getDocument();
+                } catch (Exception e) {
+                    sendError(response, 500, e.getMessage());
+                    return;
+                }
+                setHeaders(response, headers);
+                response.setContentLength(body.length);
+                try (OutputStream out = response.getOutputStream()) {
+                    out.write(body);
+                }
+                return;
+            }
+            // the document is streamed, so its headers are sent first
+            setHeaders(response, headers);
+            OutputStream out = response.getOutputStream();
+            try {
+                document.printDocument(out);
             } catch (Exception e) {
-                response.sendError(500, e.getMessage());
+                sendError(response, 500, e.getMessage());
+                return;
             }
+            out.close();
+        } catch (InvalidParameterException e) {
+            log.debug(e.getMessage());
+            sendError(response, 400, e.getMessage());
         } catch (RuntimeException e) {
-            response.sendError(400, e.getMessage());
+            sendError(response, 400, e.getMessage());
         }
     }
+
+    static void setHeaders(HttpServletResponse response, Map<String, String> headers) {
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            response.setHeader(header.getKey(), header.getValue());
+        }
+    }
+
+    /**
+     * Send an error in place of a document whose headers may have been set:
+     * they are discarded, so that e.g. the error is neither labelled as gzip
+     * nor cacheable.
+     * @throws IOException if the document has already been partly sent
+     */
+    private static void sendError(HttpServletResponse response, int status, String message) throws IOException {
+        if (response.isCommitted()) {
+            throw new IOException("Error after the response was committed: " + message);
+        }
+        response.reset();
+        response.addHeader("Access-Control-Allow-Origin", "*");
+        response.sendError(status, message);
+    }
+
+    /**
+     * Render the document on a worker thread, through the cache if there is one.
+     */
+    private static Callable<byte[]> renderer(final MapMLResponse document) {
+        return new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                return document.getDocument();
+            }
+        };
+    }
 }
@@ -0,0 +1,352 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml.uri;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import org.mapml.exceptions.InvalidParameterException;
+import org.mapml.projections.Bounds;
+
+/**
+ * The parameters of a MapML request, parsed from the raw query string in a
+ * single pass into primitive fields.  As with ServletRequest.getParameter,
+ * the first value of a repeated parameter is used, and absent or blank 
+ * parameters take their default values.
+ * <p>
+ * Parsing allocates only for values which must become Strings or doubles,
+ * and invalid values throw one of a set of preallocated, stackless 
+ * exceptions, so that decoding a request costs little even when it is 
+ * malformed.  Instances are reusable but not thread-safe; see {@link #current()}.
+ */
+public final class MapMLRequest {
+    public static final int DEFAULT_ZOOM = -1;
+    public static final int MAX_ZOOM = 25;
+    public static final long MAX_START = 68719476736L;
+    public static final String DEFAULT_PROJECTION = "OSMTILE";
+    /** values of the tiles parameter, which selects how tiles are referenced */
+    public static final String TILES_ELEMENTS = "elements", TILES_TEMPLATES = "templates";
+    // requested projections are usually one of these, which are reused
+    private static final String[] PROJECTIONS = {"OSMTILE", "CBMTILE", "APSTILE"};
+
+    private static final InvalidParameterException INVALID_ZOOM = 
+            new InvalidParameterException("zoom", "Invalid zoom: valid zoom values are between 0 and " + MAX_ZOOM);
+    private static final InvalidParameterException INVALID_START = 
+            new InvalidParameterException("start", "Invalid start: must be a positive integer no greater than " + MAX_START);
+    private static final InvalidParameterException INVALID_XMIN = invalid("xmin");
+    private static final InvalidParameterException INVALID_YMIN = invalid("ymin");
+    private static final InvalidParameterException INVALID_XMAX = invalid("xmax");
+    private static final InvalidParameterException INVALID_YMAX = invalid("ymax");
+    private static final InvalidParameterException INVALID_TILES = 
+            new InvalidParameterException("tiles", "Invalid tiles: must be " + TILES_ELEMENTS + " or " + TILES_TEMPLATES);
+    private static final InvalidParameterException INVALID_ENCODING = 
+            new InvalidParameterException(null, "Invalid percent-encoding in query string");
+
+    // bits of the parameters which have been parsed
+    private static final int ZOOM = 1, XMIN = 2, YMIN = 4, XMAX = 8, YMAX = 16, PROJECTION = 32, ALT = 64, START = 128, TILES = 256;
+
+    private static final ThreadLocal<MapMLRequest> CURRENT = new ThreadLocal<MapMLRequest>() {
+        @Override
+        protected MapMLRequest initialValue() {
+            return new MapMLRequest();
+        }
+    };
+
+    private int zoom;
+    private double xmin, ymin, xmax, ymax;
+    private String projection;
+    private String alt;
+    private long start;
+    private String tiles;
+    private int parsed;
+
+    public MapMLRequest() {
+        reset();
+    }
+
+    private static InvalidParameterException invalid(String name) {
+        return new InvalidParameterException(name, "Invalid " + name + ": must be a number");
+    }
+
+    /**
+     * @return the calling thread's reusable request, whose values are valid 
+     * until the thread parses another query with it
+     */
+    public static MapMLRequest current() {
+        return CURRENT.get();
+    }
+
+    private void reset() {
+        zoom = DEFAULT_ZOOM;
+        xmin = ymin = xmax = ymax = 0D;
+        projection = DEFAULT_PROJECTION;
+        alt = null;
+        start = 0L;
+        tiles = null;
+        parsed = 0;
+    }
+
+    /**
+     * Parse a raw (still percent-encoded) query string, replacing the 
+     * values of any previous request.
+     * @param query the query string, without the leading '?', may be null
+     * @return this request
+     * @throws InvalidParameterException if a parameter value is invalid
+     */
+    public MapMLRequest parse(String query) {
+        reset();
+        if (query == null) {
+            return this;
+        }
+        int length = query.length();
+        int i = 0;
+        while (i < length) {
+            int end = query.indexOf('&', i);
+            if (end < 0) {
+                end = length;
+            }
+            int eq = query.indexOf('=', i);
+            if (eq > i && eq < end) {
+                parameter(query, i, eq, eq + 1, end);
+            }
+            i = end + 1;
+        }
+        return this;
+    }
+
+    /**
+     * Parse the value [from, to) of the parameter whose name is [name, eq)
+     */
+    private void parameter(String query, int name, int eq, int from, int to) {
+        int bit = bit(query, name, eq - name);
+        if (bit == 0 || (parsed & bit) != 0 || isBlank(query, from, to)) {
+            return;
+        }
+        parsed |= bit;
+        String encoded = null;
+        if (needsDecoding(query, from, to)) {
+            encoded = decode(query.substring(from, to));
+            query = encoded;
+            from = 0;
+            to = encoded.length();
+            if (isBlank(query, from, to)) {
+                return;
+            }
+        }
+        switch (bit) {
+            case ZOOM:
+                long z = parseLong(query, from, to, INVALID_ZOOM);
+                if (z < DEFAULT_ZOOM || z > MAX_ZOOM) throw INVALID_ZOOM;
+                zoom = (int) z;
+                break;
+            case START:
+                long s = parseLong(query, from, to, INVALID_START);
+                if (s < 0L || s > MAX_START) throw INVALID_START;
+                start = s;
+                break;
+            case XMIN:
+                xmin = parseDouble(query, from, to, INVALID_XMIN);
+                break;
+            case YMIN:
+                ymin = parseDouble(query, from, to, INVALID_YMIN);
+                break;
+            case XMAX:
+                xmax = parseDouble(query, from, to, INVALID_XMAX);
+                break;
+            case YMAX:
+                ymax = parseDouble(query, from, to, INVALID_YMAX);
+                break;
+            case PROJECTION:
+                projection = projection(query, from, to);
+                break;
+            case ALT:
+                alt = query.substring(from, to);
+                break;
+            case TILES:
+                tiles = tiles(query, from, to);
+                break;
+        }
+    }
+
+    private static int bit(String query, int name, int length) {
+        switch (length) {
+            case 3:
+                return query.startsWith("alt", name) ? ALT : 0;
+            case 4:
+                if (query.startsWith("zoom", name)) return ZOOM;
+                if (query.startsWith("xmin", name)) return XMIN;
+                if (query.startsWith("ymin", name)) return YMIN;
+                if (query.startsWith("xmax", name)) return XMAX;
+                if (query.startsWith("ymax", name)) return YMAX;
+                return 0;
+            case 5:
+                if (query.startsWith("start", name)) return START;
+                return query.startsWith("tiles", name) ? TILES : 0;
+            case 10:
+                return query.startsWith("projection", name) ? PROJECTION : 0;
+            default:
+                return 0;
+        }
+    }
+
+    private static boolean isBlank(String s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) > ' ') return false;
+        }
+        return true;
+    }
+
+    private static boolean needsDecoding(String s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c == '%' || c == '+') return true;
+        }
+        return false;
+    }
+
+    private static String decode(String s) {
+        try {
+            return URLDecoder.decode(s, "UTF-8");
+        } catch (IllegalArgumentException | UnsupportedEncodingException e) {
+            throw INVALID_ENCODING;
+        }
+    }
+
+    private static long parseLong(String s, int from, int to, InvalidParameterException invalid) {
+        int i = from;
+        boolean negative = false;
+        char first = s.charAt(i);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            i++;
+        }
+        if (i == to) throw invalid;
+        long value = 0;
+        for (; i < to; i++) {
+            int digit = s.charAt(i) - '0';
+            // any value this large is out of range for zoom and start
+            if (digit < 0 || digit > 9 || value > Long.MAX_VALUE / 100) throw invalid;
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private static double parseDouble(String s, int from, int to, InvalidParameterException invalid) {
+        try {
+            return Double.parseDouble(s.substring(from, to));
+        } catch (NumberFormatException e) {
+            throw invalid;
+        }
+    }
+
+    private static String projection(String s, int from, int to) {
+        for (String projection : PROJECTIONS) {
+            if (projection.length() == to - from && s.startsWith(projection, from)) {
+                return projection;
+            }
+        }
+        return s.substring(from, to);
+    }
+
+    private static String tiles(String s, int from, int to) {
+        if (to - from == TILES_TEMPLATES.length() && s.startsWith(TILES_TEMPLATES, from)) {
+            return TILES_TEMPLATES;
+        }
+        if (to - from == TILES_ELEMENTS.length() && s.startsWith(TILES_ELEMENTS, from)) {
+            return TILES_ELEMENTS;
+        }
+        throw INVALID_TILES;
+    }
+
+    public int getZoom() {
+        return zoom;
+    }
+
+    public double getXmin() {
+        return xmin;
+    }
+
+    public double getYmin() {
+        return ymin;
+    }
+
+    public double getXmax() {
+        return xmax;
+    }
+
+    public double getYmax() {
+        return ymax;
+    }
+
+    /**
+     * @return the bounds of the request, or null if none were requested 
+     * (all ordinates are 0)
+     */
+    public Bounds getBounds() {
+        if (xmin == 0D && ymin == 0D && xmax == 0D && ymax == 0D) {
+            return null;
+        }
+        return new Bounds(xmin, ymin, xmax, ymax);
+    }
+
+    public String getProjection() {
+        return projection;
+    }
+
+    /**
+     * @return the alt parameter, a stealth parameter good for debugging 
+     * responses, or null
+     */
+    public String getAlt() {
+        return alt;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return {@link #TILES_ELEMENTS}, {@link #TILES_TEMPLATES}, or null if
+     * the request does not choose how tiles are referenced
+     */
+    public String getTiles() {
+        return tiles;
+    }
+}
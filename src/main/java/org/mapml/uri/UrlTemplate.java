@@ -0,0 +1,227 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+
+package org.mapml.uri;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.mapml.MapMLFragment;
+import org.mapml.MapMLSink;
+
+/**
+ * UrlTemplate - a tile or WMS URL template, compiled once into a list of
+ * literal segments and typed variable slots.  The literal segments are
+ * recorded as fragments at compile time, so rendering a reference is a 
+ * matter of writing the segments and the variable values as the parts of an
+ * attribute value to a {@link MapMLSink}, without regular expressions or 
+ * intermediate Strings.
+ * 
+ * A placeholder which is not a recognized variable, or which is not 
+ * applicable to the kind of reference being rendered (e.g. {xmin} in a tile
+ * template), is reproduced verbatim in the output.
+ */
+public final class UrlTemplate {
+
+    public enum Variable {
+        scheme, s, z, x, y, xmin, ymin, xmax, ymax, w, h;
+
+        private final String placeholder = "{" + name() + "}";
+
+        public String getPlaceholder() { return placeholder; }
+
+        static Variable forName(String name) {
+            for (Variable v : values()) {
+                if (v.name().equals(name)) return v;
+            }
+            return null;
+        }
+    }
+
+    private final String template;
+    // literals.length == variables.length + 1
+    private final MapMLFragment[] literals;
+    private final Variable[] variables;
+
+    private UrlTemplate(String template, MapMLFragment[] literals, Variable[] variables) {
+        this.template = template;
+        this.literals = literals;
+        this.variables = variables;
+    }
+
+    /**
+     * Compile the template.  Leading and trailing white space is removed.
+     * @param template a URL template containing {variable} placeholders
+     * @return the compiled template
+     */
+    public static UrlTemplate compile(String template) {
+        String t = template.trim();
+        List<MapMLFragment> literals = new ArrayList<>();
+        List<Variable> variables = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < t.length()) {
+            int open = t.indexOf('{', i);
+            int close = open < 0 ? -1 : t.indexOf('}', open);
+            if (close < 0) {
+                literal.append(t, i, t.length());
+                break;
+            }
+            Variable v = Variable.forName(t.substring(open + 1, close));
+            if (v == null) {
+                literal.append(t, i, close + 1);
+            } else {
+                literal.append(t, i, open);
+                literals.add(MapMLFragment.value(literal.toString()));
+                variables.add(v);
+                literal.setLength(0);
+            }
+            i = close + 1;
+        }
+        literals.add(MapMLFragment.value(literal.toString()));
+        return new UrlTemplate(t, 
+                literals.toArray(new MapMLFragment[literals.size()]), 
+                variables.toArray(new Variable[variables.size()]));
+    }
+
+    /**
+     * Compile each of the non-blank templates in the array.
+     * @param templates the templates, in z-order
+     * @return the compiled templates, in the same order
+     */
+    public static UrlTemplate[] compile(String[] templates) {
+        List<UrlTemplate> compiled = new ArrayList<>();
+        for (String template : templates) {
+            if (template != null && !template.trim().isEmpty()) {
+                compiled.add(compile(template));
+            }
+        }
+        return compiled.toArray(new UrlTemplate[compiled.size()]);
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    public boolean uses(Variable variable) {
+        for (Variable v : variables) {
+            if (v == variable) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Write the tile URL as parts of an attribute value.
+     * @param out the sink
+     * @param scheme the value for {scheme}
+     * @param server the value for {s}
+     * @param z the value for {z}
+     * @param x the value for {x}
+     * @param y the value for {y}
+     * @throws IOException if the sink cannot write
+     */
+    public void writeTile(MapMLSink out, String scheme, String server, int z, long x, long y) throws IOException {
+        for (int i = 0; i < variables.length; i++) {
+            out.fragment(literals[i]);
+            switch (variables[i]) {
+                case scheme: out.value(scheme); break;
+                case s: out.value(server); break;
+                case z: out.value((long) z); break;
+                case x: out.value(x); break;
+                case y: out.value(y); break;
+                default: out.value(variables[i].getPlaceholder());
+            }
+        }
+        out.fragment(literals[variables.length]);
+    }
+
+    /**
+     * Write the template of the tiles, for clients to expand: {scheme} is 
+     * filled in, and {s}, {z}, {x} and {y} are left for the client.
+     * @param out the sink
+     * @param scheme the value for {scheme}
+     * @throws IOException if the sink cannot write
+     */
+    public void writeTemplate(MapMLSink out, String scheme) throws IOException {
+        for (int i = 0; i < variables.length; i++) {
+            out.fragment(literals[i]);
+            switch (variables[i]) {
+                case scheme: out.value(scheme); break;
+                default: out.value(variables[i].getPlaceholder());
+            }
+        }
+        out.fragment(literals[variables.length]);
+    }
+
+    /**
+     * Write the WMS GetMap URL as parts of an attribute value.
+     * @param out the sink
+     * @param scheme the value for {scheme}
+     * @param xmin the value for {xmin}
+     * @param ymin the value for {ymin}
+     * @param xmax the value for {xmax}
+     * @param ymax the value for {ymax}
+     * @param width the value for {w}
+     * @param height the value for {h}
+     * @throws IOException if the sink cannot write
+     */
+    public void writeImage(MapMLSink out, String scheme, double xmin, double ymin, double xmax, double ymax, long width, long height) throws IOException {
+        for (int i = 0; i < variables.length; i++) {
+            out.fragment(literals[i]);
+            switch (variables[i]) {
+                case scheme: out.value(scheme); break;
+                case xmin: out.value(xmin); break;
+                case ymin: out.value(ymin); break;
+                case xmax: out.value(xmax); break;
+                case ymax: out.value(ymax); break;
+                case w: out.value(width); break;
+                case h: out.value(height); break;
+                default: out.value(variables[i].getPlaceholder());
+            }
+        }
+        out.fragment(literals[variables.length]);
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.mapml.projections.Bounds;
+import org.mapml.projections.LatLng;
+import org.mapml.projections.TiledCRS;
+
+public class MapMLBinaryTest {
+  private static final String BINARY = MapMLBinary.MEDIA_TYPE + ";projection=OSMTILE;zoom=15";
+  private MapMLPrinter printer;
+
+  @Before
+  public void setUp() {
+    printer = new MapMLPrinter("OSMTILE");
+    TiledCRS tcrs = printer.getTiledCRS();
+    printer.setServiceBounds(new MapMLServiceBounds(0, 18, 
+        new Bounds(tcrs.project(new LatLng(-85.0511287798, -180)), tcrs.project(new LatLng(85.0511287798, 180))), tcrs));
+    printer.setTileServers("a,b,c");
+    printer.setTileUrlTemplates(new String[]{"{scheme}://{s}.example.com/tile/{z}/{x}/{y}/", "{scheme}://none.foobar.com/tile/?z={z}&x={x}&y={y}/"});
+    printer.setWmsUrlTemplates(new String[]{"{scheme}://foo.example.com/wms/?W={w}&H={h}&BBOX={xmin},{ymin},{xmax},{ymax}"});
+    printer.setTitle("Tiles & <images> \"quoted\" é");
+    printer.setLicenseUrl("http://example.org/license?a=1&b=2");
+    printer.setLicenseTitle("© OpenStreetMap contributors");
+  }
+
+  private byte[] print(String responseType, long start, int zoom, Bounds bounds, boolean templates) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    printer.printMapMLDoc("http", responseType, start, "http://example.com/?x=1&y=2", zoom, bounds, "OSMTILE", templates, out);
+    return out.toByteArray();
+  }
+
+  private static byte[] decode(byte[] binary) throws IOException {
+    ByteArrayOutputStream xml = new ByteArrayOutputStream();
+    MapMLBinary.decode(new ByteArrayInputStream(binary), xml);
+    return xml.toByteArray();
+  }
+
+  /**
+   * Decoding the binary document gives the XML document, with the response
+   * type in the Content-Type meta element changed.
+   */
+  private void assertRoundTrip(long start, int zoom, Bounds bounds, boolean templates) throws IOException {
+    byte[] xml = print("text/mapml", start, zoom, bounds, templates);
+    byte[] binary = print(BINARY, start, zoom, bounds, templates);
+    String decoded = new String(decode(binary), "UTF-8");
+    assertEquals(new String(xml, "UTF-8"), decoded.replace(BINARY, "text/mapml"));
+    assertTrue(binary.length < xml.length);
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    Bounds ottawa = new Bounds(2429887.0004347735, 3004190.0005376437, 2430527.000434888, 3004670.000537729);
+    assertRoundTrip(0, 15, ottawa, false);
+    assertRoundTrip(0, 15, ottawa, true);
+    // paged, with a next link
+    printer.setPageSize(5);
+    assertRoundTrip(5, 15, new Bounds(2429000, 3003600, 2431500, 3005200), false);
+    // no bounds, and bounds outside the service
+    assertRoundTrip(0, 15, null, false);
+    assertRoundTrip(0, -1, null, false);
+    assertRoundTrip(0, 3, new Bounds(-3000, -3000, -1000, -1000), false);
+  }
+
+  @Test
+  public void testCompactness() throws IOException {
+    Bounds extent = new Bounds(2428000, 3003000, 2432000, 3006000);
+    printer.setPageSize(200);
+    byte[] xml = print("text/mapml", 0, 15, extent, false);
+    byte[] binary = print(BINARY, 0, 15, extent, false);
+    // each tile URL is a few integers and references to the strings around them
+    assertTrue(binary.length + " of " + xml.length, binary.length * 5 < xml.length * 2);
+  }
+
+  private static final byte[] A = MapMLWriter.encode("a");
+  private static final byte[] B = MapMLWriter.encode("b");
+  private static final byte[] N = MapMLWriter.encode("n");
+  private static final byte[] M = MapMLWriter.encode("m");
+  private static final byte[] E = MapMLWriter.encode("e");
+  private static final byte[] U = MapMLWriter.encode("u");
+
+  /**
+   * Write a document with each kind of value.
+   */
+  private static void write(MapMLSink out) throws IOException {
+    out.startElement(A).attribute(N, 7L).attribute(M, Long.MAX_VALUE).attribute(E, (String) null)
+       .attributeStart(U).value("x&y").value(-2L).value(3.5D).value("<>\"").attributeEnd()
+       .closeStartElement().text("0 1 -2 3.5 é")
+       .startElement(B).attribute(N, 0L).endEmptyElement()
+       .endElement(A);
+  }
+
+  @Test
+  public void testValues() throws IOException {
+    ByteArrayOutputStream xml = new ByteArrayOutputStream();
+    MapMLWriter writer = new MapMLWriter(xml);
+    write(writer);
+    writer.release();
+    ByteArrayOutputStream binary = new ByteArrayOutputStream();
+    try (MapMLBinary.Encoder encoder = new MapMLBinary.Encoder(binary)) {
+      write(encoder);
+    }
+    assertEquals("<a n=\"7\" m=\"9223372036854775807\" e=\"\" u=\"x&amp;y-23.5&lt;&gt;&quot;\">0 1 -2 3.5 é<b n=\"0\"/></a>", 
+        new String(xml.toByteArray(), "UTF-8"));
+    assertArrayEquals(xml.toByteArray(), decode(binary.toByteArray()));
+  }
+
+  @Test
+  public void testFragments() throws IOException {
+    // a fragment encodes as the calls which recorded it
+    MapMLFragment.Builder recorder = new MapMLFragment.Builder();
+    write(recorder);
+    MapMLFragment fragment = recorder.build();
+    ByteArrayOutputStream direct = new ByteArrayOutputStream();
+    try (MapMLBinary.Encoder encoder = new MapMLBinary.Encoder(direct)) {
+      write(encoder);
+    }
+    ByteArrayOutputStream replayed = new ByteArrayOutputStream();
+    try (MapMLBinary.Encoder encoder = new MapMLBinary.Encoder(replayed)) {
+      encoder.fragment(fragment);
+    }
+    assertArrayEquals(direct.toByteArray(), replayed.toByteArray());
+    assertArrayEquals(decode(direct.toByteArray()), fragment.xml);
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotBinary() throws IOException {
+    decode("<mapml/>".getBytes("UTF-8"));
+  }
+}
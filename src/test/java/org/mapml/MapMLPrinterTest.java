@@ -43,17 +43,23 @@ package org.mapml;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.xml.parsers.DocumentBuilder;
 import org.junit.Before;
 import org.junit.Test;
+import org.mapml.exceptions.MapMLException;
 import static org.junit.Assert.*;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import org.mapml.projections.Bounds;
 import org.mapml.projections.LatLng;
 import org.mapml.projections.Point;
+import org.mapml.projections.TileCoverage;
 import org.mapml.projections.TiledCRS;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -86,7 +92,7 @@ public class MapMLPrinterTest {
     printer.setTileUrlTemplates(tileServerTemplates);
     String[] wmsServerTemplates = {"{scheme}://foo.example.com/wms/?W={w}&H={h}&BBOX={xmin},{ymin},{xmax},{ymax}","{scheme}://bar.example.com/wms/{xmin}/{ymin}/{xmax}/{ymax}/{w}/{h}/"};
     printer.setWmsUrlTemplates(wmsServerTemplates);
-    tcrs.setPageSize(100);
+    printer.setPageSize(100);
     printer.setLicenseUrl("http://example.org/license");
     printer.setLicenseTitle("Tooltip info for license");
     printer.setLegendUrl("http://example.org/legend");
@@ -289,9 +295,10 @@ public class MapMLPrinterTest {
               NamedNodeMap atts = nl.item(i).getAttributes();
               long x = Long.parseLong(atts.getNamedItem("col").getNodeValue());
               long y = Long.parseLong(atts.getNamedItem("row").getNodeValue());
-              Point tc = new Point(x+0.5,y+0.5);
-              dist = centre.distanceTo(tc);
-              assertTrue("Tiles must be ordered in increasing distance from request centre", dist >= prev);
+              // tiles are enumerated in rings around the centre, so the
+              // ring (chessboard) distance must never decrease
+              dist = Math.max(Math.abs(x+0.5-centre.x), Math.abs(y+0.5-centre.y));
+              assertTrue("Tiles must be ordered in increasing ring distance from request centre", dist >= prev);
               prev = dist;
             }
             
@@ -375,6 +382,31 @@ public class MapMLPrinterTest {
     } catch (ParserConfigurationException e) {}
   }
   
+  @Test
+  public void testPrecomputedFragments() {
+    // the per-zoom fragments follow changes to the service bounds and head
+    TiledCRS tcrs = printer.getTiledCRS();
+    Point min = tcrs.project(new LatLng(-85.0511287798,-180));
+    Point max = tcrs.project(new LatLng(85.0511287798,180));
+    printer.setServiceBounds(new MapMLServiceBounds(2, 9, new Bounds(min,max), tcrs));
+    printer.setLegendUrl("http://example.org/legend?a=1&b=2");
+    ByteArrayOutputStream ba = new ByteArrayOutputStream();
+    PrintWriter out = new PrintWriter(ba);
+    printer.printMapMLDoc("http","application/xml", 0, "http://example.com/?a&b", 3, null, "OSMTILE", out);
+    out.flush();
+    String result = ba.toString();
+    assertTrue(result.contains("<meta name=\"zoom\" content=\"3\"/>"));
+    assertTrue(result.contains("<link rel=\"legend\" href=\"http://example.org/legend?a=1&amp;b=2\"/></head>"));
+    assertTrue(result.contains("action=\"http://example.com/?a&amp;b\""));
+    assertTrue(result.contains("<input name=\"xmin\" type=\"xmin\" min=\"0.0\" max=\"2048.0\"/>"));
+    assertTrue(result.contains("<input name=\"zoom\" type=\"zoom\" value=\"3\" min=\"2\" max=\"9\"/>"));
+    // a zoom outside the service bounds is written in full, and refused
+    try {
+      printer.printMapMLDoc("http","application/xml", 0, "http://example.com", 12, null, "OSMTILE", out);
+      fail("Expected an exception for a zoom outside the service bounds");
+    } catch (MapMLException e) {}
+  }
+  
   public void testUnsupportedProjection() {
         // TODO move and refactor the following test to the Servlet level.
 //        try {
@@ -395,7 +427,7 @@ public class MapMLPrinterTest {
       int zoom = 15;
       
       TiledCRS tcrs = printer.getTiledCRS();
-      tcrs.setPageSize(4);
+      printer.setPageSize(4);
       Point min = tcrs.latLngToPoint(new LatLng(45.39079543037812,-75.72056293487547),zoom);
       Point max = tcrs.latLngToPoint(new LatLng(45.40525984235134,-75.69309711456299),zoom);
       // this bbox should return 8 tiles
@@ -430,6 +462,7 @@ public class MapMLPrinterTest {
             int start = 0;
             if (m.matches()) {
               start = Integer.parseInt(m.group(3));
+              assertTrue("next link must carry the projection of the request", href.contains("projection=OSMTILE"));
             } else {
               fail("next link not found");
             }
@@ -453,4 +486,147 @@ public class MapMLPrinterTest {
         }
       } catch (ParserConfigurationException e) {}
   }
+
+  /**
+   * Tiles outside the coverage of the service are skipped, and the next 
+   * page starts after the last tile considered for the page.
+   */
+  @Test
+  public void testCoverage() throws Exception {
+    String[] template = {"http://none.foobar.com/tile/{z}/{x}/{y}/"};
+    printer.setTileUrlTemplates(template);
+    printer.setPageSize(3);
+    TiledCRS tcrs = printer.getTiledCRS();
+    MapMLServiceBounds b = new MapMLServiceBounds(0, 18, new Bounds(tcrs.project(new LatLng(-85.0511287798, -180)), 
+        tcrs.project(new LatLng(85.0511287798, 180))), tcrs);
+    // the two western columns of the eight tiles of the query
+    b.setCoverage(new TileCoverage(TileCoverage.read("POLYGON ((-76 45, -75.71 45, -75.71 46, -76 46, -76 45))"), tcrs, 0, 18));
+    printer.setServiceBounds(b);
+    Bounds query = new Bounds(2429887, 3004190, 2430527, 3004670);
+    Pattern tile = Pattern.compile("<tile col=\"(\\d+)\" row=\"(\\d+)\"");
+    Pattern next = Pattern.compile("rel=\"next\" href=\"[^\"]*start=(\\d+)\"");
+    Set<String> tiles = new HashSet<>();
+    long start = 0;
+    int pages = 0;
+    do {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      printer.printMapMLDoc("http", "text/mapml", start, "http://example.com", 15, query, "OSMTILE", false, out);
+      String doc = out.toString("UTF-8");
+      Matcher m = tile.matcher(doc);
+      while (m.find()) {
+        assertTrue("only covered columns", Long.parseLong(m.group(1)) <= 9492);
+        assertTrue("each tile once", tiles.add(m.group(1) + "/" + m.group(2)));
+      }
+      m = next.matcher(doc);
+      start = m.find() ? Long.parseLong(m.group(1)) : 0;
+      pages++;
+    } while (start > 0);
+    assertEquals(4, tiles.size());
+    assertEquals(2, pages);
+    // an extent outside the coverage has no tiles
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    printer.printMapMLDoc("http", "text/mapml", 0, "http://example.com", 15, new Bounds(2430300, 3004190, 2430527, 3004670), "OSMTILE", false, out);
+    assertFalse(out.toString("UTF-8").contains("<tile "));
+    // templates cannot leave out the tiles outside the coverage, so tile 
+    // elements are written instead
+    assertFalse(printer.supportsTileTemplates());
+    out.reset();
+    printer.printMapMLDoc("http", "text/mapml", 0, "http://example.com", 15, query, "OSMTILE", true, out);
+    assertTrue(out.toString("UTF-8").contains("<tile "));
+    assertFalse(out.toString("UTF-8").contains("rel=\"tile\""));
+  }
+
+  /**
+   * The same tile is referred to by the same host on every page, whatever 
+   * its position in the page, and the servers share the tiles evenly.
+   */
+  @Test
+  public void testTileServerAssignment() throws Exception {
+    Pattern tile = Pattern.compile("<tile col=\"(\\d+)\" row=\"(\\d+)\" src=\"http://(\\w+)\\.example\\.com/tile/15/");
+    Map<String, String> hosts = new HashMap<>();
+    int[] perServer = new int[3];
+    Bounds[] pages = {new Bounds(2429887, 3004190, 2430527, 3004670), new Bounds(2429500, 3004000, 2430900, 3004900), 
+        new Bounds(2430100, 3004300, 2430400, 3004400)};
+    int shared = 0;
+    for (Bounds page : pages) {
+      for (long start = 0; start < 40; start += 7) {
+        ByteArrayOutputStream ba = new ByteArrayOutputStream();
+        printer.printMapMLDoc("http", "application/xml", start, "http://example.com", 15, page, "OSMTILE", ba);
+        Matcher m = tile.matcher(ba.toString("UTF-8"));
+        while (m.find()) {
+          String key = m.group(1) + "/" + m.group(2), host = m.group(3);
+          String previous = hosts.put(key, host);
+          if (previous != null) {
+            assertEquals("tile " + key, previous, host);
+            shared++;
+          } else {
+            perServer[host.charAt(0) - 'a']++;
+          }
+          assertEquals(host, printer.getTileServer(Long.parseLong(m.group(1)), Long.parseLong(m.group(2))));
+        }
+      }
+    }
+    assertTrue(shared > 0);
+    int tiles = perServer[0] + perServer[1] + perServer[2];
+    for (int count : perServer) {
+      assertEquals((double) tiles / 3, count, tiles / 10.0);
+    }
+    // duplicate and blank names in the list are ignored
+    MapMLPrinter other = new MapMLPrinter("OSMTILE");
+    assertEquals("", other.getTileServer(1, 2));
+    other.setTileServers("a, b,a,,c");
+    assertEquals("b", other.getTileServer(1, 3));
+    assertEquals("a", other.getTileServer(-2, -1));
+  }
+
+  /**
+   * Expanding the tile templates yields the tile elements of all the pages.
+   */
+  @Test
+  public void testTileTemplates() throws Exception {
+    Bounds query = new Bounds(2429000, 3003600, 2431500, 3005200);
+    ByteArrayOutputStream templates = new ByteArrayOutputStream();
+    printer.printMapMLDoc("https", "text/mapml", 0, "http://example.com", 15, query, "OSMTILE", true, templates);
+    String doc = templates.toString("UTF-8");
+    assertFalse("templates are not paged", doc.contains("rel=\"next\""));
+    assertFalse(doc.contains("<tile "));
+    Matcher tiles = Pattern.compile("<extent units=\"OSMTILE\"><input name=\"z\" type=\"zoom\" value=\"15\" min=\"15\" max=\"15\"/>"
+        + "<input name=\"x\" type=\"location\" units=\"tilematrix\" axis=\"column\" min=\"(\\d+)\" max=\"(\\d+)\"/>"
+        + "<input name=\"y\" type=\"location\" units=\"tilematrix\" axis=\"row\" min=\"(\\d+)\" max=\"(\\d+)\"/>"
+        + "<input name=\"s\" type=\"hidden\" shard=\"true\" list=\"servers\"/>"
+        + "<datalist id=\"servers\"><option value=\"a\"/><option value=\"b\"/><option value=\"c\"/></datalist>"
+        + "<link rel=\"tile\" tref=\"(https://\\{s\\}.example.com/tile/\\{z\\}/\\{x\\}/\\{y\\}/)\"/>"
+        + "<link rel=\"tile\" tref=\"https://none.foobar.com/tile/\\?z=\\{z\\}&amp;x=\\{x\\}&amp;y=\\{y\\}/\"/></extent>").matcher(doc);
+    assertTrue(doc, tiles.find());
+    long mincol = Long.parseLong(tiles.group(1)), maxcol = Long.parseLong(tiles.group(2));
+    long minrow = Long.parseLong(tiles.group(3)), maxrow = Long.parseLong(tiles.group(4));
+    String[] servers = {"a", "b", "c"};
+    Set<String> expanded = new HashSet<>();
+    for (long x = mincol; x <= maxcol; x++) {
+      for (long y = minrow; y <= maxrow; y++) {
+        expanded.add(tiles.group(5).replace("{s}", servers[(int) (Math.abs(x + y) % 3)]).replace("{z}", "15")
+            .replace("{x}", String.valueOf(x)).replace("{y}", String.valueOf(y)));
+      }
+    }
+    // the tile elements of all the pages of the same request
+    Set<String> elements = new HashSet<>();
+    Pattern src = Pattern.compile("src=\"(https://\\w\\.example\\.com/[^\"]*)\"");
+    long size = 0;
+    for (long start = 0; start < printer.getTiledCRS().tileCount(15, query); start += printer.getPageSize()) {
+      ByteArrayOutputStream page = new ByteArrayOutputStream();
+      printer.printMapMLDoc("https", "text/mapml", start, "http://example.com", 15, query, "OSMTILE", page);
+      size += page.size();
+      Matcher m = src.matcher(page.toString("UTF-8"));
+      while (m.find()) {
+        elements.add(m.group(1));
+      }
+    }
+    assertEquals(elements, expanded);
+    assertTrue(templates.size() * 8 < size);
+
+    // no tiles, no templates
+    templates.reset();
+    printer.printMapMLDoc("https", "text/mapml", 0, "http://example.com", 15, new Bounds(-3000, -3000, -1000, -1000), "OSMTILE", true, templates);
+    assertFalse(templates.toString("UTF-8").contains("rel=\"tile\""));
+  }
 }
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MapMLWriterTest {
+
+  @Test
+  public void testNumbers() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    MapMLWriter out = new MapMLWriter(bytes);
+    out.write(0L).write(',').write(-42L).write(',').write(Long.MAX_VALUE).write(',').write(Long.MIN_VALUE)
+       .write(',').write(2429696.0D).write(',').write(-75.72056293487547D);
+    out.release();
+    assertEquals("0,-42,"+Long.MAX_VALUE+","+Long.MIN_VALUE+",2429696.0,-75.72056293487547", 
+            new String(bytes.toByteArray(), MapMLWriter.UTF8));
+  }
+
+  @Test
+  public void testEscapedUtf8() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    MapMLWriter out = new MapMLWriter(bytes);
+    String value = "© OpenStreetMap <contributors> & \"friends\" € 🗺";
+    out.startElement(MapMLWriter.encode("link")).attribute(MapMLWriter.encode("title"), value).endEmptyElement();
+    out.release();
+    assertEquals("<link title=\"© OpenStreetMap &lt;contributors&gt; &amp; &quot;friends&quot; € 🗺\"/>", 
+            new String(bytes.toByteArray(), MapMLWriter.UTF8));
+    assertArrayEquals(MapMLWriter.encodeEscaped(value), 
+            MapMLWriter.encode("© OpenStreetMap &lt;contributors&gt; &amp; &quot;friends&quot; € 🗺"));
+  }
+
+  @Test
+  public void testLargeDocument() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    MapMLWriter out = new MapMLWriter(bytes);
+    StringBuilder expected = new StringBuilder();
+    byte[] big = new byte[MapMLWriter.BUFFER_SIZE * 2 + 1];
+    java.util.Arrays.fill(big, (byte)'x');
+    for (int i = 0; i < 5000; i++) {
+      out.write((long)i).write(' ');
+      expected.append(i).append(' ');
+    }
+    out.write(big);
+    expected.append(new String(big, MapMLWriter.UTF8));
+    out.release();
+    assertEquals(expected.toString(), new String(bytes.toByteArray(), MapMLWriter.UTF8));
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mapml.cache.ContentEncoding.*;
+
+public class ContentEncodingTest {
+
+    @Test
+    public void testNegotiate() {
+        assertEquals(IDENTITY, negotiate(null));
+        assertEquals(IDENTITY, negotiate(""));
+        assertEquals(GZIP, negotiate("gzip, deflate, br"));
+        assertEquals(GZIP, negotiate("deflate, gzip"));
+        assertEquals(DEFLATE, negotiate("deflate"));
+        assertEquals(DEFLATE, negotiate("gzip;q=0.5, deflate;q=0.8"));
+        assertEquals(GZIP, negotiate("*"));
+        assertEquals(DEFLATE, negotiate("gzip;q=0, *"));
+        assertEquals(IDENTITY, negotiate("gzip;q=0, deflate;q=0"));
+        assertEquals(IDENTITY, negotiate("gzip;q=0.5, identity"));
+        assertEquals(GZIP, negotiate("GZIP; Q=0.9 , identity;q=0.1"));
+        assertEquals(IDENTITY, negotiate("br, compress"));
+        assertEquals(IDENTITY, negotiate("gzip;q=foo"));
+    }
+
+    @Test
+    public void testStreaming() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append("<tile col=\"").append(i).append("\" row=\"42\" />\n");
+        }
+        byte[] document = text.toString().getBytes("UTF-8");
+        for (int level = 1; level <= 9; level += 8) {
+            ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+            OutputStream out = GZIP.wrap(gzipped, level);
+            out.write(document);
+            // compressed bytes are written before the document is complete
+            assertTrue(gzipped.size() > 0);
+            out.close();
+            assertArrayEquals(document, read(new GZIPInputStream(new ByteArrayInputStream(gzipped.toByteArray()))));
+
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+            try (OutputStream zlib = DEFLATE.wrap(deflated, level)) {
+                zlib.write(document);
+            }
+            assertArrayEquals(document, read(new InflaterInputStream(new ByteArrayInputStream(deflated.toByteArray()))));
+        }
+        ByteArrayOutputStream identity = new ByteArrayOutputStream();
+        assertSame(identity, IDENTITY.wrap(identity, 6));
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int n; (n = in.read(buffer)) > 0;) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml.cache;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ResponseCacheTest {
+
+    private static class CountingLoader implements ResponseCache.Loader<String> {
+        final AtomicInteger calls = new AtomicInteger();
+        final int length;
+        CountingLoader(int length) {
+            this.length = length;
+        }
+        @Override
+        public byte[] load(String key) throws IOException {
+            calls.incrementAndGet();
+            return new byte[length];
+        }
+    }
+
+    @Test
+    public void testHitsAndMisses() throws Exception {
+        ResponseCache<String> cache = new ResponseCache<>(1000);
+        CountingLoader loader = new CountingLoader(100);
+        byte[] first = cache.get("a", loader);
+        assertSame(first, cache.get("a", loader));
+        assertEquals(1, loader.calls.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getLoadCount());
+        assertEquals(100, cache.getWeightedSize());
+        assertNull(cache.getIfPresent("b"));
+    }
+
+    @Test
+    public void testBoundedByBytes() throws Exception {
+        ResponseCache<String> cache = new ResponseCache<>(1000);
+        CountingLoader loader = new CountingLoader(300);
+        for (int i = 0; i < 20; i++) {
+            // request each key a few times so that newer keys are admitted
+            for (int j = 0; j <= i; j++) {
+                cache.getIfPresent("key" + i);
+            }
+            cache.get("key" + i, loader);
+            assertTrue(cache.getWeightedSize() <= 1000);
+        }
+        assertEquals(3, cache.size());
+        assertTrue(cache.getEvictionCount() > 0);
+        
+        // a body larger than the cache is returned but not kept
+        byte[] big = cache.get("big", new CountingLoader(1001));
+        assertEquals(1001, big.length);
+        assertNull(cache.getIfPresent("big"));
+    }
+
+    @Test
+    public void testFrequentEntriesSurviveScan() throws Exception {
+        ResponseCache<String> cache = new ResponseCache<>(1000);
+        CountingLoader loader = new CountingLoader(250);
+        for (int i = 0; i < 10; i++) {
+            for (int k = 0; k < 4; k++) {
+                cache.get("popular" + k, loader);
+            }
+        }
+        assertEquals(4, loader.calls.get());
+        for (int i = 0; i < 100; i++) {
+            cache.get("once" + i, loader);
+        }
+        for (int k = 0; k < 4; k++) {
+            assertNotNull("popular" + k + " was evicted by a scan", cache.getIfPresent("popular" + k));
+        }
+        assertEquals(100, cache.getRejectionCount());
+    }
+
+    /**
+     * A body is admitted only if it is more frequent than every entry which
+     * would be evicted for it, and if it is not, none of them is evicted.
+     */
+    @Test
+    public void testRejectionEvictsNothing() throws Exception {
+        ResponseCache<String> cache = new ResponseCache<>(1000);
+        CountingLoader loader = new CountingLoader(300);
+        cache.get("cold", loader);
+        for (int i = 0; i < 10; i++) {
+            cache.get("hot", loader);
+        }
+        for (int i = 0; i < 3; i++) {
+            cache.getIfPresent("candidate");
+        }
+        // room for the candidate means evicting both: it is more frequent
+        // than the cold entry, but not than the hot one
+        cache.get("candidate", new CountingLoader(900));
+        assertNull(cache.getIfPresent("candidate"));
+        assertEquals(1, cache.getRejectionCount());
+        assertEquals(0, cache.getEvictionCount());
+        assertNotNull(cache.getIfPresent("cold"));
+        assertNotNull(cache.getIfPresent("hot"));
+        assertEquals(600, cache.getWeightedSize());
+    }
+
+    @Test
+    public void testConcurrentMissesLoadOnce() throws Exception {
+        final ResponseCache<String> cache = new ResponseCache<>(1 << 20);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final ResponseCache.Loader<String> slow = new ResponseCache.Loader<String>() {
+            @Override
+            public byte[] load(String key) throws IOException {
+                calls.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return new byte[10];
+            }
+        };
+        final byte[][] results = new byte[8][];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int n = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        results[n] = cache.get("key", slow);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        // give the threads time to pile up on the same key
+        Thread.sleep(200);
+        release.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(1, calls.get());
+        for (byte[] result : results) {
+            assertSame(results[0], result);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testLoaderFailure() throws Exception {
+        ResponseCache<String> cache = new ResponseCache<>(1000);
+        try {
+            cache.get("a", new ResponseCache.Loader<String>() {
+                @Override
+                public byte[] load(String key) throws IOException {
+                    throw new IOException("failed");
+                }
+            });
+        } finally {
+            assertEquals(0, cache.size());
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml.projections;
+
+import java.util.Random;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class GridProjectionTest {
+    private static final double MAX_ERROR = 1D;
+    private static Projection cbmtileExact, apstileExact;
+    private static GridProjection cbmtile, apstile;
+
+    @BeforeClass
+    public static void setUpClass() {
+        cbmtileExact = new Projection("EPSG:3978");
+        cbmtile = grid("CBMTILE");
+        apstileExact = new Projection("EPSG:5936");
+        apstile = grid("APSTILE");
+    }
+
+    private static GridProjection grid(String name) {
+        TiledCRSParams parameters = TiledCRSConstants.tiledCRSDefinitions.get(name);
+        return new GridProjection(parameters.getCode(), parameters.getBounds(), MAX_ERROR);
+    }
+
+    /**
+     * Measure the worst error of both directions at random points of the 
+     * bounds, and report it.  The error of the inverse is the distance 
+     * between a point and the exact projection of its interpolated 
+     * unprojection; the error of the projection is the distance between the 
+     * interpolated and exact projections of the exact unprojection.
+     * @return the worst error found, in metres
+     */
+    private double worstError(String name, Projection exact, GridProjection grid) {
+        Bounds bounds = TiledCRSConstants.tiledCRSDefinitions.get(name).getBounds();
+        Random random = new Random(7);
+        double inverseError = 0, forwardError = 0;
+        int measured = 0;
+        for (int i = 0; i < 50000; i++) {
+            Point p = new Point(bounds.getMinX() + random.nextDouble() * (bounds.getMaxX() - bounds.getMinX()),
+                    bounds.getMinY() + random.nextDouble() * (bounds.getMaxY() - bounds.getMinY()));
+            LatLng latlng = exact.unproject(p);
+            Point roundTrip = exact.project(latlng);
+            // e.g. beyond the cut of a conic projection
+            if (Math.hypot(roundTrip.x - p.x, roundTrip.y - p.y) > 1e-3) {
+                continue;
+            }
+            measured++;
+            Point inverse = exact.project(grid.unproject(p));
+            inverseError = Math.max(inverseError, Math.hypot(inverse.x - p.x, inverse.y - p.y));
+            Point forward = grid.project(latlng);
+            forwardError = Math.max(forwardError, Math.hypot(forward.x - roundTrip.x, forward.y - roundTrip.y));
+        }
+        assertTrue(measured > 40000);
+        System.out.printf("%s maximum error %.3fm: measured %.4fm building the grids, "
+                + "%.4fm unprojecting and %.4fm projecting %d points; "
+                + "%.1f%% and %.1f%% of cells projected exactly%n", 
+                name, MAX_ERROR, grid.getMeasuredError(), inverseError, forwardError, measured,
+                100 * grid.getExactFraction(false), 100 * grid.getExactFraction(true));
+        return Math.max(inverseError, forwardError);
+    }
+
+    @Test
+    public void testLambertConformalConicError() {
+        assertTrue(cbmtile.getMeasuredError() <= MAX_ERROR);
+        double error = worstError("CBMTILE", cbmtileExact, cbmtile);
+        assertTrue("worst error " + error, error <= MAX_ERROR);
+        // most of the CRS is interpolated
+        assertTrue(cbmtile.getExactFraction(false) < 0.1);
+    }
+
+    @Test
+    public void testPolarStereographicError() {
+        assertTrue(apstile.getMeasuredError() <= MAX_ERROR);
+        double error = worstError("APSTILE", apstileExact, apstile);
+        assertTrue("worst error " + error, error <= MAX_ERROR);
+        assertTrue(apstile.getExactFraction(false) < 0.1);
+        assertTrue(apstile.getExactFraction(true) < 0.1);
+    }
+
+    @Test
+    public void testExactAboutThePoles() {
+        // longitude is undefined at the pole, so the cells about it are exact
+        Point pole = apstileExact.project(new LatLng(90D, 0D));
+        for (double dx = -5000; dx <= 5000; dx += 2500) {
+            Point p = new Point(pole.x + dx, pole.y + 2000);
+            LatLng expected = apstileExact.unproject(p), actual = apstile.unproject(p);
+            assertEquals(expected.lng, actual.lng, 0D);
+            assertEquals(expected.lat, actual.lat, 0D);
+        }
+        pole = cbmtileExact.project(new LatLng(90D, 0D));
+        LatLng expected = cbmtileExact.unproject(pole), actual = cbmtile.unproject(pole);
+        assertEquals(expected.lng, actual.lng, 0D);
+        assertEquals(expected.lat, actual.lat, 0D);
+        // and so are those which would interpolate from latitudes past the pole
+        for (double lng = -180D; lng <= 180D; lng += 45D) {
+            LatLng latlng = new LatLng(89.99D, lng);
+            assertEquals(apstileExact.project(latlng).x, apstile.project(latlng).x, 0D);
+            assertEquals(apstileExact.project(latlng).y, apstile.project(latlng).y, 0D);
+            assertEquals(cbmtileExact.project(latlng).x, cbmtile.project(latlng).x, 0D);
+            assertEquals(cbmtileExact.project(latlng).y, cbmtile.project(latlng).y, 0D);
+        }
+    }
+
+    @Test
+    public void testExactOutsideTheGrid() {
+        Bounds bounds = TiledCRSConstants.tiledCRSDefinitions.get("CBMTILE").getBounds();
+        Point p = new Point(bounds.getMinX() - 1000, bounds.getMinY() - 1000);
+        LatLng expected = cbmtileExact.unproject(p), actual = cbmtile.unproject(p);
+        assertEquals(expected.lng, actual.lng, 0D);
+        assertEquals(expected.lat, actual.lat, 0D);
+        LatLng southern = new LatLng(-89D, -100D);
+        assertEquals(cbmtileExact.project(southern).x, cbmtile.project(southern).x, 0D);
+        assertEquals(cbmtileExact.project(southern).y, cbmtile.project(southern).y, 0D);
+    }
+
+    @Test
+    public void testBatch() {
+        // the batch methods agree with the single point methods, whether a 
+        // point is interpolated or projected exactly
+        double[] coords = {-75.7D, 45.4D, -100D, 89.99D, 85D, 60D, -100D, -80D, -179.9D, 70D};
+        int count = coords.length / 2;
+        double[] interleaved = coords.clone(), x = new double[count], y = new double[count];
+        for (int i = 0; i < count; i++) {
+            x[i] = coords[2 * i];
+            y[i] = coords[2 * i + 1];
+        }
+        cbmtile.project(interleaved, 0, count);
+        cbmtile.project(x, y, 0, count);
+        for (int i = 0; i < count; i++) {
+            Point p = cbmtile.project(new LatLng(coords[2 * i + 1], coords[2 * i]));
+            assertEquals(p.x, interleaved[2 * i], 0D);
+            assertEquals(p.y, interleaved[2 * i + 1], 0D);
+            assertEquals(p.x, x[i], 0D);
+            assertEquals(p.y, y[i], 0D);
+        }
+        double[] points = interleaved.clone();
+        cbmtile.unproject(interleaved, 0, count);
+        cbmtile.unproject(x, y, 0, count);
+        for (int i = 0; i < count; i++) {
+            LatLng latlng = cbmtile.unproject(new Point(points[2 * i], points[2 * i + 1]));
+            assertEquals(latlng.lng, interleaved[2 * i], 0D);
+            assertEquals(latlng.lat, interleaved[2 * i + 1], 0D);
+            assertEquals(latlng.lng, x[i], 0D);
+            assertEquals(latlng.lat, y[i], 0D);
+        }
+    }
+
+    @Test
+    public void testTiledCRS() {
+        TiledCRS exact = TiledCRSRegistry.get("CBMTILE");
+        TiledCRS approximate = TiledCRSRegistry.get("CBMTILE", MAX_ERROR);
+        assertNotSame(exact, approximate);
+        assertSame(approximate, TiledCRSRegistry.get("CBMTILE", MAX_ERROR));
+        assertEquals(0D, exact.getMaxTransformError(), 0D);
+        assertEquals(MAX_ERROR, approximate.getMaxTransformError(), 0D);
+        // web mercator is already computed in closed form
+        assertEquals(0D, new TiledCRS("OSMTILE", MAX_ERROR).getMaxTransformError(), 0D);
+        // within the maximum error of the exact projection
+        LatLng ottawa = new LatLng(45.398043D, -75.70683D);
+        Point expected = exact.project(ottawa), actual = approximate.project(ottawa);
+        assertEquals(expected.x, actual.x, MAX_ERROR);
+        assertEquals(expected.y, actual.y, MAX_ERROR);
+        int zoom = 10;
+        expected = exact.latLngToPoint(ottawa, zoom);
+        actual = approximate.latLngToPoint(ottawa, zoom);
+        assertEquals(expected.x, actual.x, 1D);
+        assertEquals(expected.y, actual.y, 1D);
+        LatLng back = approximate.pointToLatLng(expected, zoom);
+        assertEquals(ottawa.lng, back.lng, 1e-4);
+        assertEquals(ottawa.lat, back.lat, 1e-4);
+    }
+}
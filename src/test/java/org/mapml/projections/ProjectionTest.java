@@ -121,4 +121,123 @@ public class ProjectionTest {
       assertEquals(latlng.lat, unprojected.lat, 0.00000001);
       assertEquals(latlng.lng, unprojected.lng, 0.00000001);
   }
+  @Test
+  public void testBatch() {
+      for (String code : new String[] {"EPSG:3857", "EPSG:3978", "EPSG:5936"}) {
+          proj = new Projection(code);
+          int n = 50;
+          // a leading pad value, to check that offsets are respected
+          double[] interleaved = new double[1 + 2 * n];
+          double[] x = new double[n + 1], y = new double[n + 1];
+          LatLng[] latlngs = new LatLng[n];
+          for (int i = 0; i < n; i++) {
+              latlngs[i] = new LatLng(40 + i * 0.7, -140 + i * 1.3);
+              interleaved[1 + 2 * i] = x[1 + i] = latlngs[i].lng;
+              interleaved[2 + 2 * i] = y[1 + i] = latlngs[i].lat;
+          }
+          proj.project(interleaved, 1, n);
+          proj.project(x, y, 1, n);
+          for (int i = 0; i < n; i++) {
+              Point expected = proj.project(latlngs[i]);
+              assertEquals(code, expected.x, interleaved[1 + 2 * i], 0D);
+              assertEquals(code, expected.y, interleaved[2 + 2 * i], 0D);
+              assertEquals(code, expected.x, x[1 + i], 0D);
+              assertEquals(code, expected.y, y[1 + i], 0D);
+          }
+          proj.unproject(interleaved, 1, n);
+          proj.unproject(x, y, 1, n);
+          for (int i = 0; i < n; i++) {
+              assertEquals(code, latlngs[i].lng, interleaved[1 + 2 * i], 0.00000001);
+              assertEquals(code, latlngs[i].lat, interleaved[2 + 2 * i], 0.00000001);
+              assertEquals(code, latlngs[i].lng, x[1 + i], 0.00000001);
+              assertEquals(code, latlngs[i].lat, y[1 + i], 0.00000001);
+          }
+      }
+  }
+  /**
+   * Closed form web mercator agrees with proj4j to a small fraction of a 
+   * millimetre over the latitudes of the OSMTILE tile matrix.
+   */
+  @Test
+  public void testWebMercatorClosedForm() {
+      Projection closed = new Projection("EPSG:3857");
+      Projection exact = new Projection("EPSG:3857", true);
+      assertTrue(closed.isClosedForm());
+      assertFalse(exact.isClosedForm());
+      assertFalse(new Projection("EPSG:3978").isClosedForm());
+      assertFalse(new Projection("EPSG:5936").isClosedForm());
+      double maxLat = 85.0511287798;
+      // metres per degree of the sphere, to express angular differences
+      double metresPerDegree = Math.toRadians(6378137D);
+      double forward = 0, inverse = 0;
+      int n = 2001;
+      double[] coords = new double[2 * n], exactCoords = new double[2 * n];
+      for (int j = 0; j <= 360; j++) {
+          double lng = -180 + j;
+          for (int i = 0; i < n; i++) {
+              coords[2 * i] = exactCoords[2 * i] = lng + i * 0.000137;
+              coords[2 * i + 1] = exactCoords[2 * i + 1] = -maxLat + i * (2 * maxLat / (n - 1));
+          }
+          closed.project(coords, 0, n);
+          exact.project(exactCoords, 0, n);
+          for (int i = 0; i < 2 * n; i++) {
+              forward = Math.max(forward, Math.abs(coords[i] - exactCoords[i]));
+          }
+          closed.unproject(coords, 0, n);
+          exact.unproject(exactCoords, 0, n);
+          for (int i = 0; i < 2 * n; i++) {
+              inverse = Math.max(inverse, Math.abs(coords[i] - exactCoords[i]) * metresPerDegree);
+          }
+      }
+      assertTrue("forward difference " + forward + "m", forward < 1e-4);
+      assertTrue("inverse difference " + inverse + "m", inverse < 1e-4);
+      // the scalar methods are the same formulas
+      LatLng ottawa = new LatLng(45.398043,-75.70683);
+      assertEquals(exact.project(ottawa).x, closed.project(ottawa).x, 1e-4);
+      assertEquals(exact.project(ottawa).y, closed.project(ottawa).y, 1e-4);
+      Point p = new Point(-8427645.7651,5684404.3994);
+      assertEquals(exact.unproject(p).lat, closed.unproject(p).lat, 1e-9);
+      assertEquals(exact.unproject(p).lng, closed.unproject(p).lng, 1e-9);
+      // beyond the antimeridian, inverse longitudes are clamped as by proj4j
+      Point east = new Point(21000000, 0);
+      assertEquals(exact.unproject(east).lng, closed.unproject(east).lng, 0D);
+  }
+  @Test
+  public void testConcurrentProjection() throws Exception {
+      final Projection shared = new Projection("EPSG:3978");
+      final LatLng latlng = new LatLng(45.398043,-75.70683);
+      final Point expected = shared.project(latlng);
+      final boolean[] failed = new boolean[1];
+      Thread[] threads = new Thread[4];
+      for (int t = 0; t < threads.length; t++) {
+          final int seed = t;
+          threads[t] = new Thread() {
+              @Override
+              public void run() {
+                  double[] coords = new double[200];
+                  for (int round = 0; round < 200; round++) {
+                      for (int i = 0; i < coords.length; i += 2) {
+                          coords[i] = latlng.lng;
+                          coords[i + 1] = latlng.lat;
+                      }
+                      shared.project(coords, 0, coords.length / 2);
+                      Point p = shared.project(new LatLng(latlng.lat + seed, latlng.lng));
+                      for (int i = 0; i < coords.length; i += 2) {
+                          if (coords[i] != expected.x || coords[i + 1] != expected.y) {
+                              failed[0] = true;
+                          }
+                      }
+                      if (seed == 0 && (p.x != expected.x || p.y != expected.y)) {
+                          failed[0] = true;
+                      }
+                  }
+              }
+          };
+          threads[t].start();
+      }
+      for (Thread thread : threads) {
+          thread.join();
+      }
+      assertFalse("concurrent projections must not interfere", failed[0]);
+  }
 }
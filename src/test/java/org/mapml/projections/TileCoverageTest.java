@@ -0,0 +1,196 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml.projections;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.util.PolygonExtracter;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TileCoverageTest {
+    // a concave polygon with a hole, around Ottawa and Montreal
+    private static final String WKT = "POLYGON ((-77 44, -72 44.5, -72.5 47, -74.5 45.8, -76.8 46.5, -77 44), "
+            + "(-75.5 44.8, -74.5 44.8, -74.5 45.2, -75.5 45.2, -75.5 44.8))";
+    private static final String GEOJSON = "{\"type\": \"Feature\", \"properties\": {\"name\": \"a \\\"test\\\"\"},"
+            + " \"geometry\": {\"type\": \"Polygon\", \"coordinates\": ["
+            + "[[-77, 44], [-72, 44.5], [-72.5, 47], [-74.5, 45.8], [-76.8, 46.5]],"
+            + "[[-75.5, 44.8], [-74.5, 44.8], [-74.5, 45.2], [-75.5, 45.2], [-75.5, 44.8]]]}}";
+
+    @Test
+    public void testRead() {
+        Geometry wkt = TileCoverage.read(WKT);
+        Geometry json = TileCoverage.read(GEOJSON);
+        assertTrue(wkt.equalsExact(json));
+        Geometry collection = TileCoverage.read("{\"type\":\"FeatureCollection\",\"features\":[" 
+                + GEOJSON + ",{\"type\":\"Feature\",\"geometry\":{\"type\":\"MultiPolygon\",\"coordinates\":"
+                + "[[[[0,0],[1,0],[1,1],[0,0]]],[[[2,2],[3,2],[3,3],[2,2]]]]}}]}");
+        assertEquals(3, PolygonExtracter.getPolygons(collection).size());
+        try {
+            TileCoverage.read("{\"type\":\"Polygon\",\"coordinates\":[[[0,0],[1,0]]");
+            fail("unterminated GeoJSON");
+        } catch (RuntimeException e) {
+        }
+        try {
+            new TileCoverage(TileCoverage.read("LINESTRING (0 0, 1 1)"), new TiledCRS("OSMTILE"), 0, 5);
+            fail("a line is not a coverage");
+        } catch (RuntimeException e) {
+        }
+    }
+
+    /**
+     * The rasterised coverage agrees with testing each tile against the polygon.
+     */
+    @Test
+    public void testRasterisation() {
+        for (String name : new String[] {"OSMTILE", "CBMTILE"}) {
+            TiledCRS crs = new TiledCRS(name);
+            Geometry g = TileCoverage.read(WKT);
+            TileCoverage raster = new TileCoverage(g, crs, 0, 11);
+            TileCoverage polygons = new TileCoverage(g, crs, 0, 11, 0);
+            LatLngBounds box = new LatLngBounds(new LatLng(43.5, -77.5), new LatLng(47.5, -71.5));
+            long[] range = new long[4];
+            for (int zoom = 0; zoom <= 11; zoom++) {
+                assertTrue(raster.isRasterised(zoom));
+                assertFalse(polygons.isRasterised(zoom));
+                assertTrue(crs.getTileRange(crs.getPixelBounds(box, zoom, 16), zoom, range));
+                int covered = 0;
+                for (long row = range[1]; row <= range[3]; row++) {
+                    for (long column = range[0]; column <= range[2]; column++) {
+                        boolean expected = polygons.covers(zoom, column, row);
+                        assertEquals(name + " " + zoom + "/" + column + "/" + row, expected, raster.covers(zoom, column, row));
+                        covered += expected ? 1 : 0;
+                    }
+                }
+                assertTrue(covered > 0);
+                if (zoom >= 8) {
+                    // the hole and the concavity are not covered
+                    assertTrue(covered < (range[2] - range[0] + 1) * (range[3] - range[1] + 1));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDeepZoomsAreNotRasterised() {
+        TiledCRS osmtile = new TiledCRS("OSMTILE");
+        TileCoverage coverage = new TileCoverage(TileCoverage.read(WKT), osmtile, 0, 18, 1024);
+        assertTrue(coverage.isRasterised(10));
+        assertFalse(coverage.isRasterised(18));
+        Point ottawa = osmtile.latLngToPoint(new LatLng(45.4, -75.7), 18);
+        Point hole = osmtile.latLngToPoint(new LatLng(45.0, -75.0), 18);
+        assertTrue(coverage.covers(18, (long) (ottawa.x / 256), (long) (ottawa.y / 256)));
+        assertFalse(coverage.covers(18, (long) (hole.x / 256), (long) (hole.y / 256)));
+        Bounds inHole = new Bounds(hole.x - 500, hole.y - 500, hole.x + 500, hole.y + 500);
+        assertFalse(coverage.intersects(18, inHole));
+        assertTrue(coverage.intersects(18, new Bounds(ottawa.x - 500, ottawa.y - 500, ottawa.x + 500, ottawa.y + 500)));
+    }
+
+    /**
+     * Pages of the tiles within a coverage are the covered tiles of the 
+     * order of the tiles of the extent, each page starting where the 
+     * previous one ended.
+     */
+    @Test
+    public void testPaging() {
+        TiledCRS osmtile = new TiledCRS("OSMTILE");
+        TileCoverage coverage = new TileCoverage(TileCoverage.read(WKT), osmtile, 0, 10);
+        int zoom = 9;
+        Bounds extent = osmtile.getPixelBounds(new LatLngBounds(new LatLng(43.8, -77.2), new LatLng(47.2, -71.8)), zoom);
+        long count = osmtile.tileCount(zoom, extent);
+        List<Long> expected = new ArrayList<>();
+        for (TileCoordinates tile : osmtile.getTilesForExtent(extent, zoom, 0, (int) count)) {
+            if (coverage.covers(zoom, tile.x, tile.y)) {
+                expected.add(tile.x << 32 | tile.y);
+            }
+        }
+        assertTrue(expected.size() > 10 && expected.size() < count);
+        List<Long> actual = new ArrayList<>();
+        TileBuffer buffer = new TileBuffer(0);
+        long start = 0;
+        while (start < count) {
+            int n = osmtile.getTilesForExtent(extent, zoom, start, 10, buffer, coverage);
+            assertTrue(n == 10 || buffer.getEnd() == count);
+            for (int i = 0; i < n; i++) {
+                actual.add(buffer.getColumn(i) << 32 | buffer.getRow(i));
+            }
+            assertTrue(buffer.getEnd() > start);
+            start = buffer.getEnd();
+        }
+        assertEquals(expected, actual);
+        // without a coverage, a page ends after pageSize tiles
+        osmtile.getTilesForExtent(extent, zoom, 5, 10, buffer, null);
+        assertEquals(15, buffer.getEnd());
+    }
+
+    /**
+     * A coverage of a sliver far from the centre of an extent is reached 
+     * by skipping the rings between, without a run of empty pages.
+     */
+    @Test
+    public void testSparsePaging() {
+        TiledCRS osmtile = new TiledCRS("OSMTILE");
+        TileCoverage coverage = new TileCoverage(TileCoverage.read(
+                "POLYGON((-99.5 59.5, -99.0 59.5, -99.0 59.52, -99.5 59.52, -99.5 59.5))"), osmtile, 0, 10);
+        int zoom = 9;
+        Bounds extent = osmtile.getPixelBounds(new LatLngBounds(new LatLng(40, -100), new LatLng(60, -60)), zoom);
+        long count = osmtile.tileCount(zoom, extent);
+        int expected = 0;
+        for (TileCoordinates tile : osmtile.getTilesForExtent(extent, zoom, 0, (int) count)) {
+            expected += coverage.covers(zoom, tile.x, tile.y) ? 1 : 0;
+        }
+        assertTrue(expected > 0 && count > 10 * 16 * 4);
+        TileBuffer buffer = new TileBuffer(0);
+        int actual = 0, pages = 0;
+        long start = 0;
+        while (start < count) {
+            int n = osmtile.getTilesForExtent(extent, zoom, start, 4, buffer, coverage);
+            assertTrue(n > 0 || buffer.getEnd() == count);
+            assertTrue(buffer.getEnd() > start);
+            actual += n;
+            pages++;
+            start = buffer.getEnd();
+        }
+        assertEquals(expected, actual);
+        assertTrue(pages <= expected / 4 + 2);
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml.projections;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class TileInventoryTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File listing(String... lines) throws IOException {
+        File listing = folder.newFile();
+        Files.write(listing.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+        return listing;
+    }
+
+    @Test
+    public void testKeys() {
+        // the zoom level, then the Morton code with the column in the even bits
+        assertEquals(0L, TileInventory.key(0, 0, 0));
+        assertEquals(1L, TileInventory.key(3, 1, 0) & 0xff);
+        assertEquals(2L, TileInventory.key(3, 0, 1) & 0xff);
+        assertEquals(0xfL, TileInventory.key(3, 3, 3) & 0xff);
+        assertTrue(TileInventory.key(3, 7, 7) < TileInventory.key(4, 0, 0));
+        long max = (1L << 29) - 1;
+        assertEquals((1L << 58) - 1, TileInventory.key(0, max, max));
+        assertTrue(TileInventory.key(31, max, max) > TileInventory.key(30, max, max));
+    }
+
+    @Test
+    public void testBuildFromListing() throws IOException {
+        File index = new File(folder.getRoot(), "tiles.idx");
+        TileInventory inventory = TileInventory.build(listing("# a comment", "15/9491/11735", 
+                "cache/15/9492/11736.png", "15\\9494\\11735.jpg", "15/9491/11735", "", "not/a/tile", "18/-1/2"), index);
+        assertEquals(3, inventory.size());
+        assertTrue(inventory.covers(15, 9491, 11735));
+        assertTrue(inventory.covers(15, 9492, 11736));
+        assertTrue(inventory.covers(15, 9494, 11735));
+        assertFalse(inventory.covers(15, 9492, 11735));
+        assertFalse(inventory.covers(14, 9491, 11735));
+        assertFalse(inventory.covers(15, -1, 11735));
+        assertFalse(inventory.covers(15, 1L << 40, 11735));
+        // the index is mapped from the file
+        TileInventory reopened = TileInventory.open(index);
+        assertEquals(3, reopened.size());
+        assertEquals(inventory.getChecksum(), reopened.getChecksum());
+        assertTrue(reopened.covers(15, 9494, 11735));
+        // a rebuild replaces the index in use
+        TileInventory rebuilt = TileInventory.build(listing("15/9493/11735"), index);
+        assertNotEquals(inventory.getChecksum(), rebuilt.getChecksum());
+        assertTrue(rebuilt.covers(15, 9493, 11735));
+        assertTrue(inventory.covers(15, 9494, 11735));
+        assertFalse(TileInventory.open(index).covers(15, 9494, 11735));
+    }
+
+    @Test
+    public void testBuildFromDirectory() throws IOException {
+        File cache = folder.newFolder("cache");
+        for (String tile : new String[] {"3/1/2.png", "3/4/5.png", "12/1234/2345.png"}) {
+            File file = new File(cache, tile);
+            assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+            assertTrue(file.createNewFile());
+        }
+        TileInventory inventory = TileInventory.build(cache, new File(folder.getRoot(), "cache.idx"));
+        assertEquals(3, inventory.size());
+        assertTrue(inventory.covers(3, 1, 2));
+        assertTrue(inventory.covers(3, 4, 5));
+        assertTrue(inventory.covers(12, 1234, 2345));
+        assertFalse(inventory.covers(3, 2, 1));
+    }
+
+    @Test
+    public void testNotAnIndex() throws IOException {
+        try {
+            TileInventory.open(listing("15/9491/11735"));
+            fail("a listing is not an index");
+        } catch (RuntimeException e) {
+        }
+    }
+
+    @Test
+    public void testPaging() throws IOException {
+        TiledCRS osmtile = new TiledCRS("OSMTILE");
+        Bounds extent = new Bounds(2429887, 3004190, 2430527, 3004670);
+        TileInventory inventory = TileInventory.build(listing("15/9491/11735", "15/9494/11736", "15/9493/11735"), 
+                new File(folder.getRoot(), "tiles.idx"));
+        TileBuffer buffer = new TileBuffer(0);
+        assertEquals(2, osmtile.getTilesForExtent(extent, 15, 0, 2, buffer, inventory));
+        long end = buffer.getEnd();
+        assertEquals(1, osmtile.getTilesForExtent(extent, 15, end, 2, buffer, inventory));
+        assertEquals(osmtile.tileCount(15, extent), buffer.getEnd());
+    }
+
+    /**
+     * A range intersects the inventory exactly when it has a tile of it, 
+     * although the keys of many other tiles lie between its corners.
+     */
+    @Test
+    public void testIntersects() throws IOException {
+        Random random = new Random(42);
+        String[] tiles = new String[40];
+        boolean[][] has = new boolean[64][64];
+        for (int i = 0; i < tiles.length; i++) {
+            int column = random.nextInt(64), row = random.nextInt(64);
+            has[column][row] = true;
+            tiles[i] = "6/" + column + "/" + row;
+        }
+        TileInventory inventory = TileInventory.build(listing(tiles), new File(folder.getRoot(), "tiles.idx"));
+        for (int n = 0; n < 2000; n++) {
+            int minColumn = random.nextInt(64), minRow = random.nextInt(64);
+            int maxColumn = minColumn + random.nextInt(64 - minColumn), maxRow = minRow + random.nextInt(64 - minRow);
+            if (n % 2 == 0) {
+                // a line, as a ring of the order tests
+                maxRow = minRow;
+            }
+            boolean expected = false;
+            for (int column = minColumn; column <= maxColumn; column++) {
+                for (int row = minRow; row <= maxRow; row++) {
+                    expected |= has[column][row];
+                }
+            }
+            assertEquals(minColumn + "," + minRow + " " + maxColumn + "," + maxRow, 
+                    expected, inventory.intersects(6, minColumn, minRow, maxColumn, maxRow));
+        }
+        assertFalse(inventory.intersects(5, 0, 0, 31, 31));
+        assertFalse(inventory.intersects(6, 64, 64, 1L << 40, 1L << 40));
+    }
+
+    /**
+     * However large the extent and however sparse the inventory, a page 
+     * tests at most MAX_SCAN_PAGES pages worth of tiles, even when the 
+     * filter cannot tell which ranges it keeps tiles of.
+     */
+    @Test
+    public void testSparsePagingIsBounded() throws IOException {
+        TiledCRS osmtile = new TiledCRS("OSMTILE");
+        int zoom = 18;
+        Bounds world = new Bounds(0, 0, 256D * (1 << zoom), 256D * (1 << zoom));
+        final TileInventory inventory = TileInventory.build(listing("18/0/0", "18/262143/5"), 
+                new File(folder.getRoot(), "tiles.idx"));
+        final long[] tested = new long[1];
+        TileFilter vague = new TileFilter() {
+            @Override
+            public boolean covers(int zoom, long column, long row) {
+                tested[0]++;
+                return inventory.covers(zoom, column, row);
+            }
+            @Override
+            public boolean intersects(int zoom, long minColumn, long minRow, long maxColumn, long maxRow) {
+                return true;
+            }
+        };
+        int pageSize = 10;
+        long bound = (long) pageSize * TiledCRS.MAX_SCAN_PAGES;
+        TileBuffer buffer = new TileBuffer(0);
+        long start = 0;
+        for (int page = 0; page < 3; page++) {
+            tested[0] = 0;
+            assertEquals(0, osmtile.getTilesForExtent(world, zoom, start, pageSize, buffer, vague));
+            assertTrue(tested[0] <= bound);
+            // an empty page ends before the end of the extent, so it has a next page
+            assertTrue(buffer.getEnd() > start && buffer.getEnd() < osmtile.tileCount(zoom, world));
+            start = buffer.getEnd();
+        }
+        // the inventory itself skips the rings without tiles, far past the
+        // tiles it tests
+        tested[0] = 0;
+        TileFilter exact = new TileFilter() {
+            @Override
+            public boolean covers(int zoom, long column, long row) {
+                tested[0]++;
+                return inventory.covers(zoom, column, row);
+            }
+            @Override
+            public boolean intersects(int zoom, long minColumn, long minRow, long maxColumn, long maxRow) {
+                return inventory.intersects(zoom, minColumn, minRow, maxColumn, maxRow);
+            }
+        };
+        assertEquals(0, osmtile.getTilesForExtent(world, zoom, 0, pageSize, buffer, exact));
+        assertTrue(tested[0] <= bound);
+        assertTrue(buffer.getEnd() > 1000 * bound);
+    }
+}
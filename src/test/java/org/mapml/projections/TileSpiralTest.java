@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml.projections;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TileSpiralTest {
+    private static final double EPSILON = 1e-9;
+
+    private static double ring(double cx, double cy, long x, long y) {
+        return Math.max(Math.abs(x + 0.5 - cx), Math.abs(y + 0.5 - cy));
+    }
+
+    private static double euclidean(double cx, double cy, long x, long y) {
+        return Math.hypot(x + 0.5 - cx, y + 0.5 - cy);
+    }
+
+    /**
+     * Enumerate every tile and check it against a brute force ordering, and
+     * check that seeking to each position yields the same tile.
+     */
+    private void check(double cx, double cy, long xmin, long ymin, long xmax, long ymax) {
+        TileSpiral spiral = new TileSpiral(cx, cy, xmin, ymin, xmax, ymax);
+        long expectedSize = xmax < xmin || ymax < ymin ? 0 : (xmax - xmin + 1) * (ymax - ymin + 1);
+        assertEquals(expectedSize, spiral.size());
+        long[] xs = new long[(int) expectedSize], ys = new long[(int) expectedSize];
+        Set<Long> seen = new HashSet<>();
+        int n = 0;
+        while (spiral.next()) {
+            long x = spiral.getX(), y = spiral.getY();
+            assertTrue("tile inside clip", x >= xmin && x <= xmax && y >= ymin && y <= ymax);
+            assertTrue("tile enumerated once", seen.add(x * 1000003L + y));
+            if (n > 0) {
+                double previous = ring(cx, cy, xs[n - 1], ys[n - 1]), current = ring(cx, cy, x, y);
+                assertTrue("ring distance must not decrease", current >= previous - EPSILON);
+                if (Math.abs(current - previous) < EPSILON) {
+                    assertTrue("within a ring, euclidean distance must not decrease", 
+                            euclidean(cx, cy, x, y) >= euclidean(cx, cy, xs[n - 1], ys[n - 1]) - EPSILON);
+                }
+            }
+            xs[n] = x;
+            ys[n] = y;
+            n++;
+        }
+        assertEquals(expectedSize, n);
+        assertFalse(spiral.hasNext());
+        for (int k = 0; k < n; k++) {
+            spiral.seek(k);
+            assertEquals(k, spiral.position());
+            // read a few tiles from each position to cross step and ring boundaries
+            for (int i = k; i < Math.min(n, k + 3); i++) {
+                assertTrue(spiral.next());
+                assertEquals("x at " + i + " after seek to " + k, xs[i], spiral.getX());
+                assertEquals("y at " + i + " after seek to " + k, ys[i], spiral.getY());
+            }
+        }
+        spiral.seek(n);
+        assertFalse(spiral.next());
+    }
+
+    @Test
+    public void testOrderAndSeek() {
+        check(4.3, 2.8, 0, 0, 9, 5);
+        // centre exactly on tile centres and tile edges
+        check(5.5, 5.5, 0, 0, 10, 10);
+        check(5.0, 5.0, 0, 0, 9, 9);
+        check(5.0, 3.5, 0, 0, 9, 6);
+        // a single row and a single column
+        check(3.7, 0.2, 0, 0, 20, 0);
+        check(0.9, 7.1, 0, 0, 0, 15);
+        // centre outside the clip rectangle
+        check(-20.3, -7.6, 0, 0, 6, 4);
+        check(30.25, 2.5, 0, 0, 6, 4);
+        // an empty clip
+        check(1.0, 1.0, 5, 5, 4, 4);
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            long xmin = random.nextInt(20) - 10, ymin = random.nextInt(20) - 10;
+            long xmax = xmin + random.nextInt(12), ymax = ymin + random.nextInt(12);
+            double cx = xmin - 3 + random.nextDouble() * (xmax - xmin + 7);
+            double cy = ymin - 3 + random.nextDouble() * (ymax - ymin + 7);
+            check(cx, cy, xmin, ymin, xmax, ymax);
+        }
+    }
+
+    @Test
+    public void testDeepSeekInLargeExtent() {
+        // zoom 24 is 2^24 tiles wide; seeking deep into it must be cheap
+        long max = (1L << 24) - 1;
+        TileSpiral spiral = new TileSpiral(1234567.25, 7654321.75, 0, 0, max, max);
+        assertEquals((max + 1) * (max + 1), spiral.size());
+        long k = spiral.size() - 100;
+        spiral.seek(k);
+        int count = 0;
+        while (spiral.next()) {
+            count++;
+        }
+        assertEquals(100, count);
+        // the last tiles are the farthest corner of the extent
+        assertEquals(max, spiral.getX());
+        assertEquals(max, spiral.getY());
+    }
+}
@@ -43,13 +43,13 @@ package org.mapml.projections;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.ListIterator;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import org.junit.Before;
 import org.mapml.MapMLConstants;
-import org.mapml.projections.TiledCRS.TileComparator;
 
 /**
  *
@@ -110,7 +110,7 @@ public class TiledCRSTest {
 
       Bounds pb = osmtile.getPixelBounds(query, 15);
       Point centre  = pb.getCentre().divideBy(256);
-      Collections.sort(expectedOrder, osmtile.new TileComparator(centre));
+      Collections.sort(expectedOrder, new TileComparator(centre));
 
       ListIterator<TileCoordinates> li = tiles.listIterator();
       while (li.hasNext()) {
@@ -126,26 +126,107 @@ public class TiledCRSTest {
       // now test the tiles returned for defined extents and scales
       TiledCRS osmtile = new TiledCRS("OSMTILE");
       
-      osmtile.setPageSize(5);
       LatLngBounds query = new LatLngBounds(new LatLng(45.39079543037812,-75.7205629348755), new LatLng(45.40525984235134,-75.693097114563));
-      List<TileCoordinates> tiles = osmtile.getTilesForExtent(query, 15, 0);
+      Bounds pb = osmtile.getPixelBounds(query, 15);
+      List<TileCoordinates> tiles = osmtile.getTilesForExtent(pb, 15, 0, 5);
       assertEquals("Expect 5 tiles for first page of extent: ", 5, tiles.size());
-      tiles = osmtile.getTilesForExtent(query, 15, 5);
+      tiles = osmtile.getTilesForExtent(pb, 15, 5, 5);
       assertEquals("Expect 3 tiles for second page extent: ", 3, tiles.size());
       
   }
   @Test
+  public void testTileBuffer() {
+      TiledCRS osmtile = new TiledCRS("OSMTILE");
+      LatLngBounds query = new LatLngBounds(new LatLng(45.39079543037812,-75.7205629348755), new LatLng(45.40525984235134,-75.693097114563));
+      Bounds pb = osmtile.getPixelBounds(query, 15);
+      // a buffer smaller than the page grows, and is refilled on reuse
+      TileBuffer buffer = new TileBuffer(1);
+      for (long start = 0; start < 8; start += 5) {
+        List<TileCoordinates> tiles = osmtile.getTilesForExtent(pb, 15, start, 5);
+        assertEquals(tiles.size(), osmtile.getTilesForExtent(pb, 15, start, 5, buffer));
+        assertEquals(tiles.size(), buffer.size());
+        assertEquals(15, buffer.getZoom());
+        for (int i = 0; i < tiles.size(); i++) {
+          assertEquals(tiles.get(i).x, buffer.getColumn(i));
+          assertEquals(tiles.get(i).y, buffer.getRow(i));
+        }
+      }
+      assertEquals(0, osmtile.getTilesForExtent(pb, 15, 8, 5, buffer));
+      assertEquals(0, buffer.size());
+  }
+  @Test
+  public void testCBMLCCDensifiedPixelBounds() {
+      TiledCRS cbmlcc = new TiledCRS("CBMTILE");
+      // a wide extent, whose projected edges are curved in LCC
+      LatLngBounds query = new LatLngBounds(new LatLng(43, -100), new LatLng(60, -60));
+      Bounds corners = cbmlcc.getPixelBounds(query, 5);
+      Bounds dense = cbmlcc.getPixelBounds(query, 5, 32);
+      assertTrue(dense.getMin().x <= corners.getMin().x && dense.getMin().y <= corners.getMin().y);
+      assertTrue(dense.getMax().x >= corners.getMax().x && dense.getMax().y >= corners.getMax().y);
+      // the curved southern edge bulges beyond the corners
+      assertTrue(dense.getMax().y > corners.getMax().y + 1);
+      // one segment per edge is just the four corners
+      Bounds four = cbmlcc.getPixelBounds(query, 5, 1);
+      Point nw = cbmlcc.latLngToPoint(new LatLng(60, -100), 5);
+      assertEquals(Math.min(corners.getMin().x, nw.x), four.getMin().x, 1e-6);
+  }
+  @Test
+  public void testTileCentres() {
+      TiledCRS osmtile = new TiledCRS("OSMTILE");
+      LatLngBounds query = new LatLngBounds(new LatLng(45.39079543037812,-75.7205629348755), new LatLng(45.40525984235134,-75.693097114563));
+      TileBuffer buffer = new TileBuffer(10);
+      osmtile.getTilesForExtent(osmtile.getPixelBounds(query, 15), 15, 0, MapMLConstants.PAGESIZE, buffer);
+      double[] centres = new double[2 * buffer.size()];
+      osmtile.getTileCentres(buffer, centres);
+      for (int i = 0; i < buffer.size(); i++) {
+        LatLng expected = osmtile.pointToLatLng(new Point((buffer.getColumn(i) + 0.5) * 256, (buffer.getRow(i) + 0.5) * 256), 15);
+        assertEquals(expected.lng, centres[2 * i], 1e-9);
+        assertEquals(expected.lat, centres[2 * i + 1], 1e-9);
+      }
+  }
+  @Test
   public void testOSMTILEScaleSet() {
       TiledCRS osmtile = new TiledCRS("OSMTILE");
       // assure that there are at least 18 zoom levels.  Uncertain how many
       // would be standard.  Seems that most Web maps go up to 19 levels or so...
       // probably would be wise to go a bit higher for OSMTILE
   }
+  @Test
   public void testOSMTILEBounds() {
     // assure that the limits of the tiled projection are respected at different
-    // zoom levels.
-    // what does *respected* mean???  wrapped? exception?  empty result?
-    
+    // zoom levels: tiles outside the tile matrix are not returned or counted.
+    TiledCRS osmtile = new TiledCRS("OSMTILE");
+    // the whole world, and a bit more, at zoom 0 is one tile
+    Bounds world = new Bounds(new Point(-100, -100), new Point(356, 356));
+    assertEquals(1, osmtile.tileCount(0, world));
+    List<TileCoordinates> tiles = osmtile.getTilesForExtent(world, 0, 0);
+    assertEquals(1, tiles.size());
+    assertEquals(0, tiles.get(0).x);
+    assertEquals(0, tiles.get(0).y);
+    // at zoom 2 it is 4x4 tiles
+    world = new Bounds(new Point(-100, -100), new Point(1124, 1124));
+    assertEquals(16, osmtile.tileCount(2, world));
+    assertEquals(16, osmtile.getTilesForExtent(world, 2, 0).size());
+    for (TileCoordinates t : osmtile.getTilesForExtent(world, 2, 0)) {
+      assertTrue(t.x >= 0 && t.x < 4 && t.y >= 0 && t.y < 4);
+    }
+    // entirely outside the tile matrix
+    assertEquals(0, osmtile.tileCount(0, new Bounds(new Point(-45, -45), new Point(-1, -1))));
+  }
+  @Test
+  public void testOSMTILEDeepPaging() {
+    // the whole world at zoom 18 is 2^36 tiles; any page of it is cheap
+    TiledCRS osmtile = new TiledCRS("OSMTILE");
+    int zoom = 18;
+    long side = 1L << zoom;
+    Bounds world = new Bounds(new Point(0, 0), new Point(side * 256 - 1, side * 256 - 1));
+    assertEquals(side * side, osmtile.tileCount(zoom, world));
+    long start = side * side - 1;
+    List<TileCoordinates> tiles = osmtile.getTilesForExtent(world, zoom, start);
+    assertEquals("Expect the last tile alone on the last page", 1, tiles.size());
+    assertTrue(osmtile.getTilesForExtent(world, zoom, side * side).isEmpty());
+    assertTrue(osmtile.getTilesForExtent(world, zoom, 68719476736L).isEmpty());
+    assertEquals(MapMLConstants.PAGESIZE, osmtile.getTilesForExtent(world, zoom, start / 2).size());
   }
   @Test
   public void testCBMLCCProjection() {
@@ -194,7 +275,7 @@ public class TiledCRSTest {
 
       Bounds pb = cbmlcc.getPixelBounds(query, 17);
       Point centre  = pb.getCentre().divideBy(256);
-      Collections.sort(expectedOrder, cbmlcc.new TileComparator(centre));
+      Collections.sort(expectedOrder, new TileComparator(centre));
 
       ListIterator<TileCoordinates> li = tiles.listIterator();
       while (li.hasNext()) {
@@ -214,4 +295,97 @@ public class TiledCRSTest {
   public void testCBMLCCBounds() {
     
   }
+  @Test
+  public void testRegistry() throws Exception {
+    final TiledCRS[] shared = new TiledCRS[8];
+    Thread[] threads = new Thread[shared.length];
+    for (int i = 0; i < threads.length; i++) {
+      final int n = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          shared[n] = TiledCRSRegistry.get("CBMTILE");
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    for (TiledCRS t : shared) {
+      assertSame(shared[0], t);
+    }
+    assertSame(TiledCRSRegistry.get("OSMTILE"), TiledCRSRegistry.get("OSMTILE"));
+    assertNotSame(TiledCRSRegistry.get("OSMTILE"), TiledCRSRegistry.get("APSTILE"));
+    try {
+      TiledCRSRegistry.get("WGS84");
+      fail("Expected an exception for an undefined tiled CRS");
+    } catch (RuntimeException e) {
+      assertTrue(e.getMessage().contains("WGS84"));
+    }
+  }
+  @Test
+  public void testPrimitiveUntransform() {
+    TiledCRS cbmtile = new TiledCRS("CBMTILE");
+    int zoom = 7;
+    Bounds pixels = new Bounds(2816.5, 4096.25, 1024.75, 2560);
+    assertEquals(1024.75, pixels.getMinX(), 0);
+    assertEquals(4096.25, pixels.getMaxY(), 0);
+    double[] projected = new double[4];
+    cbmtile.untransform(pixels, zoom, projected);
+    Point a = cbmtile.untransform(pixels.getMin(), zoom);
+    Point b = cbmtile.untransform(pixels.getMax(), zoom);
+    double epsilon = 1e-6;
+    assertEquals(Math.min(a.x, b.x), projected[0], epsilon);
+    assertEquals(Math.min(a.y, b.y), projected[1], epsilon);
+    assertEquals(Math.max(a.x, b.x), projected[2], epsilon);
+    assertEquals(Math.max(a.y, b.y), projected[3], epsilon);
+    double[] point = new double[2];
+    cbmtile.untransform(pixels.getMinX(), pixels.getMinY(), zoom, point, 0);
+    assertEquals(a.x, point[0], epsilon);
+    assertEquals(a.y, point[1], epsilon);
+    assertTrue(pixels.intersects(0, 0, 1024.75, 2560));
+    assertFalse(pixels.intersects(0, 0, 1024.7, 2560));
+  }
+
+  @Test
+  public void testTileAlignedBounds() {
+    TiledCRS osmtile = new TiledCRS("OSMTILE");
+    Bounds request = new Bounds(2429887.3, 3004190.9, 2430527.1, 3004670.6);
+    Bounds aligned = osmtile.getTileAlignedBounds(request);
+    assertEquals(9491 * 256, aligned.getMinX(), 0D);
+    assertEquals(11735 * 256, aligned.getMinY(), 0D);
+    assertEquals(9495 * 256 - 1, aligned.getMaxX(), 0D);
+    assertEquals(11737 * 256 - 1, aligned.getMaxY(), 0D);
+    // the aligned bounds select the same tiles, and are aligned already
+    assertEquals(osmtile.tileCount(15, request), osmtile.tileCount(15, aligned));
+    assertEquals(osmtile.getTilesForExtent(request, 15, 0, 100).size(), 
+            osmtile.getTilesForExtent(aligned, 15, 0, 100).size());
+    Bounds again = osmtile.getTileAlignedBounds(aligned);
+    assertEquals(aligned.getMinX(), again.getMinX(), 0D);
+    assertEquals(aligned.getMaxY(), again.getMaxY(), 0D);
+    // any extent within the same tiles snaps to the same bounds
+    Bounds inner = osmtile.getTileAlignedBounds(new Bounds(9491 * 256 + 200, 11735 * 256, 9494 * 256 + 1, 11736 * 256 + 255.9));
+    assertEquals(aligned.getMinX(), inner.getMinX(), 0D);
+    assertEquals(aligned.getMaxX(), inner.getMaxX(), 0D);
+    assertEquals(aligned.getMaxY(), inner.getMaxY(), 0D);
+  }
+  /**
+   * Ranks tiles by distance from a centre: first by the ring (Chebyshev) 
+   * distance, then by Euclidean distance, the order of {@link TileSpiral}.
+   */
+  private static class TileComparator implements Comparator<TileCoordinates> {
+      private final Point centre;
+      TileComparator(Point centre) {
+        this.centre = centre;
+      }
+      @Override
+      public int compare(TileCoordinates t1, TileCoordinates t2) {
+          // add 0.5 to ordinates to calculate distance to tile centres
+          double dx1 = Math.abs(t1.x + 0.5 - centre.x), dy1 = Math.abs(t1.y + 0.5 - centre.y);
+          double dx2 = Math.abs(t2.x + 0.5 - centre.x), dy2 = Math.abs(t2.y + 0.5 - centre.y);
+          int ring = Double.compare(Math.max(dx1, dy1), Math.max(dx2, dy2));
+          return ring != 0 ? ring : Double.compare(dx1 * dx1 + dy1 * dy1, dx2 * dx2 + dy2 * dy2);
+      }
+  }
 }
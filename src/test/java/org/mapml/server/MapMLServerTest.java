@@ -0,0 +1,202 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mapml.exceptions.MapMLException;
+import static org.junit.Assert.*;
+
+public class MapMLServerTest {
+    // Ottawa, in pixels at zoom 15
+    private static final String QUERY = "?zoom=15&xmin=2429887&ymin=3004190"
+            + "&xmax=2430527&ymax=3004670&projection=OSMTILE";
+    private static List<LayerConfig> layers;
+    private static MapMLServer server;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        try (InputStream in = new FileInputStream("src/main/webapp/WEB-INF/web.xml")) {
+            layers = LayerConfig.read(in);
+        }
+        server = new MapMLServer(layers, 0, "");
+        server.start();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.stop(0);
+    }
+
+    private HttpURLConnection get(String path, String ifNoneMatch) throws IOException {
+        URL url = new URL("http://localhost:" + server.getPort() + path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        if (ifNoneMatch != null) {
+            connection.setRequestProperty("If-None-Match", ifNoneMatch);
+        }
+        return connection;
+    }
+
+    private static String read(HttpURLConnection connection) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) > 0;) {
+                bytes.write(buffer, 0, n);
+            }
+        }
+        return new String(bytes.toByteArray(), "UTF-8");
+    }
+
+    @Test
+    public void testLayerConfig() {
+        assertEquals(4, layers.size());
+        LayerConfig osm = null;
+        for (LayerConfig layer : layers) {
+            if (layer.getName().equals("osm")) osm = layer;
+        }
+        assertNotNull(osm);
+        assertEquals("OSMTILE", osm.getParameters().get("projection"));
+        assertEquals("a,b,c", osm.getParameters().get("tileServers"));
+        assertEquals("/osm/*", osm.getUrlPatterns().get(0));
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        HttpURLConnection connection = get("/osm/" + QUERY, null);
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("text/mapml;projection=OSMTILE;zoom=15;charset=UTF-8", connection.getContentType());
+        assertEquals("*", connection.getHeaderField("Access-Control-Allow-Origin"));
+        assertEquals("public, max-age=3600", connection.getHeaderField("Cache-Control"));
+        String doc = read(connection);
+        assertTrue(doc.startsWith("<mapml>"));
+        // the base is the local address of the connection, not the Host header
+        assertTrue(doc.matches("(?s).*<base href=\"http://(127\\.0\\.0\\.1|\\[[0-9a-f:]+\\]):" + server.getPort() + "/osm/\"/>.*"));
+        assertTrue(doc.contains("<tile "));
+        String etag = connection.getHeaderField("ETag");
+        assertNotNull(etag);
+
+        connection = get("/osm/" + QUERY, etag);
+        assertEquals(304, connection.getResponseCode());
+        assertEquals(etag, connection.getHeaderField("ETag"));
+
+        connection = get("/cbmt" + QUERY.replace("OSMTILE", "CBMTILE"), null);
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(read(connection).contains("<meta name=\"projection\" content=\"CBMTILE\"/>"));
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        HttpURLConnection connection = get("/osm/?zoom=x", null);
+        assertEquals(400, connection.getResponseCode());
+        assertTrue(read(connection).contains("zoom"));
+        connection = get("/osm/?projection=CBMTILE", null);
+        assertEquals(400, connection.getResponseCode());
+        // errors are not cacheable
+        assertNull(connection.getHeaderField("ETag"));
+        assertNull(connection.getHeaderField("Cache-Control"));
+        assertEquals(404, get("/osmtile/", null).getResponseCode());
+        connection = get("/osm/", null);
+        connection.setRequestMethod("POST");
+        assertEquals(405, connection.getResponseCode());
+    }
+
+    @Test
+    public void testBaseUrl() throws Exception {
+        MapMLServer proxied = new MapMLServer(layers, 0, "", "https://maps.example.com/");
+        proxied.start();
+        try {
+            URL url = new URL("http://localhost:" + proxied.getPort() + "/osm/" + QUERY);
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            assertEquals(200, connection.getResponseCode());
+            assertTrue(read(connection).contains("<base href=\"https://maps.example.com/osm/\"/>"));
+        } finally {
+            proxied.stop(0);
+        }
+        try {
+            new MapMLServer(layers, 0, "", "maps.example.com");
+            fail("Expected a relative base URL to be rejected");
+        } catch (MapMLException e) {}
+    }
+
+    /**
+     * A layer whose tiles are filtered by a coverage lists its tiles, and 
+     * is labelled so, even when tile templates are asked for.
+     */
+    @Test
+    public void testCoverageHasNoTemplates() throws Exception {
+        LayerConfig osm = null;
+        for (LayerConfig layer : layers) {
+            if (layer.getName().equals("osm")) osm = layer;
+        }
+        Map<String, String> parameters = new HashMap<>(osm.getParameters());
+        parameters.put("coverage", "POLYGON ((-76 45, -75 45, -75 46, -76 46, -76 45))");
+        MapMLServer covered = new MapMLServer(Collections.singletonList(
+                new LayerConfig("covered", parameters, osm.getUrlPatterns())), 0, "");
+        covered.start();
+        try {
+            URL url = new URL("http://localhost:" + covered.getPort() + "/osm/" + QUERY + "&tiles=templates");
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            assertEquals(200, connection.getResponseCode());
+            assertEquals("text/mapml;projection=OSMTILE;zoom=15;charset=UTF-8", connection.getContentType());
+            String doc = read(connection);
+            assertTrue(doc.contains("<tile "));
+            assertFalse(doc.contains("rel=\"tile\""));
+        } finally {
+            covered.stop(0);
+        }
+        // without a coverage, the templates asked for
+        HttpURLConnection connection = get("/osm/" + QUERY + "&tiles=templates", null);
+        assertEquals("text/mapml;projection=OSMTILE;zoom=15;tiles=templates;charset=UTF-8", connection.getContentType());
+        assertTrue(read(connection).contains("rel=\"tile\""));
+    }
+}
@@ -0,0 +1,775 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml.servlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import org.junit.Before;
+import org.mapml.MapMLBinary;
+import org.mapml.MapMLLayer;
+import org.mapml.cache.ResponseCache;
+import org.mapml.cache.ResponsePolicy;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mapml.projections.TileInventory;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletConfig;
+import org.springframework.mock.web.MockServletContext;
+import static org.junit.Assert.*;
+
+public class MapMLServletTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private MockServletConfig config;
+    private MapMLServlet servlet;
+
+    @Before
+    public void setUp() throws Exception {
+        config = new MockServletConfig(new MockServletContext(), "osm");
+        config.addInitParameter("extent", "-20037508.34,-20037508.34,20037508.34,20037508.34");
+        config.addInitParameter("projection", "OSMTILE");
+        config.addInitParameter("zoomRange", "0,18");
+        config.addInitParameter("tileUrlTemplate", "{scheme}://tile.openstreetmap.org/{z}/{x}/{y}.png");
+        config.addInitParameter("licenseUrl", "http://www.openstreetmap.org/copyright");
+        config.addInitParameter("licenseTitle", "© OpenStreetMap contributors CC BY-SA");
+        config.addInitParameter("responseCacheSize", "1000000");
+        config.addInitParameter("maxAge", "0-12:86400,13-18:3600");
+        servlet = new MapMLServlet();
+        servlet.init(config);
+    }
+
+    private MockHttpServletRequest request(int zoom) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/osm/");
+        request.addParameter("zoom", String.valueOf(zoom));
+        request.addParameter("xmin", "-8429174.508490367");
+        request.addParameter("ymin", "5683255.481687962");
+        request.addParameter("xmax", "-8426117.027358958");
+        request.addParameter("ymax", "5685548.592536515");
+        request.addParameter("projection", "OSMTILE");
+        // the servlet parses the raw query string
+        request.setQueryString("zoom=" + zoom + "&xmin=-8429174.508490367&ymin=5683255.481687962"
+                + "&xmax=-8426117.027358958&ymax=5685548.592536515&projection=OSMTILE");
+        return request;
+    }
+
+    @Test
+    public void testConditionalGet() throws Exception {
+        MockHttpServletResponse first = new MockHttpServletResponse();
+        servlet.service(request(15), first);
+        assertEquals(200, first.getStatus());
+        String etag = first.getHeader("ETag");
+        assertNotNull(etag);
+        assertTrue(etag.matches("\"[0-9a-f]{16}\""));
+        assertEquals("public, max-age=3600", first.getHeader("Cache-Control"));
+        assertNotNull(first.getHeader("Last-Modified"));
+        assertEquals(first.getContentAsByteArray().length, first.getContentLength());
+
+        MockHttpServletRequest again = request(15);
+        again.addHeader("If-None-Match", "\"0000000000000000\", W/" + etag);
+        MockHttpServletResponse notModified = new MockHttpServletResponse();
+        servlet.service(again, notModified);
+        assertEquals(304, notModified.getStatus());
+        assertEquals(etag, notModified.getHeader("ETag"));
+        assertEquals(0, notModified.getContentAsByteArray().length);
+        // the 304 was answered before the document was rendered or looked up
+        ResponseCache<?> cache = (ResponseCache<?>) 
+                config.getServletContext().getAttribute(MapMLServlet.CACHE_ATTRIBUTE_PREFIX + "osm");
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0, cache.getHitCount());
+
+        // a different request, or a different configuration, changes the tag
+        MockHttpServletResponse other = new MockHttpServletResponse();
+        servlet.service(request(12), other);
+        assertFalse(etag.equals(other.getHeader("ETag")));
+        assertEquals("public, max-age=86400", other.getHeader("Cache-Control"));
+
+        config.addInitParameter("title", "Changed");
+        MapMLServlet changed = new MapMLServlet();
+        changed.init(config);
+        MockHttpServletResponse reconfigured = new MockHttpServletResponse();
+        changed.service(request(15), reconfigured);
+        assertFalse(etag.equals(reconfigured.getHeader("ETag")));
+    }
+
+    /**
+     * Documents link to the configured base URL, or else the local address,
+     * never the Host header, so a client cannot add copies of a document to
+     * the cache by varying it.
+     */
+    @Test
+    public void testHostHeaderIsIgnored() throws Exception {
+        ResponseCache<?> cache = (ResponseCache<?>) 
+                config.getServletContext().getAttribute(MapMLServlet.CACHE_ATTRIBUTE_PREFIX + "osm");
+        String document = null;
+        for (String host : new String[] {"localhost", "evil.example", "other.example"}) {
+            MockHttpServletRequest request = request(15);
+            request.setServerName(host);
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            servlet.service(request, response);
+            assertFalse(response.getContentAsString().contains(host));
+            assertTrue(document == null || document.equals(response.getContentAsString()));
+            document = response.getContentAsString();
+        }
+        assertEquals(1, cache.size());
+
+        ((MockServletContext) config.getServletContext()).addInitParameter("baseUrl", "https://maps.example.com/");
+        MapMLServlet proxied = new MapMLServlet();
+        proxied.init(config);
+        MockHttpServletRequest request = request(15);
+        request.setServerName("evil.example");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        proxied.service(request, response);
+        assertTrue(response.getContentAsString().contains("<base href=\"https://maps.example.com/osm/\"/>"));
+        assertFalse(response.getContentAsString().contains("evil.example"));
+
+        config.addInitParameter("baseUrl", "maps.example.com");
+        try {
+            new MapMLServlet().init(config);
+            fail("Expected a relative base URL to be rejected");
+        } catch (ServletException e) {}
+    }
+
+    /**
+     * If-Modified-Since is evaluated only when the request has no 
+     * If-None-Match, so a changed entity tag is never masked by a date.
+     */
+    @Test
+    public void testConditionOrder() throws Exception {
+        MockHttpServletResponse first = new MockHttpServletResponse();
+        servlet.service(request(15), first);
+        String lastModified = first.getHeader("Last-Modified");
+        assertNotNull(lastModified);
+
+        MockHttpServletRequest since = request(15);
+        since.addHeader("If-Modified-Since", lastModified);
+        MockHttpServletResponse notModified = new MockHttpServletResponse();
+        servlet.service(since, notModified);
+        assertEquals(304, notModified.getStatus());
+        assertEquals(first.getHeader("ETag"), notModified.getHeader("ETag"));
+
+        MockHttpServletRequest stale = request(15);
+        stale.addHeader("If-None-Match", "\"0000000000000000\"");
+        stale.addHeader("If-Modified-Since", lastModified);
+        MockHttpServletResponse modified = new MockHttpServletResponse();
+        servlet.service(stale, modified);
+        assertEquals(200, modified.getStatus());
+        assertTrue(modified.getContentAsByteArray().length > 0);
+    }
+
+    @Test
+    public void testCompressedResponse() throws Exception {
+        MockHttpServletResponse plain = new MockHttpServletResponse();
+        servlet.service(request(15), plain);
+        assertNull(plain.getHeader("Content-Encoding"));
+        assertEquals("Accept, Accept-Encoding", plain.getHeader("Vary"));
+        byte[] document = plain.getContentAsByteArray();
+
+        MockHttpServletRequest request = request(15);
+        request.addHeader("Accept-Encoding", "deflate;q=0.5, gzip");
+        MockHttpServletResponse gzipped = new MockHttpServletResponse();
+        servlet.service(request, gzipped);
+        assertEquals("gzip", gzipped.getHeader("Content-Encoding"));
+        assertFalse(plain.getHeader("ETag").equals(gzipped.getHeader("ETag")));
+        byte[] compressed = gzipped.getContentAsByteArray();
+        assertEquals(compressed.length, gzipped.getContentLength());
+        assertTrue(compressed.length < document.length);
+        assertArrayEquals(document, inflate(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+
+        // the compressed document is cached alongside the plain one
+        ResponseCache<?> cache = (ResponseCache<?>) 
+                config.getServletContext().getAttribute(MapMLServlet.CACHE_ATTRIBUTE_PREFIX + "osm");
+        long loads = cache.getLoadCount();
+        MockHttpServletResponse again = new MockHttpServletResponse();
+        servlet.service(request, again);
+        assertArrayEquals(compressed, again.getContentAsByteArray());
+        assertEquals(loads, cache.getLoadCount());
+        assertEquals(2, cache.size());
+
+        // without a cache, the document is compressed as it is printed
+        config.addInitParameter("responseCacheSize", "0");
+        MapMLServlet uncached = new MapMLServlet();
+        uncached.init(config);
+        request = request(15);
+        request.addHeader("Accept-Encoding", "gzip;q=0.5, deflate");
+        MockHttpServletResponse deflated = new MockHttpServletResponse();
+        uncached.service(request, deflated);
+        assertEquals("deflate", deflated.getHeader("Content-Encoding"));
+        assertArrayEquals(document, 
+                inflate(new InflaterInputStream(new ByteArrayInputStream(deflated.getContentAsByteArray()))));
+    }
+
+    private static byte[] inflate(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int n; (n = in.read(buffer)) > 0;) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testCanonicalUrls() throws Exception {
+        config.addInitParameter("canonicalUrls", "redirect");
+        MapMLServlet canonical = new MapMLServlet();
+        canonical.init(config);
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/osm/");
+        request.setQueryString("zoom=15&xmin=2429887.3&ymin=3004190.9&xmax=2430527.1&ymax=3004670.6");
+        MockHttpServletResponse redirect = new MockHttpServletResponse();
+        canonical.service(request, redirect);
+        assertEquals(302, redirect.getStatus());
+        // the local address, whatever the Host header
+        String location = "http://127.0.0.1/osm/?xmin=2429696.0&ymin=3004160.0&xmax=2430719.0&ymax=3004671.0"
+                + "&projection=OSMTILE&zoom=15";
+        assertEquals(location, redirect.getRedirectedUrl());
+
+        // the canonical URL is served
+        request = new MockHttpServletRequest("GET", "/osm/");
+        request.setQueryString(location.substring(location.indexOf('?') + 1));
+        MockHttpServletResponse document = new MockHttpServletResponse();
+        canonical.service(request, document);
+        assertEquals(200, document.getStatus());
+        assertNull(document.getHeader("Content-Location"));
+
+        // or served in place of any URL for the same tiles
+        config.addInitParameter("canonicalUrls", "content-location");
+        canonical = new MapMLServlet();
+        canonical.init(config);
+        request = new MockHttpServletRequest("GET", "/osm/");
+        request.setQueryString("projection=OSMTILE&zoom=15&xmin=2429700&ymin=3004170&xmax=2430600&ymax=3004500");
+        MockHttpServletResponse located = new MockHttpServletResponse();
+        canonical.service(request, located);
+        assertEquals(200, located.getStatus());
+        assertEquals(location, located.getHeader("Content-Location"));
+        assertEquals(document.getContentAsString(), located.getContentAsString());
+    }
+
+    @Test
+    public void testTileTemplates() throws Exception {
+        MockHttpServletResponse elements = new MockHttpServletResponse();
+        servlet.service(pixelRequest(null), elements);
+        assertEquals("text/mapml;projection=OSMTILE;zoom=15", elements.getContentType().replace(";charset=UTF-8", ""));
+        assertTrue(elements.getContentAsString().contains("<tile "));
+
+        MockHttpServletRequest negotiated = pixelRequest(null);
+        negotiated.addHeader("Accept", "text/mapml;tiles=templates, text/mapml;q=0.9");
+        MockHttpServletResponse templates = new MockHttpServletResponse();
+        servlet.service(negotiated, templates);
+        assertTrue(templates.getContentType().contains(MapMLLayer.TILE_TEMPLATES));
+        assertTrue(templates.getContentAsString().contains("<link rel=\"tile\" tref="));
+        assertFalse(templates.getContentAsString().contains("<tile "));
+        assertFalse(elements.getHeader("ETag").equals(templates.getHeader("ETag")));
+
+        // the parameter overrides the Accept header
+        negotiated = pixelRequest("elements");
+        negotiated.addHeader("Accept", "text/mapml;tiles=templates");
+        MockHttpServletResponse fallback = new MockHttpServletResponse();
+        servlet.service(negotiated, fallback);
+        assertEquals(elements.getContentAsString(), fallback.getContentAsString());
+        MockHttpServletResponse parameter = new MockHttpServletResponse();
+        servlet.service(pixelRequest("templates"), parameter);
+        assertEquals(templates.getContentAsString(), parameter.getContentAsString());
+
+        assertFalse(MapMLLayer.useTileTemplates(null, "text/mapml;tiles=templates;q=0, */*"));
+        assertFalse(MapMLLayer.useTileTemplates(null, "text/html, */*"));
+    }
+
+    @Test
+    public void testBinaryResponse() throws Exception {
+        MockHttpServletResponse xml = new MockHttpServletResponse();
+        servlet.service(pixelRequest(null), xml);
+
+        MockHttpServletRequest request = pixelRequest(null);
+        request.addHeader("Accept", MapMLBinary.MEDIA_TYPE + ", text/mapml;q=0.8");
+        MockHttpServletResponse binary = new MockHttpServletResponse();
+        servlet.service(request, binary);
+        assertEquals(200, binary.getStatus());
+        assertTrue(binary.getContentType().startsWith(MapMLBinary.MEDIA_TYPE));
+        assertFalse(binary.getContentType().contains("charset"));
+        assertFalse(xml.getHeader("ETag").equals(binary.getHeader("ETag")));
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        MapMLBinary.decode(new ByteArrayInputStream(binary.getContentAsByteArray()), decoded);
+        assertEquals(xml.getContentAsString(), 
+                decoded.toString("UTF-8").replace(MapMLBinary.MEDIA_TYPE + ";", "text/mapml;"));
+
+        assertFalse(MapMLLayer.useBinary(null));
+        assertFalse(MapMLLayer.useBinary("text/mapml, " + MapMLBinary.MEDIA_TYPE + ";q=0.5"));
+        assertFalse(MapMLLayer.useBinary(MapMLBinary.MEDIA_TYPE + ";q=0"));
+        assertTrue(MapMLLayer.useBinary("text/mapml;q=0.5, " + MapMLBinary.MEDIA_TYPE));
+    }
+
+    private static MockHttpServletRequest pixelRequest(String tiles) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/osm/");
+        request.setQueryString("zoom=15&xmin=2429887&ymin=3004190&xmax=2430527&ymax=3004670" 
+                + (tiles == null ? "" : "&tiles=" + tiles));
+        return request;
+    }
+
+    /**
+     * Only the tiles of the inventory are referred to, and documents and 
+     * their entity tags change when the inventory is rebuilt.
+     */
+    @Test
+    public void testTileInventory() throws Exception {
+        File listing = folder.newFile("tiles.txt");
+        Files.write(listing.toPath(), Arrays.asList("15/9491/11735", "15/9494/11736", "15/9493/11735"), StandardCharsets.UTF_8);
+        File index = new File(folder.getRoot(), "tiles.idx");
+        TileInventory.build(listing, index);
+        config.addInitParameter("tileInventory", index.getPath());
+        MapMLServlet sparse = new MapMLServlet();
+        sparse.init(config);
+        MockHttpServletResponse all = new MockHttpServletResponse();
+        servlet.service(pixelRequest(null), all);
+        MockHttpServletResponse some = new MockHttpServletResponse();
+        sparse.service(pixelRequest(null), some);
+        assertEquals(8, all.getContentAsString().split("<tile ").length - 1);
+        assertEquals(3, some.getContentAsString().split("<tile ").length - 1);
+        assertTrue(some.getContentAsString().contains("<tile col=\"9494\" row=\"11736\""));
+        assertNotEquals(all.getHeader("ETag"), some.getHeader("ETag"));
+        sparse.destroy();
+
+        // an inventory which is missing is built in the background
+        Map<String, String> parameters = new HashMap<>();
+        for (Enumeration<String> e = config.getInitParameterNames(); e.hasMoreElements();) {
+            String name = e.nextElement();
+            parameters.put(name, config.getInitParameter(name));
+        }
+        File rebuilt = new File(folder.getRoot(), "rebuilt.idx");
+        parameters.put("tileInventory", rebuilt.getPath());
+        parameters.put("tileInventorySource", listing.getPath());
+        parameters.put("tileInventoryRefresh", "1");
+        MapMLLayer layer = new MapMLLayer("osm", parameters);
+        try {
+            for (int i = 0; i < 500 && layer.getPrinter().getTileInventory() == null; i++) {
+                Thread.sleep(10);
+            }
+            TileInventory built = layer.getPrinter().getTileInventory();
+            assertNotNull(built);
+            assertEquals(3, built.size());
+            assertTrue(rebuilt.isFile());
+            // documents are cached by inventory
+            String key = layer.getCacheKey("http", "text/mapml", 0, "http://localhost/osm", 15, null);
+            assertTrue(key.endsWith(Long.toHexString(built.getChecksum())));
+
+            // refreshing the same tiles changes nothing
+            long lastModified = layer.getLastModified();
+            String etag = layer.getPolicy().getETag(key);
+            assertTrue(rebuilt.delete());
+            for (int i = 0; i < 500 && !rebuilt.isFile(); i++) {
+                Thread.sleep(10);
+            }
+            assertTrue("refreshed", rebuilt.isFile());
+            Thread.sleep(100);
+            assertSame(built, layer.getPrinter().getTileInventory());
+            assertEquals(lastModified, layer.getLastModified());
+            assertEquals(etag, layer.getPolicy().getETag(key));
+        } finally {
+            layer.close();
+        }
+    }
+
+    @Test
+    public void testResponsePolicy() {
+        ResponsePolicy policy = new ResponsePolicy(42L, "0-12:86400, 13-18:3600, 20:60");
+        assertEquals(86400, policy.getMaxAge(0));
+        assertEquals(86400, policy.getMaxAge(12));
+        assertEquals(3600, policy.getMaxAge(18));
+        assertEquals(-1, policy.getMaxAge(19));
+        assertEquals(60, policy.getMaxAge(20));
+        assertNull(policy.getCacheControl(21));
+
+        policy = new ResponsePolicy(42L, "600, 18:0");
+        assertEquals("public, max-age=600", policy.getCacheControl(3));
+        assertEquals("public, max-age=0", policy.getCacheControl(18));
+        assertEquals("public, max-age=600", policy.getCacheControl(30));
+
+        assertNull(new ResponsePolicy(42L, null).getCacheControl(0));
+
+        String etag = policy.getETag("key");
+        assertEquals(etag, new ResponsePolicy(42L, null).getETag("key"));
+        assertFalse(etag.equals(new ResponsePolicy(43L, null).getETag("key")));
+        assertTrue(ResponsePolicy.matches(etag, etag));
+        assertTrue(ResponsePolicy.matches("*", etag));
+        assertTrue(ResponsePolicy.matches("\"a\" , " + etag + " ", etag));
+        assertFalse(ResponsePolicy.matches("\"a\"", etag));
+        assertFalse(ResponsePolicy.matches(null, etag));
+    }
+
+    @Test
+    public void testAsyncResponse() throws Exception {
+        MockHttpServletResponse expected = new MockHttpServletResponse();
+        servlet.service(request(15), expected);
+
+        config.addInitParameter("async", "true");
+        MapMLServlet async = new MapMLServlet();
+        async.init(config);
+        try {
+            // a slow client drains one chunk per callback
+            SlowClient client = new SlowClient(new MockHttpServletResponse());
+            AsyncRequest request = new AsyncRequest(request(15));
+            async.service(request, client);
+            assertNotNull("request is asynchronous", request.context);
+            client.drain(request.context);
+            assertNotNull(client.getHeader("ETag"));
+            // the response was set up on a container thread
+            assertEquals(1, request.context.starts);
+            assertTrue(request.context.completed);
+            assertArrayEquals(expected.getContentAsByteArray(), client.received.toByteArray());
+
+            // a client which goes away is abandoned
+            client = new SlowClient(new MockHttpServletResponse());
+            request = new AsyncRequest(request(14));
+            async.service(request, client);
+            client.awaitListener();
+            client.listener.onError(new IOException("Connection reset"));
+            assertTrue(request.context.completed);
+            client.ready = true;
+            client.listener.onWritePossible();
+            assertEquals(0, client.received.size());
+        } finally {
+            async.destroy();
+        }
+    }
+
+    @Test
+    public void testAsyncTimeoutWhileRendering() throws Exception {
+        // the worker is still rendering when the request times out
+        final List<Runnable> queued = new ArrayList<>();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        };
+        final SlowClient client = new SlowClient(new MockHttpServletResponse());
+        final AsyncRequest request = new AsyncRequest(request(15));
+        AsyncResponse.start(request, client, 1000, executor, new HashMap<String, String>(), new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                for (AsyncListener listener : request.context.listeners) {
+                    listener.onTimeout(new AsyncEvent(request.context, request, client));
+                }
+                return new byte[] {1, 2, 3};
+            }
+        });
+        queued.get(0).run();
+        assertTrue(request.context.completed);
+        // the rendered document is dropped, without touching the response
+        assertNull(client.listener);
+        assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, client.getStatus());
+        assertEquals(0, client.received.size());
+    }
+
+    @Test
+    public void testAsyncTimeoutWhileWriting() throws Exception {
+        final List<Runnable> queued = new ArrayList<>();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        };
+        SlowClient client = new SlowClient(new MockHttpServletResponse());
+        AsyncRequest request = new AsyncRequest(request(15));
+        Map<String, String> headers = new HashMap<>();
+        headers.put("ETag", "\"etag\"");
+        AsyncResponse.start(request, client, 1000, executor, headers, new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return new byte[3 * AsyncResponse.CHUNK_SIZE];
+            }
+        });
+        queued.get(0).run();
+        client.ready = true;
+        client.listener.onWritePossible();
+        for (AsyncListener listener : request.context.listeners) {
+            listener.onTimeout(new AsyncEvent(request.context, request, client));
+        }
+        // the document is cut short, but the response is not reset
+        assertTrue(request.context.completed);
+        assertEquals(200, client.getStatus());
+        assertEquals("\"etag\"", client.getHeader("ETag"));
+        client.ready = true;
+        client.listener.onWritePossible();
+        assertEquals(AsyncResponse.CHUNK_SIZE, client.received.size());
+    }
+
+    @Test
+    public void testAsyncOverload() throws Exception {
+        ExecutorService executor = RenderPool.acquire(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            // occupy the worker, and fill its queue
+            for (int i = 0; i < 1 + RenderPool.QUEUE_PER_THREAD; i++) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+            }
+            // so that the next request is refused at once
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            AsyncRequest request = new AsyncRequest(request(15));
+            AsyncResponse.start(request, response, 1000, executor, new HashMap<String, String>(), new Callable<byte[]>() {
+                @Override
+                public byte[] call() {
+                    return new byte[0];
+                }
+            });
+            assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, response.getStatus());
+            assertTrue(request.context.completed);
+        } finally {
+            release.countDown();
+            RenderPool.release();
+        }
+    }
+
+    /**
+     * An error in place of a compressed document is not labelled as 
+     * compressed, nor has it the validators of the document.
+     */
+    @Test
+    public void testErrorIsNotEncoded() throws Exception {
+        config.addInitParameter("responseCacheSize", "0");
+        MapMLServlet streaming = new MapMLServlet();
+        streaming.init(config);
+        MockHttpServletRequest request = request(15);
+        request.addHeader("Accept-Encoding", "gzip");
+        // the client goes away before anything is sent
+        HttpServletResponse broken = new HttpServletResponseWrapper(new MockHttpServletResponse()) {
+            @Override
+            public ServletOutputStream getOutputStream() {
+                return new ServletOutputStream() {
+                    @Override
+                    public boolean isReady() {
+                        return true;
+                    }
+                    @Override
+                    public void setWriteListener(WriteListener writeListener) {
+                    }
+                    @Override
+                    public void write(int b) throws IOException {
+                        throw new IOException("Connection reset");
+                    }
+                };
+            }
+        };
+        streaming.service(request, broken);
+        assertEquals(500, broken.getStatus());
+        assertNull(broken.getHeader("Content-Encoding"));
+        // nor is it cacheable
+        assertNull(broken.getHeader("ETag"));
+        assertNull(broken.getHeader("Cache-Control"));
+        assertEquals("*", broken.getHeader("Access-Control-Allow-Origin"));
+        streaming.destroy();
+
+        // nor is an error rendering asynchronously
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Encoding", "gzip");
+        headers.put("ETag", "\"etag\"");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        AsyncRequest async = new AsyncRequest(request(15));
+        AsyncResponse.start(async, response, 1000, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }, headers, new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                throw new IOException("Rendering failed");
+            }
+        });
+        assertEquals(500, response.getStatus());
+        assertNull(response.getHeader("Content-Encoding"));
+        assertNull(response.getHeader("ETag"));
+        assertTrue(async.context.completed);
+    }
+
+    /**
+     * A request which records its asynchronous context.
+     */
+    private static class AsyncRequest extends HttpServletRequestWrapper {
+        TestAsyncContext context;
+        AsyncRequest(HttpServletRequest request) {
+            super(request);
+        }
+        @Override
+        public boolean isAsyncSupported() {
+            return true;
+        }
+        @Override
+        public AsyncContext startAsync(ServletRequest request, ServletResponse response) {
+            context = new TestAsyncContext(request, response);
+            return context;
+        }
+    }
+
+    private static class TestAsyncContext implements AsyncContext {
+        final ServletRequest request;
+        final ServletResponse response;
+        final List<AsyncListener> listeners = new ArrayList<>();
+        volatile boolean completed;
+        volatile int starts;
+        long timeout;
+        TestAsyncContext(ServletRequest request, ServletResponse response) {
+            this.request = request;
+            this.response = response;
+        }
+        @Override public ServletRequest getRequest() { return request; }
+        @Override public ServletResponse getResponse() { return response; }
+        @Override public boolean hasOriginalRequestAndResponse() { return true; }
+        @Override public void dispatch() { throw new UnsupportedOperationException(); }
+        @Override public void dispatch(String path) { throw new UnsupportedOperationException(); }
+        @Override public void dispatch(ServletContext context, String path) { throw new UnsupportedOperationException(); }
+        @Override
+        public void complete() {
+            completed = true;
+            for (AsyncListener listener : listeners) {
+                try {
+                    listener.onComplete(new AsyncEvent(this, request, response));
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        @Override
+        public void start(Runnable run) {
+            starts++;
+            run.run();
+        }
+        @Override public void addListener(AsyncListener listener) { listeners.add(listener); }
+        @Override public void addListener(AsyncListener listener, ServletRequest request, ServletResponse response) { listeners.add(listener); }
+        @Override public <T extends AsyncListener> T createListener(Class<T> type) { throw new UnsupportedOperationException(); }
+        @Override public void setTimeout(long timeout) { this.timeout = timeout; }
+        @Override public long getTimeout() { return timeout; }
+    }
+
+    /**
+     * A response whose output stream accepts one write each time the client
+     * is ready.
+     */
+    private static class SlowClient extends HttpServletResponseWrapper {
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        volatile WriteListener listener;
+        volatile boolean ready;
+        int writes;
+        final ServletOutputStream out = new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return ready;
+            }
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                listener = writeListener;
+            }
+            @Override
+            public void write(int b) {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+            @Override
+            public void write(byte[] b, int off, int len) {
+                assertTrue("written only when ready", ready);
+                received.write(b, off, len);
+                writes++;
+                ready = false;
+            }
+        };
+        SlowClient(HttpServletResponse response) {
+            super(response);
+        }
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return out;
+        }
+        void awaitListener() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (listener == null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertNotNull("write listener set by the render pool", listener);
+        }
+        void drain(TestAsyncContext context) throws Exception {
+            awaitListener();
+            while (!context.completed) {
+                ready = true;
+                listener.onWritePossible();
+            }
+            assertEquals((received.size() + AsyncResponse.CHUNK_SIZE - 1) / AsyncResponse.CHUNK_SIZE, writes);
+        }
+    }
+}
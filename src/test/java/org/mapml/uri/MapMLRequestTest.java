@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml.uri;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.mapml.exceptions.BadRequestException;
+import org.mapml.exceptions.InvalidParameterException;
+import org.mapml.projections.Bounds;
+
+public class MapMLRequestTest {
+
+    private static void assertInvalid(String query, String parameter) {
+        try {
+            new MapMLRequest().parse(query);
+            fail("Failed to reject " + query);
+        } catch (InvalidParameterException e) {
+            assertEquals(parameter, e.getParameter());
+            assertTrue(e.getMessage().contains(parameter));
+            assertEquals("stackless", 0, e.getStackTrace().length);
+        }
+    }
+
+    @Test
+    public void testDefaults() {
+        MapMLRequest request = new MapMLRequest().parse(null);
+        assertEquals(-1, request.getZoom());
+        assertNull(request.getBounds());
+        assertEquals("OSMTILE", request.getProjection());
+        assertNull(request.getAlt());
+        assertEquals(0L, request.getStart());
+        // blank, valueless and unknown parameters take the defaults
+        request.parse("zoom=&xmin=%20&foo=bar&start&=5&&alt=");
+        assertEquals(-1, request.getZoom());
+        assertEquals(0D, request.getXmin(), 0D);
+        assertEquals(0L, request.getStart());
+        assertNull(request.getAlt());
+    }
+
+    @Test
+    public void testParse() {
+        MapMLRequest request = new MapMLRequest();
+        request.parse("xmin=-75.72056293487547&ymin=45.39079543037812&xmax=-75.69309711456299"
+                + "&ymax=45.40525984235134&zoom=15&projection=CBMTILE&alt=text%2Fhtml&start=68719476736");
+        assertEquals(15, request.getZoom());
+        assertEquals(-75.72056293487547D, request.getXmin(), 0D);
+        assertEquals(45.39079543037812D, request.getYmin(), 0D);
+        assertEquals(-75.69309711456299D, request.getXmax(), 0D);
+        assertEquals(45.40525984235134D, request.getYmax(), 0D);
+        Bounds bounds = request.getBounds();
+        assertEquals(-75.72056293487547D, bounds.getMinX(), 0D);
+        assertEquals(45.40525984235134D, bounds.getMaxY(), 0D);
+        assertSame("known projections are not copied", "CBMTILE", request.getProjection());
+        assertEquals("text/html", request.getAlt());
+        assertEquals(68719476736L, request.getStart());
+
+        // a reused request forgets the previous values
+        request.parse("projection=WGS84&zoom=%2B3");
+        assertEquals(3, request.getZoom());
+        assertEquals("WGS84", request.getProjection());
+        assertNull(request.getBounds());
+        assertNull(request.getAlt());
+        assertEquals(0L, request.getStart());
+    }
+
+    @Test
+    public void testFirstValueWins() {
+        MapMLRequest request = new MapMLRequest().parse("zoom=4&zoom=5&projection=APSTILE&projection=OSMTILE");
+        assertEquals(4, request.getZoom());
+        assertEquals("APSTILE", request.getProjection());
+        // as for ServletRequest.getParameter, an invalid second value is ignored
+        assertEquals(4, request.parse("zoom=4&zoom=foo").getZoom());
+    }
+
+    @Test
+    public void testInvalid() {
+        assertInvalid("zoom=26", "zoom");
+        assertInvalid("zoom=-2", "zoom");
+        assertInvalid("zoom=foo", "zoom");
+        assertInvalid("zoom=-", "zoom");
+        assertInvalid("zoom=99999999999999999999", "zoom");
+        assertInvalid("start=-4", "start");
+        assertInvalid("start=68719476737", "start");
+        assertInvalid("xmin=west", "xmin");
+        assertInvalid("ymin=1,2", "ymin");
+        assertInvalid("xmax=1..2", "xmax");
+        assertInvalid("ymax=1e", "ymax");
+        try {
+            new MapMLRequest().parse("alt=%zz");
+            fail("Failed to reject a malformed escape");
+        } catch (BadRequestException e) {
+        }
+    }
+
+    @Test
+    public void testTiles() {
+        MapMLRequest request = new MapMLRequest();
+        assertNull(request.parse("zoom=3").getTiles());
+        assertSame(MapMLRequest.TILES_TEMPLATES, request.parse("tiles=templates").getTiles());
+        assertSame(MapMLRequest.TILES_ELEMENTS, request.parse("tiles=elements&zoom=3").getTiles());
+        assertInvalid("tiles=urls", "tiles");
+    }
+
+    @Test
+    public void testCurrent() {
+        assertSame(MapMLRequest.current(), MapMLRequest.current());
+    }
+}
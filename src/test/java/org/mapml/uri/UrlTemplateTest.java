@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Canada Centre for Mapping and Earth Observation, 
+ * Earth Sciences Sector, Natural Resources Canada.
+ *
+ * License
+ *
+ * By obtaining and/or copying this work, you (the licensee) agree that you have 
+ * read, understood, and will comply with the following terms and conditions.
+ * 
+ * Permission to copy, modify, and distribute this work, with or without 
+ * modification, for any purpose and without fee or royalty is hereby granted, 
+ * provided that you include the following on ALL copies of the work or portions 
+ * thereof, including modifications:
+ *
+ * The full text of this NOTICE in a location viewable to users of the 
+ * redistributed or derivative work.
+ *
+ * Any pre-existing intellectual property disclaimers, notices, or terms and 
+ * conditions. If none exist, the W3C Software and Document Short Notice should 
+ * be included.
+ * 
+ * Notice of any changes or modifications, through a copyright statement on the 
+ * new code or document such as "This software or document includes material 
+ * copied from or derived from [title and URI of the W3C document]. 
+ * Copyright © [YEAR] W3C® (MIT, ERCIM, Keio, Beihang)."
+ * 
+ * Disclaimers
+ *
+ * THIS WORK IS PROVIDED "AS IS," AND COPYRIGHT HOLDERS MAKE NO REPRESENTATIONS 
+ * OR WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO, WARRANTIES OF 
+ * MERCHANTABILITY OR FITNESS FOR ANY PARTICULAR PURPOSE OR THAT THE USE OF THE 
+ * SOFTWARE OR DOCUMENT WILL NOT INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, 
+ * TRADEMARKS OR OTHER RIGHTS.
+ * COPYRIGHT HOLDERS WILL NOT BE LIABLE FOR ANY DIRECT, INDIRECT, SPECIAL OR 
+ * CONSEQUENTIAL DAMAGES ARISING OUT OF ANY USE OF THE SOFTWARE OR DOCUMENT.
+ * 
+ * The name and trademarks of copyright holders may NOT be used in advertising or 
+ * publicity pertaining to the work without specific, written prior permission. 
+ * Title to copyright in this work will at all times remain with copyright holders.
+*/
+package org.mapml.uri;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.mapml.MapMLWriter;
+
+public class UrlTemplateTest {
+
+  private static String tile(UrlTemplate t, String scheme, String server, int z, long x, long y) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    MapMLWriter out = new MapMLWriter(bytes);
+    t.writeTile(out, scheme, server, z, x, y);
+    out.release();
+    return new String(bytes.toByteArray(), MapMLWriter.UTF8);
+  }
+
+  @Test
+  public void testTile() throws IOException {
+    UrlTemplate t = UrlTemplate.compile(" {scheme}://{s}.example.com/tile/?z={z}&x={x}&y={y} ");
+    assertEquals("https://b.example.com/tile/?z=15&amp;x=9492&amp;y=11736", tile(t, "https", "b", 15, 9492L, 11736L));
+    assertTrue(t.uses(UrlTemplate.Variable.s));
+    assertFalse(t.uses(UrlTemplate.Variable.xmin));
+  }
+
+  @Test
+  public void testImage() throws IOException {
+    UrlTemplate t = UrlTemplate.compile("{scheme}://foo.example.com/wms/?W={w}&H={h}&BBOX={xmin},{ymin},{xmax},{ymax}");
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    MapMLWriter out = new MapMLWriter(bytes);
+    t.writeImage(out, "http", -1.5D, 2.0D, 3.25D, 4.0D, 256L, 512L);
+    out.release();
+    assertEquals("http://foo.example.com/wms/?W=256&amp;H=512&amp;BBOX=-1.5,2.0,3.25,4.0", new String(bytes.toByteArray(), MapMLWriter.UTF8));
+  }
+
+  @Test
+  public void testUnknownAndInapplicablePlaceholders() throws IOException {
+    UrlTemplate t = UrlTemplate.compile("http://example.com/{foo}/{z}/{xmin}");
+    assertEquals("http://example.com/{foo}/3/{xmin}", tile(t, "http", "", 3, 1L, 2L));
+  }
+
+  @Test
+  public void testBlankTemplatesIgnored() {
+    String[] templates = "\n   http://a.example.com/{z}/{x}/{y}\n   http://b.example.com/{z}/{x}/{y}\n  ".split("\\n");
+    UrlTemplate[] compiled = UrlTemplate.compile(templates);
+    assertEquals(2, compiled.length);
+    assertEquals("http://a.example.com/{z}/{x}/{y}", compiled[0].getTemplate());
+  }
+}